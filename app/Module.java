@@ -1,9 +1,18 @@
 import com.google.inject.AbstractModule;
 import java.time.Clock;
 
+import play.api.db.evolutions.DynamicEvolutions;
+import play.db.ebean.EbeanConfig;
+import play.db.ebean.EbeanDynamicEvolutions;
+
+import services.ApiKeyIndex;
 import services.ApplicationTimer;
 import services.AtomicCounter;
 import services.Counter;
+import services.ExistingIds;
+import services.PoolMetrics;
+import services.RecipeSearchIndex;
+import services.SlowQueryLog;
 
 /**
  * This class is a Guice module that tells Guice how to bind several
@@ -26,6 +35,18 @@ public class Module extends AbstractModule {
         bind(ApplicationTimer.class).asEagerSingleton();
         // Set AtomicCounter as the implementation for Counter.
         bind(Counter.class).to(AtomicCounter.class);
+        // Load the API key index at startup so the first request doesn't pay for it.
+        bind(ApiKeyIndex.class).asEagerSingleton();
+        // Build the recipe search index at startup as well.
+        bind(RecipeSearchIndex.class).asEagerSingleton();
+        // Load the ids used to answer lookups of missing rows without a query.
+        bind(ExistingIds.class).asEagerSingleton();
+        // Register the connection pool metrics before the first connection is borrowed.
+        bind(PoolMetrics.class).asEagerSingleton();
+        // Bindings of play.db.ebean.EbeanModule, which is disabled, with the Ebean config
+        // wrapped by the slow query log.
+        bind(EbeanConfig.class).toProvider(SlowQueryLog.class).asEagerSingleton();
+        bind(DynamicEvolutions.class).to(EbeanDynamicEvolutions.class).asEagerSingleton();
     }
 
 }
@@ -1,18 +1,25 @@
 package controllers;
 
-import models.User;
 import play.i18n.Messages;
 import play.mvc.Http;
 import play.mvc.Result;
 import play.mvc.Results;
 import play.mvc.Security;
+import services.ApiKeyIndex;
 
+import javax.inject.Inject;
 import java.util.Optional;
 
 public class Authorization extends Security.Authenticator {
 
     Messages messages = Http.Context.current().messages();
 
+    /**
+     * Índice en memoria de las claves API
+     */
+    @Inject
+    private ApiKeyIndex apiKeyIndex;
+
     @Override
     public String getUsername(Http.Context context) {
         Optional<String> auth = context.request().header("Authorization");
@@ -21,12 +28,13 @@ public class Authorization extends Security.Authenticator {
             if (apiKey == null) {
                 return null;
             }
-            User user = User.findByApiKey(apiKey);
-            if (user == null) {
+            //Se resuelve la clave en memoria, sin consultar la base de datos
+            ApiKeyIndex.Entry entry = apiKeyIndex.lookup(apiKey);
+            if (entry == null) {
                 return null;
             }
-            context.args.put("loggedUser", user);
-            return user.getNick();
+            context.args.put("loggedUser", entry.toUser());
+            return entry.getNick();
         }
         return null;
     }
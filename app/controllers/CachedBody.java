@@ -0,0 +1,237 @@
+package controllers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import play.http.HttpEntity;
+import play.libs.Json;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+import services.Compressible;
+import services.Weighted;
+
+/**
+ * Clase que representa el cuerpo ya serializado de una respuesta, listo para guardarse en caché. La serialización se
+ * hace una sola vez al llenar la caché; los aciertos sólo escriben los bytes almacenados. Al guardarse en caché también
+ * se comprime en gzip y deflate, y cada petición recibe la copia que indique su cabecera Accept-Encoding.
+ *
+ * @author MIMO
+ */
+public final class CachedBody implements Weighted, Compressible {
+
+    /**
+     * Tipo de contenido de las respuestas JSON
+     */
+    public static final String JSON = "application/json";
+
+    /**
+     * Codificación gzip
+     */
+    public static final String GZIP = "gzip";
+
+    /**
+     * Codificación deflate, que en HTTP es el formato zlib
+     */
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * Cuerpo compacto en UTF-8
+     */
+    private final HttpEntity.Strict compact;
+
+    /**
+     * Cuerpo indentado, que se genera la primera vez que un cliente lo solicita con pretty=true
+     */
+    private volatile HttpEntity.Strict pretty;
+
+    /**
+     * Cuerpo compacto comprimido con gzip, o null si no se ha comprimido
+     */
+    private volatile HttpEntity.Strict gzip;
+
+    /**
+     * Cuerpo compacto comprimido con deflate, o null si no se ha comprimido
+     */
+    private volatile HttpEntity.Strict deflate;
+
+    /**
+     * Constructor de CachedBody
+     *
+     * @param bytes       Cuerpo compacto
+     * @param contentType Tipo de contenido
+     */
+    private CachedBody(ByteString bytes, String contentType) {
+        this.compact = new HttpEntity.Strict(bytes, Optional.of(contentType));
+    }
+
+    /**
+     * Método que serializa un documento JSON en su forma compacta
+     *
+     * @param json El documento
+     * @return El cuerpo serializado
+     */
+    public static CachedBody json(JsonNode json) {
+        try {
+            return new CachedBody(ByteString.fromArray(Json.mapper().writeValueAsBytes(json)), JSON);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Método que guarda un documento XML ya serializado
+     *
+     * @param xml El documento en UTF-8
+     * @return El cuerpo serializado
+     */
+    public static CachedBody xml(ByteString xml) {
+        return new CachedBody(xml, XmlWriter.XML);
+    }
+
+    /**
+     * Método que crea la respuesta 200 con el cuerpo almacenado. Los documentos JSON sólo se indentan si la petición
+     * incluye pretty=true. Si el cuerpo está comprimido y el cliente acepta gzip o deflate, se envía comprimido.
+     *
+     * @param request La petición
+     * @return La respuesta
+     */
+    public Result toResult(Http.Request request) {
+        boolean indented = "true".equals(request.getQueryString("pretty"));
+        if (gzip == null || indented) {
+            return Results.ok().sendEntity(entity(indented));
+        }
+        Result result;
+        String encoding = encoding(request.header(Http.HeaderNames.ACCEPT_ENCODING).orElse(null));
+        if (GZIP.equals(encoding)) {
+            result = Results.ok().sendEntity(gzip).withHeader(Http.HeaderNames.CONTENT_ENCODING, GZIP);
+        } else if (DEFLATE.equals(encoding)) {
+            result = Results.ok().sendEntity(deflate).withHeader(Http.HeaderNames.CONTENT_ENCODING, DEFLATE);
+        } else {
+            result = Results.ok().sendEntity(compact);
+        }
+        return result.withHeader(Http.HeaderNames.VARY, Http.HeaderNames.ACCEPT_ENCODING);
+    }
+
+    /**
+     * Método que elige la codificación de la respuesta según la cabecera Accept-Encoding. Se elige la de mayor q entre
+     * gzip y deflate y, si empatan, gzip.
+     *
+     * @param acceptEncoding Valor de la cabecera o null
+     * @return GZIP, DEFLATE o null si el cliente no acepta ninguna de las dos
+     */
+    public static String encoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        double gzipQ = -1;
+        double deflateQ = -1;
+        double anyQ = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String name = params[0].trim().toLowerCase();
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (name.equals(GZIP) || name.equals("x-gzip")) {
+                gzipQ = q;
+            } else if (name.equals(DEFLATE)) {
+                deflateQ = q;
+            } else if (name.equals("*")) {
+                anyQ = q;
+            }
+        }
+        gzipQ = gzipQ < 0 ? anyQ : gzipQ;
+        deflateQ = deflateQ < 0 ? anyQ : deflateQ;
+        if (gzipQ > 0 && gzipQ >= deflateQ) {
+            return GZIP;
+        }
+        return deflateQ > 0 ? DEFLATE : null;
+    }
+
+    /**
+     * Método que comprime el cuerpo compacto en gzip y deflate. Los cuerpos más pequeños que el mínimo no se comprimen,
+     * porque apenas se reducen y la cabecera de la compresión puede hacerlos más grandes.
+     *
+     * @param threshold Tamaño mínimo en bytes
+     */
+    @Override
+    public void compress(long threshold) {
+        if (gzip != null || length() < threshold) {
+            return;
+        }
+        byte[] bytes = compact.data().toArray();
+        try {
+            ByteStringBuilder deflated = new ByteStringBuilder();
+            try (OutputStream out = new DeflaterOutputStream(deflated.asOutputStream())) {
+                out.write(bytes);
+            }
+            ByteStringBuilder gzipped = new ByteStringBuilder();
+            try (OutputStream out = new GZIPOutputStream(gzipped.asOutputStream())) {
+                out.write(bytes);
+            }
+            deflate = new HttpEntity.Strict(deflated.result(), compact.contentType());
+            gzip = new HttpEntity.Strict(gzipped.result(), compact.contentType());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Método que devuelve el cuerpo almacenado
+     *
+     * @param indented Verdadero si se quiere el documento indentado. Los documentos XML nunca se indentan.
+     * @return El cuerpo de la respuesta
+     */
+    public HttpEntity.Strict entity(boolean indented) {
+        if (!indented || !compact.contentType().filter(JSON::equals).isPresent()) {
+            return compact;
+        }
+        HttpEntity.Strict result = pretty;
+        if (result == null) {
+            String indentedJson = Json.prettyPrint(Json.parse(compact.data().iterator().asInputStream()));
+            result = new HttpEntity.Strict(ByteString.fromString(indentedJson), compact.contentType());
+            pretty = result;
+        }
+        return result;
+    }
+
+    /**
+     * Tamaño del cuerpo compacto
+     *
+     * @return Número de bytes
+     */
+    public int length() {
+        return compact.data().size();
+    }
+
+    /**
+     * Peso en la caché: el cuerpo compacto, sus copias comprimidas y, si ya se ha generado, el indentado
+     *
+     * @return Número de bytes
+     */
+    @Override
+    public long weight() {
+        HttpEntity.Strict indented = pretty;
+        HttpEntity.Strict gzipped = gzip;
+        HttpEntity.Strict deflated = deflate;
+        return length() + (indented == null ? 0 : indented.data().size())
+                + (gzipped == null ? 0 : gzipped.data().size()) + (deflated == null ? 0 : deflated.data().size());
+    }
+}
@@ -2,26 +2,38 @@ package controllers;
 
 import io.ebean.Ebean;
 import models.User;
-import play.cache.SyncCacheApi;
 import play.data.Form;
 import play.data.FormFactory;
 import play.i18n.Messages;
 import play.libs.Json;
 import play.mvc.*;
+import services.ApiCache;
+import services.CacheKey;
+import services.CollectionVersions;
+import services.DatabaseExecutionContext;
+import services.ExistingIds;
+import services.RecipeSearchIndex;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
 
 import javax.inject.Inject;
 
-import com.fasterxml.jackson.databind.JsonNode;
-
-import io.ebean.PagedList;
 import models.Category;
+import models.CategoryView;
+import models.FieldSet;
+import models.PageView;
 import models.Recipe;
 
+import static services.CollectionVersions.Collection.CATEGORIES;
+import static services.CollectionVersions.Collection.RECIPES;
+import static services.CacheKey.Namespace.CATEGORY;
+import static services.CacheKey.Namespace.CATEGORY_LIST;
+import static services.CacheKey.Namespace.CATEGORY_LIST_AFTER;
+import static services.CacheKey.Namespace.RECIPE;
+import static services.CacheKey.Namespace.RECIPE_BY_TITLE;
+
 
 /**
  * Clase controladora de los métodos de acción del recurso category.
@@ -41,7 +53,31 @@ public class CategoryController extends Controller {
      * Variable caché
      */
     @Inject
-    private SyncCacheApi cache;
+    private ApiCache cache;
+
+    /**
+     * Índice de búsqueda de recetas por texto
+     */
+    @Inject
+    private RecipeSearchIndex searchIndex;
+
+    /**
+     * Versiones de las colecciones para invalidar los listados en caché
+     */
+    @Inject
+    private CollectionVersions versions;
+
+    /**
+     * Identificadores existentes para responder sin consultar la base de datos a las búsquedas de elementos que no existen
+     */
+    @Inject
+    private ExistingIds existingIds;
+
+    /**
+     * Contexto de ejecución de las acciones que consultan la base de datos
+     */
+    @Inject
+    private DatabaseExecutionContext dbContext;
 
     /**
      * Variable para presentar los mensajes al usuario según el idioma
@@ -55,32 +91,34 @@ public class CategoryController extends Controller {
      * @return Respuesta que indica si la categoría se creó correctamente o si hubo algún problema
      */
     @Security.Authenticated(Authorization.class)
-    public Result createCategory() {
-
-        //Le asigno el contexto actual del método de acción
-        messages = Http.Context.current().messages();
+    public CompletionStage<Result> createCategory() {
+        return dbContext.supply(() -> {
+            //Le asigno el contexto actual del método de acción
+            messages = Http.Context.current().messages();
 
-        User loggedUser = (User) Http.Context.current().args.get("loggedUser");
-
-        if (!loggedUser.getAdmin()) {
-            return Results.status(401, messages.at("user.authorization"));
-        }
+            User loggedUser = (User) Http.Context.current().args.get("loggedUser");
 
-        //Formulario para obtener los datos de la petición
-        Form<Category> f = formFactory.form(Category.class).bindFromRequest();
-        if (f.hasErrors()) {
-            return Results.status(409, f.errorsAsJson());
-        }
+            if (!loggedUser.getAdmin()) {
+                return Results.status(401, messages.at("user.authorization"));
+            }
 
-        //Objeto Category donde se guardan los datos de la petición
-        Category c = f.get();
+            //Formulario para obtener los datos de la petición
+            Form<Category> f = formFactory.form(Category.class).bindFromRequest();
+            if (f.hasErrors()) {
+                return Results.status(409, f.errorsAsJson());
+            }
 
-        //Comprobación de la existencia de la categoría y guardado en caso de que no exista
-        if (!c.checkCategory()) {
-            return Results.created(messages.at("category.created"));
-        }
-        return Results.status(409, new ErrorObject("4", messages.at("category.alreadyExist")).convertToJson()).as("application/json");
+            //Objeto Category donde se guardan los datos de la petición
+            Category c = f.get();
 
+            //Comprobación de la existencia de la categoría y guardado en caso de que no exista
+            if (!c.checkCategory()) {
+                existingIds.add(CATEGORIES, c.getId());
+                versions.bump(CATEGORIES);
+                return Results.created(messages.at("category.created"));
+            }
+            return Results.status(409, new ErrorObject("4", messages.at("category.alreadyExist")).convertToJson()).as("application/json");
+        });
     }
 
     /**
@@ -89,41 +127,35 @@ public class CategoryController extends Controller {
      * @param id El identificador de la categoría de recetas
      * @return La categoría de recetas correspondiente
      */
-    public Result retrieveCategory(Long id) {
-
-        //Le asigno el contexto actual del método de acción
-        messages = Http.Context.current().messages();
-
-        //Comprobamos si la categoría está en caché
-        String key = "category-" + id;
-        Category category = cache.get(key);
-        //Si no la tenemos en caché, la buscamos y la guardamos
-        if (category == null) {
-            category = Category.findByCategoryId(id);
-            cache.set(key, category);
-        }
-
-        //Si la categoría no existe
-        if (category == null) {
-            return Results.notFound(messages.at("category.notExist"));
-        }
-
-        //Si la categoría existe
-        if (request().accepts("application/json")) {
-            //Buscamos la respuesta en caché
-            key = "category-" + id + "-json";
-            JsonNode json = cache.get(key);
-            //Si no está, la creamos y la guardamos en caché
-            if (json == null) {
-                json = Json.toJson(category);
-                cache.set(key, json);
+    public CompletionStage<Result> retrieveCategory(Long id) {
+        return dbContext.supplyCached(() -> {
+            //Le asigno el contexto actual del método de acción
+            messages = Http.Context.current().messages();
+
+            //Comprobamos si la categoría está en caché
+            CacheKey key = cache.key(CATEGORY, id);
+            //Si no la tenemos en caché, la buscamos y la guardamos. Si no existe, se recuerda para no volver a buscarlo
+            CategoryView category = cache.getOrLoad(key, () -> CategoryView.of(Category.findByCategoryId(id)));
+
+            //Si la categoría no existe
+            if (category == null) {
+                return Results.notFound(messages.at("category.notExist"));
             }
-            return ok(Json.prettyPrint(json));
-        } else if (request().accepts("application/xml")) {
-            return ok(views.xml._category.render(category));
-        }
-        return Results.status(415, messages.at("wrongOutputFormat"));
 
+            //Si la categoría existe
+            if (request().accepts("application/json")) {
+                //Buscamos la respuesta en caché
+                CacheKey jsonKey = key.json();
+                //Si no está, la creamos y la guardamos en caché
+                return ETags.cached(request(), ETags.strong(category, jsonKey, request()),
+                        () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(Json.toJson(category))));
+            } else if (request().accepts("application/xml")) {
+                CacheKey xmlKey = key.xml();
+                return ETags.cached(request(), ETags.strong(category, xmlKey, request()),
+                        () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.category(category))));
+            }
+            return Results.status(415, messages.at("wrongOutputFormat"));
+        });
     }
 
     /**
@@ -133,49 +165,61 @@ public class CategoryController extends Controller {
      * @return Respuesta indicativa del éxito o fracaso de la operación
      */
     @Security.Authenticated(Authorization.class)
-    public Result updateCategory(Long id) {
+    public CompletionStage<Result> updateCategory(Long id) {
+        return dbContext.supply(() -> {
+            messages = Http.Context.current().messages();
 
-        messages = Http.Context.current().messages();
+            User loggedUser = (User) Http.Context.current().args.get("loggedUser");
 
-        User loggedUser = (User) Http.Context.current().args.get("loggedUser");
-
-        if (!loggedUser.getAdmin()) {
-            return Results.status(401, messages.at("user.authorization"));
-        }
+            if (!loggedUser.getAdmin()) {
+                return Results.status(401, messages.at("user.authorization"));
+            }
 
-        //Formulario para obtener los datos de la petición
-        Form<Category> f = formFactory.form(Category.class).bindFromRequest();
-        if (f.hasErrors()) {
-            return Results.status(409, f.errorsAsJson());
-        }
+            //Formulario para obtener los datos de la petición
+            Form<Category> f = formFactory.form(Category.class).bindFromRequest();
+            if (f.hasErrors()) {
+                return Results.status(409, f.errorsAsJson());
+            }
 
-        //Objeto Category donde se guardan los datos de la petición
-        Category updateCategory = f.get();
+            //Objeto Category donde se guardan los datos de la petición
+            Category updateCategory = f.get();
 
-        //Comprobamos que si actualiza el título, no coja uno repetido
-        Category cat = Category.findByCategoryName(updateCategory.getCategoryName().toUpperCase());
-        if (cat != null && cat.getId() != id) {
-            return Results.status(409, new ErrorObject("8", messages.at("category.titleAlreadyExists")).convertToJson()).as("application/json");
-        }
+            //Comprobamos que si actualiza el título, no coja uno repetido
+            Category cat = Category.findByCategoryName(updateCategory.getCategoryName().toUpperCase());
+            if (cat != null && cat.getId() != id) {
+                return Results.status(409, new ErrorObject("8", messages.at("category.titleAlreadyExists")).convertToJson()).as("application/json");
+            }
 
-        //Obtenemos mediante el id pasado como parámetro la categoría que se quiere modificar
-        Category c = Category.findByCategoryId(id);
+            //Obtenemos mediante el id pasado como parámetro la categoría que se quiere modificar
+            Category c = Category.findByCategoryId(id);
 
-        //Se busca la categoría que se quiere actualizar y se actualiza
-        if (c == null) {
-            return Results.notFound(messages.at("category.notExist"));
-        }
-        Ebean.beginTransaction();
-        try {
-            deleteRecipeCache(c);
-            updateCategory.setId(c.getId());
-            updateCategory.setCategoryName(updateCategory.getCategoryName().toUpperCase()); //Lo ponemos en mayúsculas
-            updateCategory.update();
-            Ebean.commitTransaction();
-        } finally {
-            Ebean.endTransaction();
-        }
-        return ok(messages.at("category.updated"));
+            //Se busca la categoría que se quiere actualizar y se actualiza
+            if (c == null) {
+                return Results.notFound(messages.at("category.notExist"));
+            }
+            //Si el cliente indica la versión que modifica, tiene que ser la actual
+            if (!ETags.matches(request(), c)) {
+                return Results.status(412, new ErrorObject("9", messages.at("modified")).convertToJson()).as("application/json");
+            }
+            Ebean.beginTransaction();
+            try {
+                deleteRecipeCache(c);
+                updateCategory.setId(c.getId());
+                updateCategory.setCategoryName(updateCategory.getCategoryName().toUpperCase()); //Lo ponemos en mayúsculas
+                updateCategory.update();
+                Ebean.commitTransaction();
+            } finally {
+                Ebean.endTransaction();
+            }
+            //El nombre de la categoría forma parte del texto indexado de sus recetas y de sus respuestas en caché
+            for (Recipe recipe : Recipe.findAllByCategory(id)) {
+                searchIndex.index(recipe);
+                cache.remove(cache.key(RECIPE, recipe.getId()));
+                cache.remove(cache.key(RECIPE_BY_TITLE, recipe.getTitle()));
+            }
+            versions.bump(CATEGORIES, RECIPES);
+            return ok(messages.at("category.updated"));
+        });
     }
 
     /**
@@ -185,26 +229,44 @@ public class CategoryController extends Controller {
      * @return Respuesta indicativa del estado de la operación
      */
     @Security.Authenticated(Authorization.class)
-    public Result deleteCategory(Long id) {
-
-        messages = Http.Context.current().messages();
-
-        User loggedUser = (User) Http.Context.current().args.get("loggedUser");
-
-        //Se busca la categoría que se desea borrar y se elimina en caso de que exista
-        if (loggedUser.getAdmin()) {
-            Category c = Category.findByCategoryId(id);
-            if (c != null) {
-                if (c.delete()) {
-                    deleteRecipeCache(c);
-                    return ok(messages.at("category.deleted"));
+    public CompletionStage<Result> deleteCategory(Long id) {
+        return dbContext.supply(() -> {
+            messages = Http.Context.current().messages();
+
+            User loggedUser = (User) Http.Context.current().args.get("loggedUser");
+
+            //Se busca la categoría que se desea borrar y se elimina en caso de que exista
+            if (loggedUser.getAdmin()) {
+                Category c = Category.findByCategoryId(id);
+                if (c != null) {
+                    //Si el cliente indica la versión que modifica, tiene que ser la actual
+                    if (!ETags.matches(request(), c)) {
+                        return Results.status(412, new ErrorObject("9", messages.at("modified")).convertToJson()).as("application/json");
+                    }
+                    List<Long> recipeIds = new ArrayList<>();
+                    List<String> titles = new ArrayList<>();
+                    for (Recipe recipe : c.relatedRecipes) {
+                        recipeIds.add(recipe.getId());
+                        titles.add(recipe.getTitle());
+                    }
+                    if (c.delete()) {
+                        deleteRecipeCache(c);
+                        //Las recetas borradas en cascada no pueden seguir encontrándose por su título
+                        for (String title : titles) {
+                            cache.remove(cache.key(RECIPE_BY_TITLE, title));
+                        }
+                        searchIndex.removeAll(recipeIds);
+                        existingIds.remove(CATEGORIES, c.getId());
+                        existingIds.removeAll(RECIPES, recipeIds);
+                        versions.bump(CATEGORIES, RECIPES);
+                        return ok(messages.at("category.deleted"));
+                    }
+                    return internalServerError(messages.at("category.deletedFailed"));
                 }
-                return internalServerError(messages.at("category.deletedFailed"));
+                return ok(messages.at("category.deleted")); //Por idempotencia
             }
-            return ok(messages.at("category.deleted")); //Por idempotencia
-        }
-        return Results.status(401, messages.at("user.authorization"));
-
+            return Results.status(401, messages.at("user.authorization"));
+        });
     }
 
     /**
@@ -212,68 +274,100 @@ public class CategoryController extends Controller {
      *
      * @return Respuesta que muestra las categorías de recetas existentes o error
      */
-    public Result retrieveCategoryCollection() {
+    public CompletionStage<Result> retrieveCategoryCollection() {
+        return dbContext.supplyCached(() -> {
+            messages = Http.Context.current().messages();
+
+            //Campos que se muestran de cada elemento, que son los únicos que se consultan
+            FieldSet fields = FieldSet.parse(request().getQueryString(FieldSet.PARAM), CategoryView.FIELDS);
+            if (fields == null) {
+                return Results.badRequest(messages.at("fields.unknown"));
+            }
 
-        messages = Http.Context.current().messages();
+            //Si se indica un cursor, se pagina por identificador en lugar de por número de página
+            String after = request().getQueryString(Cursor.AFTER_PARAM);
+            if (after != null) {
+                return retrieveCategoryCollectionAfter(after, fields);
+            }
 
-        //Obtenemos la página
-        String pageString = request().getQueryString("page");
-        if (pageString == null) {
-            return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
+            //Obtenemos la página
+            String pageString = request().getQueryString("page");
+            if (pageString == null) {
+                return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
+            }
+            Integer page = Integer.parseInt(pageString);
+
+            //Comprobamos si la lista está en caché
+            CacheKey key = cache.key(CATEGORY_LIST, page, fields.key());
+            //Si no lo tenemos en caché, lo buscamos y lo guardamos ordenadas alfabéticamente. El nombre se consulta
+            //siempre para poder ordenarlas
+            FieldSet queried = fields.with("categoryName");
+            PageView<CategoryView> list = cache.getOrLoad(key, () -> PageView.of(Category.findPage(page, queried),
+                    rows -> CategoryView.of(rows, queried)).sorted(CategoryView.BY_NAME));
+            List<CategoryView> categories = list.getList();
+            Integer number = list.getTotalCount();
+
+            //Si no hay categorias
+            if (categories.isEmpty()) {
+                return Results.notFound(messages.at("category.empty"));
+            }
+
+            //Se muestran las categorías de recetas al usuario
+            if (request().accepts("application/json")) {
+                //Buscamos la respuesta en caché
+                CacheKey jsonKey = key.json();
+                //Si no está, la creamos y la guardamos en caché
+                return ETags.cached(request(), ETags.weak(jsonKey, request()),
+                        () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(fields.retain(Json.toJson(categories))))).withHeader("X-Count", number.toString());
+            } else if (request().accepts("application/xml")) {
+                CacheKey xmlKey = key.xml();
+                return ETags.cached(request(), ETags.weak(xmlKey, request()),
+                        () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.categories(categories, fields)))).withHeader("X-Count", number.toString());
+            }
+            return Results.status(415, messages.at("wrongOutputFormat"));
+        });
+    }
+
+    /**
+     * Método que permite visualizar las categorías de recetas paginando por cursor. El total sólo se calcula si se
+     * solicita con el parámetro count.
+     *
+     * @param after  Cursor recibido en la cabecera X-Next-Cursor de la página anterior
+     * @param fields Campos que se muestran de cada elemento
+     * @return Respuesta que muestra las categorías siguientes al cursor o error
+     */
+    private Result retrieveCategoryCollectionAfter(String after, FieldSet fields) {
+
+        Long lastId = Cursor.decode(after);
+        if (lastId == null) {
+            return Results.badRequest(messages.at("page.wrongCursor"));
         }
-        Integer page = Integer.parseInt(pageString);
 
         //Comprobamos si la lista está en caché
-        String key = "categoriesList-" + page;
-        PagedList<Category> list = cache.get(key);
+        CacheKey key = cache.key(CATEGORY_LIST_AFTER, lastId, fields.key());
         //Si no lo tenemos en caché, lo buscamos y lo guardamos
-        if (list == null) {
-            list = Category.findPage(page);
-            cache.set(key, list, 60 * 2);
-        }
-        List<Category> categories = list.getList();
-        Integer number = list.getTotalCount();
+        List<CategoryView> categories = cache.getOrLoad(key, () -> CategoryView.of(Category.findPageAfter(lastId, fields), fields));
 
         //Si no hay categorias
         if (categories.isEmpty()) {
             return Results.notFound(messages.at("category.empty"));
         }
 
-        //Se ordenan las categorías de recetas alfabéticamente y se muestran al usuario
-        sortAlphabetically(categories);
+        Result result;
         if (request().accepts("application/json")) {
             //Buscamos la respuesta en caché
-            key = "categoriesList-" + page + "-json";
-            JsonNode json = cache.get(key);
+            CacheKey jsonKey = key.json();
             //Si no está, la creamos y la guardamos en caché
-            if (json == null) {
-                json = Json.toJson(categories);
-                cache.set(key, json, 60 * 2);
-            }
-            return ok(Json.prettyPrint(json)).withHeader("X-Count", number.toString());
+            result = ETags.cached(request(), ETags.weak(jsonKey, request()),
+                    () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(fields.retain(Json.toJson(categories)))));
         } else if (request().accepts("application/xml")) {
-            return ok(views.xml.categories.render(categories)).withHeader("X-Count", number.toString());
-        }
-        return Results.status(415, messages.at("wrongOutputFormat"));
-
-    }
-
-    /**
-     * Método que ordena alfabéticamente las categorías de recetas
-     *
-     * @param categories Lista con las categorías de recetas
-     */
-    private void sortAlphabetically(List<Category> categories) {
-
-        if (categories.size() > 0) {
-            Collections.sort(categories, new Comparator<Category>() {
-
-                @Override
-                public int compare(Category o1, Category o2) {
-                    return o1.getCategoryName().compareTo(o2.getCategoryName());
-                }
-            });
+            CacheKey xmlKey = key.xml();
+            result = ETags.cached(request(), ETags.weak(xmlKey, request()),
+                    () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.categories(categories, fields))));
+        } else {
+            return Results.status(415, messages.at("wrongOutputFormat"));
         }
+        return Cursor.withHeaders(result, categories, Category.PAGE_SIZE, Category::count);
     }
 
     /**
@@ -282,10 +376,7 @@ public class CategoryController extends Controller {
      * @param category categoría de la que se quiere borrar el caché
      */
     public void deleteRecipeCache(Category category) {
-        String key = "category-" + category.getId();
-        cache.remove(key);
-        key = "category-" + category.getId() + "-json";
-        cache.remove(key);
+        cache.remove(cache.key(CATEGORY, category.getId()));
     }
 
 }
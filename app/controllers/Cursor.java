@@ -0,0 +1,83 @@
+package controllers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.IntSupplier;
+
+import models.EntityView;
+import play.mvc.Http;
+import play.mvc.Result;
+import services.DatabaseExecutionContext;
+
+/**
+ * Clase que permite paginar los listados por cursor. El cursor es opaco para el cliente: codifica el identificador del
+ * último elemento devuelto, de modo que la página siguiente se obtiene buscando por la clave primaria en lugar de saltar
+ * filas con un desplazamiento.
+ *
+ * @author MIMO
+ */
+public class Cursor {
+
+    /**
+     * Cabecera con el cursor de la página siguiente
+     */
+    public static final String NEXT_HEADER = "X-Next-Cursor";
+
+    /**
+     * Parámetro de la petición con el cursor
+     */
+    public static final String AFTER_PARAM = "after";
+
+    private Cursor() {
+    }
+
+    /**
+     * Método que codifica un identificador como cursor
+     *
+     * @param id Identificador del último elemento de la página
+     * @return El cursor opaco
+     */
+    public static String encode(Long id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(id.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Método que decodifica un cursor. Un cursor vacío representa el inicio del listado.
+     *
+     * @param cursor El cursor recibido en la petición
+     * @return El identificador a partir del cual se busca o null si el cursor no es válido
+     */
+    public static Long decode(String cursor) {
+        if (cursor.isEmpty()) {
+            return 0L;
+        }
+        try {
+            long id = Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII));
+            return id >= 0 ? id : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Método que añade a la respuesta el cursor de la página siguiente, si la hay, y el total de elementos si el
+     * cliente lo ha solicitado con count=true
+     *
+     * @param result   Respuesta con la página
+     * @param page     Elementos de la página ordenados por identificador
+     * @param pageSize Tamaño máximo de la página
+     * @param count    Consulta que devuelve el total de elementos, que sólo se ejecuta si se solicita
+     * @return La respuesta con las cabeceras
+     */
+    public static Result withHeaders(Result result, List<? extends EntityView> page, int pageSize, IntSupplier count) {
+        if (page.size() == pageSize) {
+            result = result.withHeader(NEXT_HEADER, encode(page.get(page.size() - 1).getId()));
+        }
+        if ("true".equals(Http.Context.current().request().getQueryString("count"))) {
+            DatabaseExecutionContext.requireDatabase();
+            result = result.withHeader("X-Count", String.valueOf(count.getAsInt()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,173 @@
+package controllers;
+
+import java.util.function.Supplier;
+
+import models.BaseModel;
+import models.EntityView;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+import services.CacheKey;
+
+/**
+ * Clase que genera las etiquetas ETag de las respuestas y resuelve las peticiones condicionales. Los elementos tienen
+ * etiquetas fuertes formadas por su identificador y su versión, y los listados etiquetas débiles formadas por la versión
+ * de la colección. Cada formato de respuesta tiene su propia etiqueta.
+ *
+ * @author MIMO
+ */
+public class ETags {
+
+    /**
+     * Instante de arranque en base 36. Las versiones de las colecciones empiezan en cero en cada arranque, por lo que
+     * las etiquetas de los listados lo incluyen para no repetirse entre ejecuciones.
+     */
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    private ETags() {
+    }
+
+    /**
+     * Método que genera la etiqueta fuerte de un elemento
+     *
+     * @param view    Vista del elemento
+     * @param key     Clave de caché de la respuesta, que indica el formato
+     * @param request La petición
+     * @return La etiqueta
+     */
+    public static String strong(EntityView view, CacheKey key, Http.Request request) {
+        return "\"" + view.tag() + "-" + variant(key, request) + "\"";
+    }
+
+    /**
+     * Método que genera la etiqueta débil de un listado
+     *
+     * @param key     Clave de caché de la respuesta, que indica el formato y la versión de la colección
+     * @param request La petición
+     * @return La etiqueta
+     */
+    public static String weak(CacheKey key, Http.Request request) {
+        return "W/\"" + EPOCH + "-" + key.getCollectionVersion() + "-" + variant(key, request) + "\"";
+    }
+
+    /**
+     * Método que devuelve la respuesta de una petición condicional. Si la etiqueta coincide con If-None-Match se responde
+     * 304 sin generar el cuerpo; si no, se responde 200 con el cuerpo y la etiqueta. Los cuerpos comprimidos llevan la
+     * codificación al final de la etiqueta, porque sus bytes son distintos.
+     *
+     * @param request La petición
+     * @param etag    Etiqueta de la respuesta
+     * @param body    Cuerpo de la respuesta, que sólo se obtiene si se envía
+     * @return La respuesta
+     */
+    public static Result cached(Http.Request request, String etag, Supplier<CachedBody> body) {
+        String match = match(request, etag);
+        if (match != null) {
+            return Results.status(Http.Status.NOT_MODIFIED).withHeader(Http.HeaderNames.ETAG, match);
+        }
+        Result result = body.get().toResult(request);
+        String encoding = result.header(Http.HeaderNames.CONTENT_ENCODING).orElse(null);
+        return result.withHeader(Http.HeaderNames.ETAG, encoding == null ? etag : withEncoding(etag, encoding));
+    }
+
+    /**
+     * Método que busca en If-None-Match una etiqueta equivalente a la actual. Se usa la comparación débil, que ignora
+     * el prefijo W/, y no se tiene en cuenta la codificación.
+     *
+     * @param request La petición
+     * @param etag    Etiqueta actual de la respuesta sin codificación
+     * @return La etiqueta de la cabecera que coincide o null si no coincide ninguna
+     */
+    private static String match(Http.Request request, String etag) {
+        String header = request.header(Http.HeaderNames.IF_NONE_MATCH).orElse(null);
+        if (header == null) {
+            return null;
+        }
+        String current = opaque(etag);
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) {
+                return etag;
+            }
+            if (withoutEncoding(opaque(tag)).equals(current)) {
+                return tag;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Método que comprueba la cabecera If-Match antes de modificar o borrar un elemento. Se cumple si no hay cabecera, si
+     * es * o si alguna de sus etiquetas fuertes corresponde a la versión actual del elemento en cualquier formato.
+     *
+     * @param request La petición
+     * @param model   El elemento que se va a modificar
+     * @return Verdadero si se puede continuar
+     */
+    public static boolean matches(Http.Request request, BaseModel model) {
+        String header = request.header(Http.HeaderNames.IF_MATCH).orElse(null);
+        if (header == null) {
+            return true;
+        }
+        String prefix = "\"" + model.getId() + "-" + model.getVersion() + "-";
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Método que devuelve el formato de la respuesta que forma parte de la etiqueta
+     *
+     * @param key     Clave de caché de la respuesta
+     * @param request La petición
+     * @return El formato
+     */
+    private static String variant(CacheKey key, Http.Request request) {
+        String format = key.getFormat().name().toLowerCase();
+        if (key.isJson() && "true".equals(request.getQueryString("pretty"))) {
+            return format + "-pretty";
+        }
+        return format;
+    }
+
+    /**
+     * Método que añade la codificación del cuerpo al final de una etiqueta
+     *
+     * @param tag      La etiqueta
+     * @param encoding La codificación
+     * @return La etiqueta de la respuesta codificada
+     */
+    private static String withEncoding(String tag, String encoding) {
+        return tag.substring(0, tag.length() - 1) + "-" + encoding + "\"";
+    }
+
+    /**
+     * Método que quita la codificación del final de una etiqueta
+     *
+     * @param tag La etiqueta
+     * @return La etiqueta sin codificación
+     */
+    private static String withoutEncoding(String tag) {
+        for (String encoding : new String[]{CachedBody.GZIP, CachedBody.DEFLATE}) {
+            String suffix = "-" + encoding + "\"";
+            if (tag.endsWith(suffix)) {
+                return tag.substring(0, tag.length() - suffix.length()) + "\"";
+            }
+        }
+        return tag;
+    }
+
+    /**
+     * Método que quita el prefijo W/ de una etiqueta
+     *
+     * @param tag La etiqueta
+     * @return La etiqueta sin el prefijo
+     */
+    private static String opaque(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+}
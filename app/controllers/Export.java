@@ -0,0 +1,103 @@
+package controllers;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import models.BaseModel;
+import play.libs.Json;
+
+/**
+ * Clase que genera las exportaciones de colecciones completas como respuestas por partes. Los elementos se leen por
+ * lotes ordenados por identificador, cada lote con su propia consulta en el contexto de la base de datos, y el lote
+ * siguiente sólo se lee cuando el cliente ha recibido el anterior. La memoria usada no depende del tamaño de la tabla y
+ * no se ocupa ninguna conexión mientras el cliente lee.
+ *
+ * @author MIMO
+ */
+public class Export {
+
+    /**
+     * Tipo de contenido de las exportaciones en JSON: un objeto por línea
+     */
+    public static final String NDJSON = "application/x-ndjson";
+
+    /**
+     * Número de elementos que se leen en cada consulta
+     */
+    public static final int BATCH_SIZE = 200;
+
+    private Export() {
+    }
+
+    /**
+     * Método que exporta una colección en JSON, con un elemento por línea
+     *
+     * @param batch    Consulta de los elementos siguientes a un identificador, ordenados por identificador
+     * @param executor Contexto de ejecución de las consultas
+     * @param <T>      Tipo de los elementos
+     * @return El contenido de la respuesta
+     */
+    public static <T extends BaseModel> Source<ByteString, NotUsed> ndjson(BiFunction<Long, Integer, List<T>> batch,
+                                                                           Executor executor) {
+        return batches(batch, element -> ByteString.fromString(Json.stringify(Json.toJson(element)) + "\n"), executor);
+    }
+
+    /**
+     * Método que exporta una colección en XML
+     *
+     * @param root     Nombre del elemento raíz
+     * @param batch    Consulta de los elementos siguientes a un identificador, ordenados por identificador
+     * @param render   Elemento XML de cada elemento de la colección
+     * @param executor Contexto de ejecución de las consultas
+     * @param <T>      Tipo de los elementos
+     * @return El contenido de la respuesta
+     */
+    public static <T extends BaseModel> Source<ByteString, NotUsed> xml(String root, BiFunction<Long, Integer, List<T>> batch,
+                                                                        Function<T, ByteString> render, Executor executor) {
+        ByteString header = ByteString.fromString(XmlWriter.DECLARATION + "\n<" + root + ">\n");
+        ByteString footer = ByteString.fromString("</" + root + ">\n");
+        return Source.single(header).concat(batches(batch, render, executor)).concat(Source.single(footer));
+    }
+
+    /**
+     * Método que lee la colección lote a lote. Cada lote se convierte en una parte de la respuesta.
+     *
+     * @param batch    Consulta de los elementos siguientes a un identificador
+     * @param render   Representación de un elemento
+     * @param executor Contexto de ejecución de las consultas
+     * @param <T>      Tipo de los elementos
+     * @return Las partes de la respuesta
+     */
+    private static <T extends BaseModel> Source<ByteString, NotUsed> batches(BiFunction<Long, Integer, List<T>> batch,
+                                                                             Function<T, ByteString> render, Executor executor) {
+        //El estado es el identificador del último elemento leído, o null cuando ya no quedan más
+        return Source.unfoldAsync(0L, (Long after) -> {
+            if (after == null) {
+                return CompletableFuture.completedFuture(Optional.<Pair<Long, ByteString>>empty());
+            }
+            CompletionStage<Optional<Pair<Long, ByteString>>> next = CompletableFuture.supplyAsync(() -> {
+                List<T> elements = batch.apply(after, BATCH_SIZE);
+                if (elements.isEmpty()) {
+                    return Optional.empty();
+                }
+                ByteStringBuilder bytes = new ByteStringBuilder();
+                for (T element : elements) {
+                    bytes.append(render.apply(element));
+                }
+                Long last = elements.size() < BATCH_SIZE ? null : elements.get(elements.size() - 1).getId();
+                return Optional.of(Pair.create(last, bytes.result()));
+            }, executor);
+            return next;
+        });
+    }
+}
@@ -0,0 +1,30 @@
+package controllers;
+
+import javax.inject.Inject;
+
+import play.mvc.Controller;
+import play.mvc.Result;
+import services.Metrics;
+
+/**
+ * Clase controladora de las métricas del API.
+ *
+ * @author MIMO
+ */
+public class MetricsController extends Controller {
+
+    /**
+     * Métricas del API
+     */
+    @Inject
+    private Metrics metrics;
+
+    /**
+     * Método que devuelve las métricas para que las recoja Prometheus
+     *
+     * @return Respuesta con las métricas en formato de texto
+     */
+    public Result metrics() {
+        return ok(metrics.scrape()).as(Metrics.CONTENT_TYPE);
+    }
+}
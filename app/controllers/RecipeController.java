@@ -1,24 +1,50 @@
 package controllers;
 
-import java.util.Collections;
-import java.util.Comparator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.function.IntSupplier;
 
 import javax.inject.Inject;
 
-import com.fasterxml.jackson.databind.JsonNode;
-
 import io.ebean.Ebean;
-import io.ebean.PagedList;
 import models.Category;
+import models.CategoryView;
+import models.FieldSet;
+import models.PageView;
 import models.Recipe;
+import models.RecipeView;
 import models.User;
-import play.cache.SyncCacheApi;
+import models.UserView;
 import play.data.Form;
 import play.data.FormFactory;
 import play.i18n.Messages;
 import play.libs.Json;
 import play.mvc.*;
+import services.ApiCache;
+import services.CacheKey;
+import services.CollectionVersions;
+import services.DatabaseExecutionContext;
+import services.ExistingIds;
+import services.IngredientCache;
+import services.RecipeImport;
+import services.RecipeSearchIndex;
+
+import static services.CollectionVersions.Collection.RECIPES;
+import static services.CacheKey.Namespace.CATEGORY;
+import static services.CacheKey.Namespace.CATEGORY_RECIPES;
+import static services.CacheKey.Namespace.CATEGORY_RECIPES_AFTER;
+import static services.CacheKey.Namespace.RECIPE;
+import static services.CacheKey.Namespace.RECIPE_BY_TITLE;
+import static services.CacheKey.Namespace.RECIPE_LIST;
+import static services.CacheKey.Namespace.RECIPE_LIST_AFTER;
+import static services.CacheKey.Namespace.USER;
+import static services.CacheKey.Namespace.USER_RECIPES;
+import static services.CacheKey.Namespace.USER_RECIPES_AFTER;
 
 /**
  * Clase controladora de los métodos de acción del recurso recipe.
@@ -38,7 +64,43 @@ public class RecipeController extends Controller {
      * Variable caché
      */
     @Inject
-    private SyncCacheApi cache;
+    private ApiCache cache;
+
+    /**
+     * Índice de búsqueda de recetas por texto
+     */
+    @Inject
+    private RecipeSearchIndex searchIndex;
+
+    /**
+     * Versiones de las colecciones para invalidar los listados en caché
+     */
+    @Inject
+    private CollectionVersions versions;
+
+    /**
+     * Identificadores existentes para responder sin consultar la base de datos a las búsquedas de elementos que no existen
+     */
+    @Inject
+    private ExistingIds existingIds;
+
+    /**
+     * Caché de ingredientes ya guardados
+     */
+    @Inject
+    private IngredientCache ingredientCache;
+
+    /**
+     * Contexto de ejecución de las acciones que consultan la base de datos
+     */
+    @Inject
+    private DatabaseExecutionContext dbContext;
+
+    /**
+     * Importación de recetas en bloque
+     */
+    @Inject
+    private RecipeImport recipeImport;
 
     /**
      * Variable para presentar los mensajes al usuario según el idioma
@@ -52,34 +114,74 @@ public class RecipeController extends Controller {
      * @return Indica si la receta se creó satisfactoriamente o si por el contrario hubo algún error
      */
     @Security.Authenticated(Authorization.class)
-    public Result createRecipe() {
+    public CompletionStage<Result> createRecipe() {
+        return dbContext.supply(() -> {
+            messages = Http.Context.current().messages();//le asigno el contexto actual del método de acción
 
-        messages = Http.Context.current().messages();//le asigno el contexto actual del método de acción
+            //Obtenemos el usuario que crea la receta de la cabecera Authorization
+            User loggedUser = (User) Http.Context.current().args.get("loggedUser");
 
-        //Obtenemos el usuario que crea la receta de la cabecera Authorization
-        User loggedUser = (User) Http.Context.current().args.get("loggedUser");
+            //Formulario para obtener los datos de la petición
+            Form<Recipe> f = formFactory.form(Recipe.class).bindFromRequest();
+            if (f.hasErrors()) {
+                return Results.status(409, f.errorsAsJson());
+            }
 
-        //Formulario para obtener los datos de la petición
-        Form<Recipe> f = formFactory.form(Recipe.class).bindFromRequest();
-        if (f.hasErrors()) {
-            return Results.status(409, f.errorsAsJson());
-        }
+            //Objeto Recipe donde se guardan los datos de la petición
+            Recipe r = f.get();
+
+            //Asignamos el creador de la receta
+            r.setUser(loggedUser);
+            if (r.checkCategory()) {
+                if (r.checkRecipe(ingredientCache)) {
+                    searchIndex.index(r);
+                    existingIds.add(RECIPES, r.getId());
+                    versions.bump(RECIPES);
+                    return Results.created(messages.at("recipe.created"));
+                } else {
+                    return Results.status(409, new ErrorObject("1", messages.at("recipe.alreadyExist")).convertToJson()).as("application/json");
+                }
+            } else {
+                return Results.notFound(messages.at("category.notExist"));
+            }
+        });
+    }
+
+    /**
+     * Método que permite crear muchas recetas en una sola petición. El cuerpo contiene una receta en JSON por línea, con el
+     * mismo formato que la creación individual. Las recetas se validan una a una y se guardan por bloques.
+     *
+     * @return Informe con las recetas importadas, los errores de cada línea y el rendimiento de la importación
+     */
+    @Security.Authenticated(Authorization.class)
+    @BodyParser.Of(BodyParser.Raw.class)
+    public CompletionStage<Result> importRecipes() {
+        return dbContext.supply(() -> {
+            messages = Http.Context.current().messages();
 
-        //Objeto Recipe donde se guardan los datos de la petición
-        Recipe r = f.get();
+            //Obtenemos el usuario al que pertenecerán las recetas
+            User loggedUser = (User) Http.Context.current().args.get("loggedUser");
 
-        //Asignamos el creador de la receta
-        r.setUser(loggedUser);
-        if (r.checkCategory()) {
-            if (r.checkRecipe()) {
-                return Results.created(messages.at("recipe.created"));
-            } else {
-                return Results.status(409, new ErrorObject("1", messages.at("recipe.alreadyExist")).convertToJson()).as("application/json");
+            Http.RawBuffer body = request().body().asRaw();
+            if (body == null || body.size() == 0) {
+                return Results.badRequest(messages.at("emptyParams"));
             }
-        } else {
-            return Results.notFound(messages.at("category.notExist"));
-        }
 
+            //Se lee el cuerpo línea a línea desde el fichero temporal en el que lo guarda Play
+            RecipeImport.Report report;
+            try (BufferedReader lines = Files.newBufferedReader(body.asFile().toPath(), StandardCharsets.UTF_8)) {
+                report = recipeImport.run(lines, loggedUser, messages, recipes -> {
+                    for (Recipe r : recipes) {
+                        searchIndex.index(r);
+                        existingIds.add(RECIPES, r.getId());
+                    }
+                    versions.bump(RECIPES);
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return report.getImported() > 0 ? Results.created(report.toJson()) : Results.status(409, report.toJson());
+        });
     }
 
     /**
@@ -88,40 +190,34 @@ public class RecipeController extends Controller {
      * @param id Id de la receta que se desea visualizar
      * @return Respuesta que muestra la receta o error si se produjo alguno
      */
-    public Result retrieveRecipe(Long id) {
-
-        messages = Http.Context.current().messages();
-
-        //Comprobamos si la receta está en caché
-        String key = "recipe-" + id;
-        Recipe recipe = cache.get(key);
-        //Si no lo tenemos en caché, lo buscamos y lo guardamos
-        if (recipe == null) {
-            recipe = Recipe.findById(id);
-            cache.set(key, recipe);
-        }
-
-        //Si la receta no existe
-        if (recipe == null) {
-            return Results.notFound(messages.at("recipe.wrongId"));
-        }
-
-        //Si la receta existe
-        if (request().accepts("application/json")) {
-            //Buscamos la respuesta en caché
-            key = "recipe-" + id + "-json";
-            JsonNode json = cache.get(key);
-            //Si no está, la creamos y la guardamos en caché
-            if (json == null) {
-                json = Json.toJson(recipe);
-                cache.set(key, json);
+    public CompletionStage<Result> retrieveRecipe(Long id) {
+        return dbContext.supplyCached(() -> {
+            messages = Http.Context.current().messages();
+
+            //Comprobamos si la receta está en caché
+            CacheKey key = cache.key(RECIPE, id);
+            //Si no lo tenemos en caché, lo buscamos y lo guardamos. Si no existe, se recuerda para no volver a buscarlo
+            RecipeView recipe = cache.getOrLoad(key, () -> RecipeView.of(Recipe.findById(id)));
+
+            //Si la receta no existe
+            if (recipe == null) {
+                return Results.notFound(messages.at("recipe.wrongId"));
             }
-            return ok(Json.prettyPrint(json));
-        } else if (request().accepts("application/xml")) {
-            return ok(views.xml._recipe.render(recipe));
-        }
-        return Results.status(415, messages.at("wrongOutputFormat"));
 
+            //Si la receta existe
+            if (request().accepts("application/json")) {
+                //Buscamos la respuesta en caché
+                CacheKey jsonKey = key.json();
+                //Si no está, la creamos y la guardamos en caché
+                return ETags.cached(request(), ETags.strong(recipe, jsonKey, request()),
+                        () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(Json.toJson(recipe))));
+            } else if (request().accepts("application/xml")) {
+                CacheKey xmlKey = key.xml();
+                return ETags.cached(request(), ETags.strong(recipe, xmlKey, request()),
+                        () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.recipe(recipe))));
+            }
+            return Results.status(415, messages.at("wrongOutputFormat"));
+        });
     }
 
     /**
@@ -131,45 +227,55 @@ public class RecipeController extends Controller {
      * @return Respuesta que indica el resultado de la operación
      */
     @Security.Authenticated(Authorization.class)
-    public Result updateRecipe(Long id) {
-
-        messages = Http.Context.current().messages();
+    public CompletionStage<Result> updateRecipe(Long id) {
+        return dbContext.supply(() -> {
+            messages = Http.Context.current().messages();
 
-        //Obtenemos el usuario que quiere modificar la receta
-        User loggedUser = (User) Http.Context.current().args.get("loggedUser");
+            //Obtenemos el usuario que quiere modificar la receta
+            User loggedUser = (User) Http.Context.current().args.get("loggedUser");
 
-        if (!request().hasBody()) {
-            return Results.badRequest(messages.at("emptyParams"));
-        }
+            if (!request().hasBody()) {
+                return Results.badRequest(messages.at("emptyParams"));
+            }
 
-        //Buscamos la receta
-        Recipe r = Recipe.findById(id);
-        if (r == null) {
-            return Results.notFound(messages.at("recipe.wrongId"));
-        }
+            //Buscamos la receta
+            Recipe r = Recipe.findById(id);
+            if (r == null) {
+                return Results.notFound(messages.at("recipe.wrongId"));
+            }
 
-        //Obtenemos el usuario que ha creado esa receta
-        User user = r.getUser();
+            //Obtenemos el usuario que ha creado esa receta
+            User user = r.getUser();
 
-        //Comprobamos que coinciden el creador y el que la quiere modificar
-        if (user.getId() == loggedUser.getId() || loggedUser.getAdmin()) {
-            Form<Recipe> f = formFactory.form(Recipe.class).bindFromRequest();
+            //Comprobamos que coinciden el creador y el que la quiere modificar
+            if (user.getId() == loggedUser.getId() || loggedUser.getAdmin()) {
+                //Si el cliente indica la versión que modifica, tiene que ser la actual
+                if (!ETags.matches(request(), r)) {
+                    return Results.status(412, new ErrorObject("9", messages.at("modified")).convertToJson()).as("application/json");
+                }
+                Form<Recipe> f = formFactory.form(Recipe.class).bindFromRequest();
 
-            //Comprobamos que si actualiza el título, no coja uno repetido
-            Recipe rec = Recipe.findByName(f.get().getTitle().toUpperCase());
-            if (rec != null && rec.getId() != id) {
-                return Results.status(409, new ErrorObject("7", messages.at("recipe.titleAlreadyExists")).convertToJson()).as("application/json");
-            }
-            if (f.hasErrors()) {
-                return Results.ok(f.errorsAsJson());
-            }
-            if (updateFields(r, f)) {
-                deleteRecipeCache(r);
-                return ok(messages.at("recipe.updated"));
+                //Comprobamos que si actualiza el título, no coja uno repetido
+                Recipe rec = Recipe.findByName(f.get().getTitle().toUpperCase());
+                if (rec != null && rec.getId() != id) {
+                    return Results.status(409, new ErrorObject("7", messages.at("recipe.titleAlreadyExists")).convertToJson()).as("application/json");
+                }
+                if (f.hasErrors()) {
+                    return Results.ok(f.errorsAsJson());
+                }
+                //El título anterior también tiene su entrada en la caché de búsqueda por título
+                String oldTitle = r.getTitle();
+                if (updateFields(r, f)) {
+                    deleteRecipeCache(r);
+                    cache.remove(cache.key(RECIPE_BY_TITLE, oldTitle));
+                    searchIndex.index(r);
+                    versions.bump(RECIPES);
+                    return ok(messages.at("recipe.updated"));
+                }
+                return Results.notFound(messages.at("category.notExist"));
             }
-            return Results.notFound(messages.at("category.notExist"));
-        }
-        return Results.status(401, messages.at("user.authorization"));
+            return Results.status(401, messages.at("user.authorization"));
+        });
     }
 
     /**
@@ -183,7 +289,6 @@ public class RecipeController extends Controller {
     private boolean updateFields(Recipe r, Form<Recipe> f) {
 
     		r.setTitle(f.get().getTitle().toUpperCase());
-        r.updateRecipeIngredients(f.get().getIngredients());
         r.setSteps(f.get().getSteps());
         r.setTime(f.get().getTime());
         r.setDifficulty(f.get().getDifficulty());
@@ -195,16 +300,15 @@ public class RecipeController extends Controller {
         
 	    	Ebean.beginTransaction();
 	    	try {
-	    	        String key = "recipe-" + r.getId();
-	    	        cache.remove(key);
-	    	        key = "recipe-" + r.getId() + "-json";
-	    	        cache.remove(key);
+	    	        cache.remove(cache.key(RECIPE, r.getId()));
+	    	        r.updateRecipeIngredients(f.get().getIngredients(), ingredientCache);
 	    	        r.save();
 	    	        Ebean.commitTransaction();
-	    	        return true;
 	    	} finally {
 	    		Ebean.endTransaction();
 	    	}
+	    	ingredientCache.remember(r.getIngredients());
+	    	return true;
     }
 
     /**
@@ -214,31 +318,58 @@ public class RecipeController extends Controller {
      * @return Respuesta que indica si la receta se borró o si se produjo un error
      */
     @Security.Authenticated(Authorization.class)
-    public Result deleteRecipe(Long id) {
-
-        messages = Http.Context.current().messages();
+    public CompletionStage<Result> deleteRecipe(Long id) {
+        return dbContext.supply(() -> {
+            messages = Http.Context.current().messages();
 
-        //Obtenemos el usuario que quiere borrar la receta
-        User loggedUser = (User) Http.Context.current().args.get("loggedUser");
+            //Obtenemos el usuario que quiere borrar la receta
+            User loggedUser = (User) Http.Context.current().args.get("loggedUser");
 
-        //Miramos a ver si la receta que se quiere eliminar existe
-        Recipe r = Recipe.findById(id);
-        if (r == null) {
-            return Results.notFound(messages.at("recipe.wrongId"));
-        }
+            //Miramos a ver si la receta que se quiere eliminar existe
+            Recipe r = Recipe.findById(id);
+            if (r == null) {
+                return Results.notFound(messages.at("recipe.wrongId"));
+            }
 
-        //Buscamos al usuario que hizo la receta
-        User user = r.getUser();
+            //Buscamos al usuario que hizo la receta
+            User user = r.getUser();
 
-        //Comprobamos que coinciden
-        if (user.getId() == loggedUser.getId() || loggedUser.getAdmin()) {
-            if (r.delete()) {
-                deleteRecipeCache(r);
-                return ok(messages.at("recipe.deleted"));
+            //Comprobamos que coinciden
+            if (user.getId() == loggedUser.getId() || loggedUser.getAdmin()) {
+                //Si el cliente indica la versión que modifica, tiene que ser la actual
+                if (!ETags.matches(request(), r)) {
+                    return Results.status(412, new ErrorObject("9", messages.at("modified")).convertToJson()).as("application/json");
+                }
+                if (r.delete()) {
+                    deleteRecipeCache(r);
+                    searchIndex.remove(r.getId());
+                    existingIds.remove(RECIPES, r.getId());
+                    versions.bump(RECIPES);
+                    return ok(messages.at("recipe.deleted"));
+                }
+                return internalServerError();
             }
-            return internalServerError();
+            return Results.status(401, messages.at("user.authorization"));
+        });
+    }
+
+    /**
+     * Método que exporta todas las recetas. La respuesta se envía por partes, en JSON con una receta por línea o en XML,
+     * leyendo la base de datos a medida que el cliente recibe los datos.
+     *
+     * @return Respuesta con todas las recetas
+     */
+    public Result exportRecipes() {
+
+        messages = Http.Context.current().messages();
+
+        if (request().accepts(Export.NDJSON) || request().accepts("application/json")) {
+            return ok().chunked(Export.ndjson(Recipe::findBatchAfter, dbContext)).as(Export.NDJSON);
+        } else if (request().accepts("application/xml")) {
+            return ok().chunked(Export.xml("recipes", Recipe::findBatchAfter, recipe -> XmlWriter.recipeElement(RecipeView.of(recipe)), dbContext))
+                    .as(XmlWriter.XML);
         }
-        return Results.status(401, messages.at("user.authorization"));
+        return Results.status(415, messages.at("wrongOutputFormat"));
     }
 
     /**
@@ -247,164 +378,228 @@ public class RecipeController extends Controller {
      * @return Respuesta que muestra todas las recetas existentes
      */
 
-    public Result retrieveRecipeCollection() {
+    public CompletionStage<Result> retrieveRecipeCollection() {
+        return dbContext.supplyCached(() -> {
+            messages = Http.Context.current().messages();
 
-        messages = Http.Context.current().messages();
+            //Campos que se muestran de cada receta, que son los únicos que se consultan
+            FieldSet fields = FieldSet.parse(request().getQueryString(FieldSet.PARAM), RecipeView.FIELDS);
+            if (fields == null) {
+                return Results.badRequest(messages.at("fields.unknown"));
+            }
 
-        //Obtenemos la página
-        String pageString = request().getQueryString("page");
-        if (pageString == null) {
-            return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
-        }
-        Integer page = Integer.parseInt(pageString);
-
-        //Comprobamos si las recetas están en caché
-        String key = "recipeList-" + page;
-        PagedList<Recipe> list = cache.get(key);
-        //Si no lo tenemos en caché, lo buscamos y lo guardamos
-        if (list == null) {
-            list = Recipe.findPage(page);
-            cache.set(key, list, 60 * 2);
-        }
-        List<Recipe> recipes = list.getList();
-        Integer number = list.getTotalCount();
-        
-        //Si no hay recetas, poco habitual
-        if(recipes.isEmpty()) {
-        		return Results.notFound(messages.at("recipe.emptyList"));
-        }
+            //Si se indica un cursor, se pagina por identificador en lugar de por número de página
+            String after = request().getQueryString(Cursor.AFTER_PARAM);
+            if (after != null) {
+                Long lastId = Cursor.decode(after);
+                if (lastId == null) {
+                    return Results.badRequest(messages.at("page.wrongCursor"));
+                }
+                CacheKey key = cache.key(RECIPE_LIST_AFTER, lastId, fields.key());
+                List<RecipeView> recipes = cache.getOrLoad(key,
+                        () -> RecipeView.of(Recipe.findPageAfter(lastId, fields), fields));
+                if (recipes.isEmpty()) {
+                    return Results.notFound(messages.at("recipe.emptyList"));
+                }
+                return renderRecipesAfter(recipes, fields, key.json(), Recipe::count);
+            }
 
-        //Se ordenan las recetas alfabéticamente y se devuelven al usuario
-        sortAlphabetically(recipes);
-        if (request().accepts("application/json")) {
-            //Buscamos la respuesta en caché
-            key = "recipeList-" + page + "-json";
-            JsonNode json = cache.get(key);
-            //Si no está, la creamos y la guardamos en caché
-            if (json == null) {
-                json = Json.toJson(recipes);
-                cache.set(key, json, 60 * 2);
+            //Obtenemos la página
+            String pageString = request().getQueryString("page");
+            if (pageString == null) {
+                return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
+            }
+            Integer page = Integer.parseInt(pageString);
+
+            //Comprobamos si las recetas están en caché
+            CacheKey key = cache.key(RECIPE_LIST, page, fields.key());
+            //Si no lo tenemos en caché, lo buscamos y lo guardamos ordenadas alfabéticamente. El título se consulta
+            //siempre para poder ordenarlas
+            FieldSet queried = fields.with("title");
+            PageView<RecipeView> list = cache.getOrLoad(key, () -> PageView.of(Recipe.findPage(page, queried),
+                    rows -> RecipeView.of(rows, queried)).sorted(RecipeView.BY_TITLE));
+            List<RecipeView> recipes = list.getList();
+            Integer number = list.getTotalCount();
+
+            //Si no hay recetas, poco habitual
+            if(recipes.isEmpty()) {
+            		return Results.notFound(messages.at("recipe.emptyList"));
             }
-            return ok(Json.prettyPrint(json)).withHeader("X-Count", number.toString());
-        } else if (request().accepts("application/xml")) {
-            return ok(views.xml.recipes.render(recipes)).withHeader("X-Count", number.toString());
-        }
 
-        return Results.status(415, messages.at("wrongOutputFormat"));
+            //Se devuelven las recetas al usuario
+            if (request().accepts("application/json")) {
+                //Buscamos la respuesta en caché
+                CacheKey jsonKey = key.json();
+                //Si no está, la creamos y la guardamos en caché
+                return ETags.cached(request(), ETags.weak(jsonKey, request()),
+                        () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(fields.retain(Json.toJson(recipes))))).withHeader("X-Count", number.toString());
+            } else if (request().accepts("application/xml")) {
+                CacheKey xmlKey = key.xml();
+                return ETags.cached(request(), ETags.weak(xmlKey, request()),
+                        () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.recipes(recipes, fields)))).withHeader("X-Count", number.toString());
+            }
 
+            return Results.status(415, messages.at("wrongOutputFormat"));
+        });
     }
 
     /**
-     * Método que permite buscar una receta por su título
+     * Método que permite buscar una receta por su título exacto (parámetro title) o buscar recetas por texto en el
+     * título, los ingredientes, los pasos y la categoría (parámetro q)
      *
-     * @return Respuesta que muestra la receta o error
+     * @return Respuesta que muestra la receta, las recetas encontradas o error
      */
-    public Result searchRecipe() {
-
-        messages = Http.Context.current().messages();
-
-        //Miramos a ver si el usuario ha introducido el nombre de una receta
-        String title = request().getQueryString("title");
-        if (title == null) {
-            return Results.badRequest(messages.at("recipe.emptyName"));
-        }
+    public CompletionStage<Result> searchRecipe() {
+        return dbContext.supplyCached(() -> {
+            messages = Http.Context.current().messages();
+
+            //Búsqueda por texto en el índice
+            String query = request().getQueryString("q");
+            if (query != null) {
+                return searchRecipeText(query);
+            }
 
-        //Comprobamos si la receta está en caché
-        String key = "recipe-" + title.toUpperCase();
-        Recipe recipe = cache.get(key);
-        //Si no lo tenemos en caché, lo buscamos y lo guardamos
-        if (recipe == null) {
-            recipe = Recipe.findByName(title.toUpperCase());
-            cache.set(key, recipe);
-        }
+            //Miramos a ver si el usuario ha introducido el nombre de una receta
+            String title = request().getQueryString("title");
+            if (title == null) {
+                return Results.badRequest(messages.at("recipe.emptyName"));
+            }
 
-        //Miramos si la receta solicitada existe
-        if (recipe == null) {
-            return Results.notFound(messages.at("recipe.wrongName"));
-        }
+            //Comprobamos si la receta está en caché
+            CacheKey key = cache.key(RECIPE_BY_TITLE, title.toUpperCase());
+            //Si no lo tenemos en caché, lo buscamos y lo guardamos. Si no existe, se recuerda para no volver a buscarlo
+            RecipeView recipe = cache.getOrLoad(key, () -> RecipeView.of(Recipe.findByName(title.toUpperCase())));
 
-        //Se devuelve la receta al usuario
-        if (request().accepts("application/json")) {
-            //Buscamos la respuesta en caché
-            key = "recipe-" + title.toUpperCase() + "-json";
-            JsonNode json = cache.get(key);
-            //Si no está, la creamos y la guardamos en caché
-            if (json == null) {
-                json = Json.toJson(recipe);
-                cache.set(key, json);
+            //Miramos si la receta solicitada existe
+            if (recipe == null) {
+                return Results.notFound(messages.at("recipe.wrongName"));
             }
-            return ok(Json.prettyPrint(json));
-        } else if (request().accepts("application/xml")) {
-            return ok(views.xml._recipe.render(recipe));
-        }
 
-        return Results.status(415, messages.at("wrongOutputFormat"));
+            //Se devuelve la receta al usuario
+            if (request().accepts("application/json")) {
+                //Buscamos la respuesta en caché
+                CacheKey jsonKey = key.json();
+                //Si no está, la creamos y la guardamos en caché
+                return ETags.cached(request(), ETags.strong(recipe, jsonKey, request()),
+                        () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(Json.toJson(recipe))));
+            } else if (request().accepts("application/xml")) {
+                CacheKey xmlKey = key.xml();
+                return ETags.cached(request(), ETags.strong(recipe, xmlKey, request()),
+                        () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.recipe(recipe))));
+            }
 
+            return Results.status(415, messages.at("wrongOutputFormat"));
+        });
     }
 
     /**
-     * Método que permite obtener las recetas creadas por un usuario
+     * Método que busca recetas por texto en el índice en memoria y las devuelve ordenadas por relevancia, en páginas de
+     * diez. Sólo se consulta la base de datos para cargar las recetas de la página.
      *
-     * @param id_user Identificador del usuario del que se desean ver sus recetas
-     * @return Devuelve las recetas creadas por el usuario seleccionado o error
+     * @param query Texto de la búsqueda. Cada palabra puede ser completa o un prefijo
+     * @return Respuesta que muestra las recetas encontradas o error
      */
-    public Result retrieveUserRecipes(Long id_user) {
+    private Result searchRecipeText(String query) {
 
-        messages = Http.Context.current().messages();
-
-        //Obtenemos la página
         String pageString = request().getQueryString("page");
-        if (pageString == null) {
-            return Results.status(409, messages.at("page.null"));
-        }
-        Integer page = Integer.parseInt(pageString);
-
-        //Comprobamos si el usuario está en caché
-        String key = "user-" + id_user;
-        User user = cache.get(key);
-        //Si no lo tenemos en caché, lo buscamos y lo guardamos
-        if (user == null) {
-            user = User.findById(id_user);
-            cache.set(key, user);
+        int page;
+        try {
+            page = pageString == null ? 0 : Integer.parseInt(pageString);
+        } catch (NumberFormatException e) {
+            page = -1;
         }
-
-        //Si el usuario no existe, se devuelve un error
-        if (user == null) {
-            return Results.notFound(messages.at("user.wrongId"));
+        //La página tiene que ser un número mayor o igual que cero
+        if (page < 0) {
+            return Results.badRequest(new ErrorObject("5", messages.at("page.wrong")).convertToJson()).as("application/json");
         }
+        int offset = (int) Math.min((long) page * Recipe.PAGE_SIZE, Integer.MAX_VALUE);
 
-        //Comprobamos si la lista de recetas de ese usuario está en caché
-        key = "userRecipes-" + id_user + page;
-        PagedList<Recipe> list = cache.get(key);
-        //Si no lo tenemos en caché, lo buscamos y lo guardamos
-        if (list == null) {
-            list = Recipe.findRecipesByUser(id_user, page);
-            cache.set(key, list, 60 * 2);
-        }
-        List<Recipe> userRecipesList = list.getList();
-        Integer number = list.getTotalCount();
+        RecipeSearchIndex.Hits hits = searchIndex.search(query, offset, Recipe.PAGE_SIZE);
+        DatabaseExecutionContext.requireDatabase();
+        List<RecipeView> recipes = RecipeView.of(Recipe.findByIds(hits.getIds()));
 
-        //Si la lista está vacía
-        if (userRecipesList.isEmpty()) {
-            return Results.ok(messages.at("user.listEmpty"));
+        //Si no hay resultados
+        if (recipes.isEmpty()) {
+            return Results.notFound(messages.at("recipe.noResults"));
         }
 
-        //Si la lista contiene elementos
+        String number = String.valueOf(hits.getTotal());
         if (request().accepts("application/json")) {
-            //Buscamos la respuesta en caché
-            key = "userRecipes-" + id_user + page + "-json";
-            JsonNode json = cache.get(key);
-            //Si no está, la creamos y la guardamos en caché
-            if (json == null) {
-                json = Json.toJson(userRecipesList);
-                cache.set(key, json, 60 * 2);
-            }
-            return ok(Json.prettyPrint(json)).withHeader("X-Count", number.toString());
+            return CachedBody.json(Json.toJson(recipes)).toResult(request()).withHeader("X-Count", number);
         } else if (request().accepts("application/xml")) {
-            return ok(views.xml.recipes.render(userRecipesList)).withHeader("X-Count", number.toString());
+            return CachedBody.xml(XmlWriter.recipes(recipes)).toResult(request()).withHeader("X-Count", number);
         }
         return Results.status(415, messages.at("wrongOutputFormat"));
+    }
 
+    /**
+     * Método que permite obtener las recetas creadas por un usuario
+     *
+     * @param id_user Identificador del usuario del que se desean ver sus recetas
+     * @return Devuelve las recetas creadas por el usuario seleccionado o error
+     */
+    public CompletionStage<Result> retrieveUserRecipes(Long id_user) {
+        return dbContext.supplyCached(() -> {
+            messages = Http.Context.current().messages();
+
+            //Obtenemos la página o el cursor
+            String pageString = request().getQueryString("page");
+            String after = request().getQueryString(Cursor.AFTER_PARAM);
+            if (pageString == null && after == null) {
+                return Results.status(409, messages.at("page.null"));
+            }
+
+            //Comprobamos si el usuario está en caché
+            CacheKey key = cache.key(USER, id_user);
+            //Si no lo tenemos en caché, lo buscamos y lo guardamos. Si no existe, se recuerda para no volver a buscarlo
+            UserView user = cache.getOrLoad(key, () -> UserView.of(User.findById(id_user)));
+
+            //Si el usuario no existe, se devuelve un error
+            if (user == null) {
+                return Results.notFound(messages.at("user.wrongId"));
+            }
+
+            //Si se indica un cursor, se pagina por identificador
+            if (after != null) {
+                Long lastId = Cursor.decode(after);
+                if (lastId == null) {
+                    return Results.badRequest(messages.at("page.wrongCursor"));
+                }
+                key = cache.key(USER_RECIPES_AFTER, id_user, lastId);
+                List<RecipeView> recipes = cache.getOrLoad(key, () -> RecipeView.of(Recipe.findRecipesByUserAfter(id_user, lastId)));
+                if (recipes.isEmpty()) {
+                    return Results.ok(messages.at("user.listEmpty"));
+                }
+                return renderRecipesAfter(recipes, FieldSet.ALL, key.json(), () -> Recipe.countByUser(id_user));
+            }
+            Integer page = Integer.parseInt(pageString);
+
+            //Comprobamos si la lista de recetas de ese usuario está en caché
+            key = cache.key(USER_RECIPES, id_user, page);
+            //Si no lo tenemos en caché, lo buscamos y lo guardamos
+            PageView<RecipeView> list = cache.getOrLoad(key, () -> PageView.of(Recipe.findRecipesByUser(id_user, page), RecipeView::of));
+            List<RecipeView> userRecipesList = list.getList();
+            Integer number = list.getTotalCount();
+
+            //Si la lista está vacía
+            if (userRecipesList.isEmpty()) {
+                return Results.ok(messages.at("user.listEmpty"));
+            }
+
+            //Si la lista contiene elementos
+            if (request().accepts("application/json")) {
+                //Buscamos la respuesta en caché
+                CacheKey jsonKey = key.json();
+                //Si no está, la creamos y la guardamos en caché
+                return ETags.cached(request(), ETags.weak(jsonKey, request()),
+                        () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(Json.toJson(userRecipesList)))).withHeader("X-Count", number.toString());
+            } else if (request().accepts("application/xml")) {
+                CacheKey xmlKey = key.xml();
+                return ETags.cached(request(), ETags.weak(xmlKey, request()),
+                        () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.recipes(userRecipesList)))).withHeader("X-Count", number.toString());
+            }
+            return Results.status(415, messages.at("wrongOutputFormat"));
+        });
     }
     
     /**
@@ -413,79 +608,91 @@ public class RecipeController extends Controller {
      * @param id Id de la categoría de recetas que se quiere visualizar
      * @return Devuelve las recetas pertenecientes a la categoría especificada o error
      */
-    public Result retrieveRecipesByCategory(Long id) {
-
-        messages = Http.Context.current().messages();
-
-        String pageString = request().getQueryString("page");
-        if (pageString == null) {
-            return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
-        }
-        Integer page = Integer.parseInt(pageString);
-
-        //Comprobamos si la categoría está en caché
-        String key = "category-" + id;
-        Category category = cache.get(key);
-        //Si no la tenemos en caché, la buscamos y la guardamos
-        if (category == null) {
-            category = Category.findByCategoryId(id);
-            cache.set(key, category);
-        }
-
-        //Si la categoría no existe
-        if (category == null) {
-            return Results.notFound(messages.at("category.notExist"));
-        }
+    public CompletionStage<Result> retrieveRecipesByCategory(Long id) {
+        return dbContext.supplyCached(() -> {
+            messages = Http.Context.current().messages();
+
+            String pageString = request().getQueryString("page");
+            String after = request().getQueryString(Cursor.AFTER_PARAM);
+            if (pageString == null && after == null) {
+                return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
+            }
 
-        //Comprobamos si la lista de recetas de esa categoría está en caché
-        key = "categoryRecipes-" + id + page;
-        PagedList<Recipe> list = cache.get(key);
-        //Si no lo tenemos en caché, lo buscamos y lo guardamos
-        if (list == null) {
-            list = Recipe.findRecipesByCategory(id, page);
-            cache.set(key, list, 60 * 2);
-        }
-        List<Recipe> recipes = list.getList();
-        Integer number = list.getTotalCount();
+            //Comprobamos si la categoría está en caché
+            CacheKey key = cache.key(CATEGORY, id);
+            //Si no la tenemos en caché, la buscamos y la guardamos. Si no existe, se recuerda para no volver a buscarlo
+            CategoryView category = cache.getOrLoad(key, () -> CategoryView.of(Category.findByCategoryId(id)));
 
-        //Si no hay recetas de esa categoría
-        if(recipes.isEmpty()) {
-            return Results.notFound(messages.at("recipe.empty"));
-        }
+            //Si la categoría no existe
+            if (category == null) {
+                return Results.notFound(messages.at("category.notExist"));
+            }
 
-        if (request().accepts("application/json")) {
-            //Buscamos la respuesta en caché
-            key = "categoryRecipes-" + id + page + "-json";
-            JsonNode json = cache.get(key);
-            //Si no está, la creamos y la guardamos en caché
-            if (json == null) {
-                json = Json.toJson(recipes);
-                cache.set(key, json, 60 * 2);
+            //Si se indica un cursor, se pagina por identificador
+            if (after != null) {
+                Long lastId = Cursor.decode(after);
+                if (lastId == null) {
+                    return Results.badRequest(messages.at("page.wrongCursor"));
+                }
+                key = cache.key(CATEGORY_RECIPES_AFTER, id, lastId);
+                List<RecipeView> recipes = cache.getOrLoad(key, () -> RecipeView.of(Recipe.findRecipesByCategoryAfter(id, lastId)));
+                if (recipes.isEmpty()) {
+                    return Results.notFound(messages.at("recipe.empty"));
+                }
+                return renderRecipesAfter(recipes, FieldSet.ALL, key.json(), () -> Recipe.countByCategory(id));
+            }
+            Integer page = Integer.parseInt(pageString);
+
+            //Comprobamos si la lista de recetas de esa categoría está en caché
+            key = cache.key(CATEGORY_RECIPES, id, page);
+            //Si no lo tenemos en caché, lo buscamos y lo guardamos
+            PageView<RecipeView> list = cache.getOrLoad(key, () -> PageView.of(Recipe.findRecipesByCategory(id, page), RecipeView::of));
+            List<RecipeView> recipes = list.getList();
+            Integer number = list.getTotalCount();
+
+            //Si no hay recetas de esa categoría
+            if(recipes.isEmpty()) {
+                return Results.notFound(messages.at("recipe.empty"));
             }
-            return ok(Json.prettyPrint(json)).withHeader("X-Count", number.toString());
-        } else if (request().accepts("application/xml")) {
-            return ok(views.xml.recipes.render(recipes)).withHeader("X-Count", number.toString());
-        }
-        return Results.status(415, messages.at("wrongOutputFormat"));
 
+            if (request().accepts("application/json")) {
+                //Buscamos la respuesta en caché
+                CacheKey jsonKey = key.json();
+                //Si no está, la creamos y la guardamos en caché
+                return ETags.cached(request(), ETags.weak(jsonKey, request()),
+                        () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(Json.toJson(recipes)))).withHeader("X-Count", number.toString());
+            } else if (request().accepts("application/xml")) {
+                CacheKey xmlKey = key.xml();
+                return ETags.cached(request(), ETags.weak(xmlKey, request()),
+                        () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.recipes(recipes)))).withHeader("X-Count", number.toString());
+            }
+            return Results.status(415, messages.at("wrongOutputFormat"));
+        });
     }
 
     /**
-     * Método que ordena alfabéticamente las recetas
+     * Método que devuelve una página de recetas obtenida por cursor, con la cabecera del cursor siguiente
      *
-     * @param recipes Lista con las recetas
+     * @param recipes Recetas de la página ordenadas por identificador
+     * @param fields  Campos que se muestran de cada receta
+     * @param key     Clave de caché de la respuesta JSON
+     * @param count   Consulta del total de recetas, que sólo se ejecuta si se solicita
+     * @return Respuesta que muestra las recetas
      */
-    private void sortAlphabetically(List<Recipe> recipes) {
+    private Result renderRecipesAfter(List<RecipeView> recipes, FieldSet fields, CacheKey key, IntSupplier count) {
 
-        if (recipes.size() > 0) {
-            Collections.sort(recipes, new Comparator<Recipe>() {
-
-                @Override
-                public int compare(Recipe o1, Recipe o2) {
-                    return o1.getTitle().compareTo(o2.getTitle());
-                }
-            });
+        Result result;
+        if (request().accepts("application/json")) {
+            result = ETags.cached(request(), ETags.weak(key, request()),
+                    () -> cache.getOrLoad(key, () -> CachedBody.json(fields.retain(Json.toJson(recipes)))));
+        } else if (request().accepts("application/xml")) {
+            CacheKey xmlKey = key.xml();
+            result = ETags.cached(request(), ETags.weak(xmlKey, request()),
+                    () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.recipes(recipes, fields))));
+        } else {
+            return Results.status(415, messages.at("wrongOutputFormat"));
         }
+        return Cursor.withHeaders(result, recipes, Recipe.PAGE_SIZE, count);
     }
 
     /**
@@ -494,9 +701,7 @@ public class RecipeController extends Controller {
      * @param recipe receta de la que se quiere borrar el caché
      */
     public void deleteRecipeCache(Recipe recipe) {
-        String key = "recipe-" + recipe.getId();
-        cache.remove(key);
-        key = "recipe-" + recipe.getId() + "-json";
-        cache.remove(key);
+        cache.remove(cache.key(RECIPE, recipe.getId()));
+        cache.remove(cache.key(RECIPE_BY_TITLE, recipe.getTitle()));
     }
 }
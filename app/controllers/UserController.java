@@ -1,21 +1,44 @@
 package controllers;
 
 
-import com.fasterxml.jackson.databind.JsonNode;
 import io.ebean.Ebean;
-import io.ebean.PagedList;
+import models.FieldSet;
+import models.PageView;
 import models.Recipe;
 import models.User;
-import play.cache.SyncCacheApi;
+import models.UserView;
 import play.data.Form;
 import play.data.FormFactory;
 import play.i18n.Messages;
 import play.libs.Json;
 import play.mvc.*;
+import services.ApiKeyIndex;
+import services.ApiCache;
+import services.CacheKey;
+import services.CollectionVersions;
+import services.DatabaseExecutionContext;
+import services.ExistingIds;
+import services.RecipeSearchIndex;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+import static services.CollectionVersions.Collection.RECIPES;
+import static services.CollectionVersions.Collection.USERS;
+import static services.CacheKey.Namespace.ADMIN_LIST;
+import static services.CacheKey.Namespace.RECIPE;
+import static services.CacheKey.Namespace.RECIPE_BY_TITLE;
+import static services.CacheKey.Namespace.USER;
+import static services.CacheKey.Namespace.USERS_BY_CITY;
+import static services.CacheKey.Namespace.USERS_BY_FULL_NAME;
+import static services.CacheKey.Namespace.USERS_BY_NAME;
+import static services.CacheKey.Namespace.USERS_BY_SURNAME;
+import static services.CacheKey.Namespace.USER_BY_NICK;
+import static services.CacheKey.Namespace.USER_LIST;
+import static services.CacheKey.Namespace.USER_LIST_AFTER;
 
 public class UserController extends Controller {
 
@@ -29,7 +52,37 @@ public class UserController extends Controller {
      * Variable caché
      */
     @Inject
-    private SyncCacheApi cache;
+    private ApiCache cache;
+
+    /**
+     * Índice en memoria de las claves API
+     */
+    @Inject
+    private ApiKeyIndex apiKeyIndex;
+
+    /**
+     * Índice de búsqueda de recetas por texto
+     */
+    @Inject
+    private RecipeSearchIndex searchIndex;
+
+    /**
+     * Versiones de las colecciones para invalidar los listados en caché
+     */
+    @Inject
+    private CollectionVersions versions;
+
+    /**
+     * Identificadores existentes para responder sin consultar la base de datos a las búsquedas de elementos que no existen
+     */
+    @Inject
+    private ExistingIds existingIds;
+
+    /**
+     * Contexto de ejecución de las acciones que consultan la base de datos
+     */
+    @Inject
+    private DatabaseExecutionContext dbContext;
 
     /**
      * Variable para presentar los mensajes al usuario según el idioma
@@ -46,33 +99,37 @@ public class UserController extends Controller {
      * <li>Devuelve mensaje de éxito si el usuario se ha creado correctamente</li>
      * </ul>
      */
-    public Result createUser() {
-
-        messages = Http.Context.current().messages();
+    public CompletionStage<Result> createUser() {
+        return dbContext.supply(() -> {
+            messages = Http.Context.current().messages();
 
-        Form<User> f = formFactory.form(User.class).bindFromRequest(); //Creación de objeto Form para obtener los datos de la petición
-        if (f.hasErrors()) {         //Comprobar si hay errores
-            return Results.status(409, f.errorsAsJson());
-        }
+            Form<User> f = formFactory.form(User.class).bindFromRequest(); //Creación de objeto Form para obtener los datos de la petición
+            if (f.hasErrors()) {         //Comprobar si hay errores
+                return Results.status(409, f.errorsAsJson());
+            }
 
-        User user = f.get();  //Objeto User donde se guarda la información de la petición
-        user.setAdmin(false);
+            User user = f.get();  //Objeto User donde se guarda la información de la petición
+            user.setAdmin(false);
 
-        //Validación y guardado en caso de que el nick no exista. En caso contrario se muestra el error correspondiente
-        if (user.checkAndSave()) {
+            //Validación y guardado en caso de que el nick no exista. En caso contrario se muestra el error correspondiente
+            if (user.checkAndSave()) {
 
-            if (request().accepts("application/xml")) {
-                return Results.created(views.xml.apiKey.render(user));
-            }
+                apiKeyIndex.put(user);
+                existingIds.add(USERS, user.getId());
+                versions.bump(USERS);
 
-            //Si acepta json, no indica el formato o el formato indicado es incorrecto, se envía en json
-            ObjectNode apiKey = Json.newObject();
-            apiKey.put("apiKey", user.getApiKey().getKey());
-            return Results.created(Json.prettyPrint(apiKey));
-        }
+                if (request().accepts("application/xml")) {
+                    return Results.created(views.xml.apiKey.render(user));
+                }
 
-        return Results.status(409, new ErrorObject("3", messages.at("user.alreadyExist")).convertToJson()).as("application/json");
+                //Si acepta json, no indica el formato o el formato indicado es incorrecto, se envía en json
+                ObjectNode apiKey = Json.newObject();
+                apiKey.put("apiKey", user.getApiKey().getKey());
+                return Results.created(Json.prettyPrint(apiKey));
+            }
 
+            return Results.status(409, new ErrorObject("3", messages.at("user.alreadyExist")).convertToJson()).as("application/json");
+        });
     }
 
     /**
@@ -81,41 +138,35 @@ public class UserController extends Controller {
      * @param id_user Id del usuario del que se quiere obtener la información
      * @return Indica si se ha realizado correctamente o no la operación
      */
-    public Result retrieveUser(Long id_user) {
-
-        messages = Http.Context.current().messages();
-
-        //Comprobamos si el usuario está en caché
-        String key = "user-" + id_user;
-        User user = cache.get(key);
-        //Si no lo tenemos en caché, lo buscamos y lo guardamos
-        if (user == null) {
-            user = User.findById(id_user);
-            cache.set(key, user);
-        }
-
-        //Si el Id no existe, se devuelve un error
-        if (user == null) {
-            return Results.notFound(messages.at("user.wrongId"));
-        }
-
-        //Formato de respuesta dependiendo de lo que acepte la petición
-        if (request().accepts("application/xml")) {
-            return ok(views.xml.user.render(user));
-        } else if (request().accepts("application/json")) {
-            //Buscamos la respuesta en caché
-            key = "user-" + id_user + "-json";
-            JsonNode json = cache.get(key);
-            //Si no está, la creamos y la guardamos en caché
-            if (json == null) {
-                json = Json.toJson(user);
-                cache.set(key, json);
+    public CompletionStage<Result> retrieveUser(Long id_user) {
+        return dbContext.supplyCached(() -> {
+            messages = Http.Context.current().messages();
+
+            //Comprobamos si el usuario está en caché
+            CacheKey key = cache.key(USER, id_user);
+            //Si no lo tenemos en caché, lo buscamos y lo guardamos. Si no existe, se recuerda para no volver a buscarlo
+            UserView user = cache.getOrLoad(key, () -> UserView.of(User.findById(id_user)));
+
+            //Si el Id no existe, se devuelve un error
+            if (user == null) {
+                return Results.notFound(messages.at("user.wrongId"));
             }
-            return ok(Json.prettyPrint(json));
-        }
 
-        return Results.status(415, messages.at("wrongOutputFormat"));
+            //Formato de respuesta dependiendo de lo que acepte la petición
+            if (request().accepts("application/xml")) {
+                CacheKey xmlKey = key.xml();
+                return ETags.cached(request(), ETags.strong(user, xmlKey, request()),
+                        () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.user(user))));
+            } else if (request().accepts("application/json")) {
+                //Buscamos la respuesta en caché
+                CacheKey jsonKey = key.json();
+                //Si no está, la creamos y la guardamos en caché
+                return ETags.cached(request(), ETags.strong(user, jsonKey, request()),
+                        () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(Json.toJson(user))));
+            }
 
+            return Results.status(415, messages.at("wrongOutputFormat"));
+        });
     }
 
     /**
@@ -124,39 +175,33 @@ public class UserController extends Controller {
      * @param nick nick del usuario del que se quiere obtener la información
      * @return Indica si se ha realizado correctamente o no la operación
      */
-    public Result retrieveUserByNick(String nick) {
-
-        messages = Http.Context.current().messages();
-
-        //Comprobamos si el usuario está en caché
-        String key = "user-" + nick;
-        User user = cache.get(key);
-        //Si no lo tenemos en caché, lo buscamos y lo guardamos
-        if (user == null) {
-            user = User.findByNick(nick);
-            cache.set(key, user);
-        }
-
-        //Si no existe ningún usuario con ese nick
-        if (user == null) {
-            return Results.notFound(messages.at("user.wrongNick"));
-        }
-        //Formato de respuesta dependiendo de lo que acepte la petición
-        if (request().accepts("application/xml")) {
-            return ok(views.xml.user.render(user));
-        } else if (request().accepts("application/json")) {
-            //Buscamos la respuesta en caché
-            key = "user-" + nick + "-json";
-            JsonNode json = cache.get(key);
-            //Si no está, la creamos y la guardamos en caché
-            if (json == null) {
-                json = Json.toJson(user);
-                cache.set(key, json);
+    public CompletionStage<Result> retrieveUserByNick(String nick) {
+        return dbContext.supplyCached(() -> {
+            messages = Http.Context.current().messages();
+
+            //Comprobamos si el usuario está en caché
+            CacheKey key = cache.key(USER_BY_NICK, nick);
+            //Si no lo tenemos en caché, lo buscamos y lo guardamos. Si no existe, se recuerda para no volver a buscarlo
+            UserView user = cache.getOrLoad(key, () -> UserView.of(User.findByNick(nick)));
+
+            //Si no existe ningún usuario con ese nick
+            if (user == null) {
+                return Results.notFound(messages.at("user.wrongNick"));
             }
-            return ok(Json.prettyPrint(json));
-        }
-        return Results.status(415, messages.at("wrongOutputFormat"));
-
+            //Formato de respuesta dependiendo de lo que acepte la petición
+            if (request().accepts("application/xml")) {
+                CacheKey xmlKey = key.xml();
+                return ETags.cached(request(), ETags.strong(user, xmlKey, request()),
+                        () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.user(user))));
+            } else if (request().accepts("application/json")) {
+                //Buscamos la respuesta en caché
+                CacheKey jsonKey = key.json();
+                //Si no está, la creamos y la guardamos en caché
+                return ETags.cached(request(), ETags.strong(user, jsonKey, request()),
+                        () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(Json.toJson(user))));
+            }
+            return Results.status(415, messages.at("wrongOutputFormat"));
+        });
     }
 
 
@@ -166,48 +211,43 @@ public class UserController extends Controller {
      * @param name nombre de los usuarios que se quieren buscar
      * @return Indica si se ha realizado correctamente o no la operación
      */
-    public Result retrieveUserByName(String name) {
-
-        messages = Http.Context.current().messages();
-        //Obtenemos la página
-        String pageString = request().getQueryString("page");
-        if (pageString == null) {
-            return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
-        }
-        Integer page = Integer.parseInt(pageString);
-
-        //Comprobamos si la lista está en caché
-        String key = "listByName-" + name + page;
-        PagedList<User> list = cache.get(key);
-        //Si no lo tenemos en caché, lo buscamos y lo guardamos
-        if (list == null) {
-            list = User.findByName(name, page);
-            cache.set(key, list, 60 * 2);
-        }
-        List<User> usersList = list.getList();
-        Integer number = list.getTotalCount();
-
-        //Si la lista está vacía
-        if (usersList.isEmpty()) {
-            return Results.notFound(messages.at("user.wrongName"));
-        }
+    public CompletionStage<Result> retrieveUserByName(String name) {
+        return dbContext.supplyCached(() -> {
+            messages = Http.Context.current().messages();
+            //Obtenemos la página
+            String pageString = request().getQueryString("page");
+            if (pageString == null) {
+                return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
+            }
+            Integer page = Integer.parseInt(pageString);
+
+            //Comprobamos si la lista está en caché
+            CacheKey key = cache.key(USERS_BY_NAME, name, page);
+            //Si no lo tenemos en caché, lo buscamos y lo guardamos
+            PageView<UserView> list = cache.getOrLoad(key, () -> PageView.of(User.findByName(name, page), UserView::of));
+            List<UserView> usersList = list.getList();
+            Integer number = list.getTotalCount();
+
+            //Si la lista está vacía
+            if (usersList.isEmpty()) {
+                return Results.notFound(messages.at("user.wrongName"));
+            }
 
-        //Si la lista no está vacía
-        if (request().accepts("application/xml")) {
-            return ok(views.xml.users.render(usersList)).withHeader("X-Count", number.toString());
-        } else if (request().accepts("application/json")) {
-            //Buscamos la respuesta en caché
-            key = "listByName-" + name + page + "-json";
-            JsonNode json = cache.get(key);
-            //Si no está, la creamos y la guardamos en caché
-            if (json == null) {
-                json = Json.toJson(usersList);
-                cache.set(key, json, 60 * 2);
+            //Si la lista no está vacía
+            if (request().accepts("application/xml")) {
+                CacheKey xmlKey = key.xml();
+                return ETags.cached(request(), ETags.weak(xmlKey, request()),
+                        () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.users(usersList)))).withHeader("X-Count", number.toString());
+            } else if (request().accepts("application/json")) {
+                //Buscamos la respuesta en caché
+                CacheKey jsonKey = key.json();
+                //Si no está, la creamos y la guardamos en caché
+                return ETags.cached(request(), ETags.weak(jsonKey, request()),
+                        () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(Json.toJson(usersList)))).withHeader("X-Count", number.toString());
             }
-            return ok(Json.prettyPrint(json)).withHeader("X-Count", number.toString());
-        }
 
-        return Results.status(415, messages.at("wrongOutputFormat"));
+            return Results.status(415, messages.at("wrongOutputFormat"));
+        });
     }
 
     /**
@@ -216,48 +256,42 @@ public class UserController extends Controller {
      * @param surname apellido de los usuarios que se quieren buscar
      * @return Indica si se ha realizado correctamente o no la operación
      */
-    public Result retrieveUserBySurname(String surname) {
-
-        messages = Http.Context.current().messages();
-        //Obtenemos la página
-        String pageString = request().getQueryString("page");
-        if (pageString == null) {
-            return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
-        }
-        Integer page = Integer.parseInt(pageString);
-
-        //Comprobamos si la lista está en caché
-        String key = "listBySurname-" + surname + page;
-        PagedList<User> list = cache.get(key);
-        //Si no lo tenemos en caché, lo buscamos y lo guardamos
-        if (list == null) {
-            list = User.findBySurname(surname, page);
-            cache.set(key, list, 60 * 2);
-        }
-        List<User> usersList = list.getList();
-        Integer number = list.getTotalCount();
-
-        //Si la lista está vacía
-        if (usersList.isEmpty()) {
-            return Results.notFound(messages.at("user.wrongSurname"));
-        }
-
-        //Si la lista no está vacía
-        if (request().accepts("application/xml")) {
-            return ok(views.xml.users.render(usersList)).withHeader("X-Count", number.toString());
-        } else if (request().accepts("application/json")) {
-            //Buscamos la respuesta en caché
-            key = "listBySurname-" + surname + page + "-json";
-            JsonNode json = cache.get(key);
-            //Si no está, la creamos y la guardamos en caché
-            if (json == null) {
-                json = Json.toJson(usersList);
-                cache.set(key, json, 60 * 2);
+    public CompletionStage<Result> retrieveUserBySurname(String surname) {
+        return dbContext.supplyCached(() -> {
+            messages = Http.Context.current().messages();
+            //Obtenemos la página
+            String pageString = request().getQueryString("page");
+            if (pageString == null) {
+                return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
+            }
+            Integer page = Integer.parseInt(pageString);
+
+            //Comprobamos si la lista está en caché
+            CacheKey key = cache.key(USERS_BY_SURNAME, surname, page);
+            //Si no lo tenemos en caché, lo buscamos y lo guardamos
+            PageView<UserView> list = cache.getOrLoad(key, () -> PageView.of(User.findBySurname(surname, page), UserView::of));
+            List<UserView> usersList = list.getList();
+            Integer number = list.getTotalCount();
+
+            //Si la lista está vacía
+            if (usersList.isEmpty()) {
+                return Results.notFound(messages.at("user.wrongSurname"));
             }
-            return ok(Json.prettyPrint(json)).withHeader("X-Count", number.toString());
-        }
-        return Results.status(415, messages.at("wrongOutputFormat"));
 
+            //Si la lista no está vacía
+            if (request().accepts("application/xml")) {
+                CacheKey xmlKey = key.xml();
+                return ETags.cached(request(), ETags.weak(xmlKey, request()),
+                        () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.users(usersList)))).withHeader("X-Count", number.toString());
+            } else if (request().accepts("application/json")) {
+                //Buscamos la respuesta en caché
+                CacheKey jsonKey = key.json();
+                //Si no está, la creamos y la guardamos en caché
+                return ETags.cached(request(), ETags.weak(jsonKey, request()),
+                        () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(Json.toJson(usersList)))).withHeader("X-Count", number.toString());
+            }
+            return Results.status(415, messages.at("wrongOutputFormat"));
+        });
     }
 
     /**
@@ -267,48 +301,42 @@ public class UserController extends Controller {
      * @param surname apellido de los usuarios que se quieren buscar
      * @return Indica si se ha realizado correctamente o no la operación
      */
-    public Result retrieveUserByFullName(String name, String surname) {
-
-        messages = Http.Context.current().messages();
-        //Obtenemos la página
-        String pageString = request().getQueryString("page");
-        if (pageString == null) {
-            return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
-        }
-        Integer page = Integer.parseInt(pageString);
-
-        //Comprobamos si la lista está en caché
-        String key = "listByFullName-" + name + surname + page;
-        PagedList<User> list = cache.get(key);
-        //Si no lo tenemos en caché, lo buscamos y lo guardamos
-        if (list == null) {
-            list = User.findByFullName(name, surname, page);
-            cache.set(key, list, 60 * 2);
-        }
-        List<User> usersList = list.getList();
-        Integer number = list.getTotalCount();
-
-        //Si la lista está vacía
-        if (usersList.isEmpty()) {
-            return Results.notFound(messages.at("user.wrongFullName"));
-        }
-
-        //Si la lista no está vacía
-        if (request().accepts("application/xml")) {
-            return ok(views.xml.users.render(usersList)).withHeader("X-Count", number.toString());
-        } else if (request().accepts("application/json")) {
-            //Buscamos la respuesta en caché
-            key = "listByFullName-" + name + surname + page + "-json";
-            JsonNode json = cache.get(key);
-            //Si no está, la creamos y la guardamos en caché
-            if (json == null) {
-                json = Json.toJson(usersList);
-                cache.set(key, json, 60 * 2);
+    public CompletionStage<Result> retrieveUserByFullName(String name, String surname) {
+        return dbContext.supplyCached(() -> {
+            messages = Http.Context.current().messages();
+            //Obtenemos la página
+            String pageString = request().getQueryString("page");
+            if (pageString == null) {
+                return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
+            }
+            Integer page = Integer.parseInt(pageString);
+
+            //Comprobamos si la lista está en caché
+            CacheKey key = cache.key(USERS_BY_FULL_NAME, name, surname, page);
+            //Si no lo tenemos en caché, lo buscamos y lo guardamos
+            PageView<UserView> list = cache.getOrLoad(key, () -> PageView.of(User.findByFullName(name, surname, page), UserView::of));
+            List<UserView> usersList = list.getList();
+            Integer number = list.getTotalCount();
+
+            //Si la lista está vacía
+            if (usersList.isEmpty()) {
+                return Results.notFound(messages.at("user.wrongFullName"));
             }
-            return ok(Json.prettyPrint(json)).withHeader("X-Count", number.toString());
-        }
-        return Results.status(415, messages.at("wrongOutputFormat"));
 
+            //Si la lista no está vacía
+            if (request().accepts("application/xml")) {
+                CacheKey xmlKey = key.xml();
+                return ETags.cached(request(), ETags.weak(xmlKey, request()),
+                        () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.users(usersList)))).withHeader("X-Count", number.toString());
+            } else if (request().accepts("application/json")) {
+                //Buscamos la respuesta en caché
+                CacheKey jsonKey = key.json();
+                //Si no está, la creamos y la guardamos en caché
+                return ETags.cached(request(), ETags.weak(jsonKey, request()),
+                        () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(Json.toJson(usersList)))).withHeader("X-Count", number.toString());
+            }
+            return Results.status(415, messages.at("wrongOutputFormat"));
+        });
     }
 
 
@@ -318,48 +346,42 @@ public class UserController extends Controller {
      * @param city ciudad de los usuarios que se quieren buscar
      * @return Indica si se ha realizado correctamente o no la operación
      */
-    public Result retrieveUserByCity(String city) {
-
-        messages = Http.Context.current().messages();
-        //Obtenemos la página
-        String pageString = request().getQueryString("page");
-        if (pageString == null) {
-            return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
-        }
-        Integer page = Integer.parseInt(pageString);
-
-        //Comprobamos si la lista está en caché
-        String key = "listByCity-" + city + page;
-        PagedList<User> list = cache.get(key);
-        //Si no lo tenemos en caché, lo buscamos y lo guardamos
-        if (list == null) {
-            list = User.findByCity(city, page);
-            cache.set(key, list, 60 * 2);
-        }
-        List<User> usersList = list.getList();
-        Integer number = list.getTotalCount();
-
-        //Si la lista está vacía
-        if (usersList.isEmpty()) {
-            return Results.notFound(messages.at("user.wrongCity"));
-        }
-
-        //Si la lista no está vacía
-        if (request().accepts("application/xml")) {
-            return ok(views.xml.users.render(usersList)).withHeader("X-Count", number.toString());
-        } else if (request().accepts("application/json")) {
-            //Buscamos la respuesta en caché
-            key = "listByCity-" + city + page + "-json";
-            JsonNode json = cache.get(key);
-            //Si no está, la creamos y la guardamos en caché
-            if (json == null) {
-                json = Json.toJson(usersList);
-                cache.set(key, json, 60 * 2);
+    public CompletionStage<Result> retrieveUserByCity(String city) {
+        return dbContext.supplyCached(() -> {
+            messages = Http.Context.current().messages();
+            //Obtenemos la página
+            String pageString = request().getQueryString("page");
+            if (pageString == null) {
+                return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
+            }
+            Integer page = Integer.parseInt(pageString);
+
+            //Comprobamos si la lista está en caché
+            CacheKey key = cache.key(USERS_BY_CITY, city, page);
+            //Si no lo tenemos en caché, lo buscamos y lo guardamos
+            PageView<UserView> list = cache.getOrLoad(key, () -> PageView.of(User.findByCity(city, page), UserView::of));
+            List<UserView> usersList = list.getList();
+            Integer number = list.getTotalCount();
+
+            //Si la lista está vacía
+            if (usersList.isEmpty()) {
+                return Results.notFound(messages.at("user.wrongCity"));
             }
-            return ok(Json.prettyPrint(json)).withHeader("X-Count", number.toString());
-        }
-        return Results.status(415, messages.at("wrongOutputFormat"));
 
+            //Si la lista no está vacía
+            if (request().accepts("application/xml")) {
+                CacheKey xmlKey = key.xml();
+                return ETags.cached(request(), ETags.weak(xmlKey, request()),
+                        () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.users(usersList)))).withHeader("X-Count", number.toString());
+            } else if (request().accepts("application/json")) {
+                //Buscamos la respuesta en caché
+                CacheKey jsonKey = key.json();
+                //Si no está, la creamos y la guardamos en caché
+                return ETags.cached(request(), ETags.weak(jsonKey, request()),
+                        () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(Json.toJson(usersList)))).withHeader("X-Count", number.toString());
+            }
+            return Results.status(415, messages.at("wrongOutputFormat"));
+        });
     }
 
 
@@ -370,62 +392,70 @@ public class UserController extends Controller {
      * @return Indica si se ha realizado correctamente o no la operación
      */
     @Security.Authenticated(Authorization.class)
-    public Result updateUser(Long id_user) {
-
-        messages = Http.Context.current().messages();
-
-        //Creación de objeto Form para obtener los datos de la petición
-        Form<User> f = formFactory.form(User.class).bindFromRequest();
-        //Comprobar si hay errores
-        if (f.hasErrors()) {
-            return Results.status(409, f.errorsAsJson());
-        }
+    public CompletionStage<Result> updateUser(Long id_user) {
+        return dbContext.supply(() -> {
+            messages = Http.Context.current().messages();
+
+            //Creación de objeto Form para obtener los datos de la petición
+            Form<User> f = formFactory.form(User.class).bindFromRequest();
+            //Comprobar si hay errores
+            if (f.hasErrors()) {
+                return Results.status(409, f.errorsAsJson());
+            }
 
-        //Obtenemos el usuario de la cabecera Authorization
-        User loggedUser = (User) Http.Context.current().args.get("loggedUser");
+            //Obtenemos el usuario de la cabecera Authorization
+            User loggedUser = (User) Http.Context.current().args.get("loggedUser");
 
-        //Objeto User donde se guarda la información de la petición
-        User updateUser = f.get();
+            //Objeto User donde se guarda la información de la petición
+            User updateUser = f.get();
 
-        //User correspondiente al id enviado en la petición
-        User user = User.findById(id_user);
-        if (user == null) {
-            return Results.notFound(messages.at("user.wrongId"));
-        }
+            //User correspondiente al id enviado en la petición
+            User user = User.findById(id_user);
+            if (user == null) {
+                return Results.notFound(messages.at("user.wrongId"));
+            }
 
-        if (user.getId() == loggedUser.getId() || loggedUser.getAdmin()) {
+            if (user.getId() == loggedUser.getId() || loggedUser.getAdmin()) {
 
-            //Si era administrador, seguirá siéndolo
-            if (user.getId() == loggedUser.getId()) {
-                updateUser.setAdmin(loggedUser.getAdmin());
-            } else {
-                updateUser.setAdmin(user.getAdmin());
-            }
+                //Si el cliente indica la versión que modifica, tiene que ser la actual
+                if (!ETags.matches(request(), user)) {
+                    return Results.status(412, new ErrorObject("9", messages.at("modified")).convertToJson()).as("application/json");
+                }
+                //Si era administrador, seguirá siéndolo
+                if (user.getId() == loggedUser.getId()) {
+                    updateUser.setAdmin(loggedUser.getAdmin());
+                } else {
+                    updateUser.setAdmin(user.getAdmin());
+                }
 
-            //Comprobamos que si actualiza el nick, no coja uno repetido
-            User u = User.findByNick(f.get().getNick());
-            if (u != null && u.getId() != id_user) {
-                return Results.status(409, new ErrorObject("6", messages.at("user.nickAlreadyExist")).convertToJson()).as("application/json");
-            }
+                //Comprobamos que si actualiza el nick, no coja uno repetido
+                User u = User.findByNick(f.get().getNick());
+                if (u != null && u.getId() != id_user) {
+                    return Results.status(409, new ErrorObject("6", messages.at("user.nickAlreadyExist")).convertToJson()).as("application/json");
+                }
 
-            Ebean.beginTransaction();
-            try {
+                Ebean.beginTransaction();
+                try {
+                    updateUser.setId(user.getId());
+                    updateUser.update();
+                    Ebean.commitTransaction();
+                } finally {
+                    Ebean.endTransaction();
+                }
+                //Se borra la caché después de confirmar, para que una lectura concurrente no vuelva a guardar los datos
+                //anteriores
                 deleteUserCache(user);
                 //Se borra el cache de las recetas asociadas al usuario
                 List<Recipe> list = user.getUserRecipes();
                 for (Recipe recipe : list) {
                     deleteRecipeCache(recipe);
                 }
-                updateUser.setId(user.getId());
-                updateUser.update();
-                Ebean.commitTransaction();
-            } finally {
-                Ebean.endTransaction();
+                apiKeyIndex.update(user.getId(), updateUser.getNick(), updateUser.getAdmin());
+                versions.bump(USERS, RECIPES);
+                return ok(messages.at("user.updated"));
             }
-            return ok(messages.at("user.updated"));
-        }
-        return Results.status(401, messages.at("user.authorization"));
-
+            return Results.status(401, messages.at("user.authorization"));
+        });
     }
 
     /**
@@ -435,51 +465,55 @@ public class UserController extends Controller {
      * @return Indica si se ha realizado correctamente o no la operación
      */
     @Security.Authenticated(Authorization.class)
-    public Result toggleAdmin(Long id_user) {
-
-        messages = Http.Context.current().messages();
+    public CompletionStage<Result> toggleAdmin(Long id_user) {
+        return dbContext.supply(() -> {
+            messages = Http.Context.current().messages();
 
-        //Obtenemos el usuario de la cabecera Authorization
-        User loggedUser = (User) Http.Context.current().args.get("loggedUser");
+            //Obtenemos el usuario de la cabecera Authorization
+            User loggedUser = (User) Http.Context.current().args.get("loggedUser");
 
-        //Si no es administrador no tiene permiso
-        if (!loggedUser.getAdmin()) {
-            return Results.status(401, messages.at("user.authorization"));
-        }
+            //Si no es administrador no tiene permiso
+            if (!loggedUser.getAdmin()) {
+                return Results.status(401, messages.at("user.authorization"));
+            }
 
-        //Obtenemos el usuario que va a ser o dejar de ser Administrador
-        User userToAdmin = User.findById(id_user);
-        if (userToAdmin == null) {
-            return Results.notFound(messages.at("user.wrongId"));
-        }
+            //Obtenemos el usuario que va a ser o dejar de ser Administrador
+            User userToAdmin = User.findById(id_user);
+            if (userToAdmin == null) {
+                return Results.notFound(messages.at("user.wrongId"));
+            }
 
-        //Si el usuario elegido ya es administrador
-        if (userToAdmin.getAdmin()) {
-            //Si sólo hay un Administrador no se puede quitar
-            if (User.findByAdmin(0).getTotalCount() > 1) {
+            //Si el usuario elegido ya es administrador
+            if (userToAdmin.getAdmin()) {
+                //Si sólo hay un Administrador no se puede quitar
+                if (User.findByAdmin(0).getTotalCount() > 1) {
+                    Ebean.beginTransaction();
+                    try {
+                        userToAdmin.setAdmin(false);     //Deja de ser Administrador
+                        userToAdmin.update();           //Se guarda en la base de datos
+                        Ebean.commitTransaction();
+                    } finally {
+                        Ebean.endTransaction();
+                    }
+                    apiKeyIndex.update(userToAdmin.getId(), userToAdmin.getNick(), false);
+                    versions.bump(USERS);
+                    return ok(messages.at("user.setNoAdmin"));
+                }
+                return Results.status(401, messages.at("user.adminError"));
+            } else {
                 Ebean.beginTransaction();
                 try {
-                    userToAdmin.setAdmin(false);     //Deja de ser Administrador
+                    userToAdmin.setAdmin(true);     //Pasa a ser administrador
                     userToAdmin.update();           //Se guarda en la base de datos
                     Ebean.commitTransaction();
                 } finally {
                     Ebean.endTransaction();
                 }
-                return ok(messages.at("user.setNoAdmin"));
+                apiKeyIndex.update(userToAdmin.getId(), userToAdmin.getNick(), true);
+                versions.bump(USERS);
+                return ok(messages.at("user.setAdmin"));
             }
-            return Results.status(401, messages.at("user.adminError"));
-        } else {
-            Ebean.beginTransaction();
-            try {
-                userToAdmin.setAdmin(true);     //Pasa a ser administrador
-                userToAdmin.update();           //Se guarda en la base de datos
-                Ebean.commitTransaction();
-            } finally {
-                Ebean.endTransaction();
-            }
-            return ok(messages.at("user.setAdmin"));
-        }
-
+        });
     }
 
 
@@ -490,137 +524,219 @@ public class UserController extends Controller {
      * @return Indica si se ha realizado correctamente o no la operación
      */
     @Security.Authenticated(Authorization.class)
-    public Result deleteUser(Long id_user) {
-
-        messages = Http.Context.current().messages();
-        //Se obtiene el usuario que se quiere borrar
-        User user = User.findById(id_user);
-        //Aunque el usuario ya no exista, por idempotencia la respuesta debe ser correcta
-        if (user == null) {
-            return ok(messages.at("user.deleted"));
-        }
-
-        //Obtenemos el usuario de la cabecera Authorization
-        User loggedUser = (User) Http.Context.current().args.get("loggedUser");
+    public CompletionStage<Result> deleteUser(Long id_user) {
+        return dbContext.supply(() -> {
+            messages = Http.Context.current().messages();
+            //Se obtiene el usuario que se quiere borrar
+            User user = User.findById(id_user);
+            //Aunque el usuario ya no exista, por idempotencia la respuesta debe ser correcta
+            if (user == null) {
+                return ok(messages.at("user.deleted"));
+            }
 
-        /*Comprobamos que si se va a borrar el admin, haya al menos otro, de lo contrario no podrá borrarse
-        Si el que quiere borrar al administrador no es administrador, saltará el error de autorización y no éste*/
-        if (user.getAdmin() && loggedUser.getAdmin() && User.findByAdmin(0).getTotalCount() == 1) {
-            return Results.status(401, messages.at("user.adminError"));
-        }
+            //Obtenemos el usuario de la cabecera Authorization
+            User loggedUser = (User) Http.Context.current().args.get("loggedUser");
 
-        //Si la petición la realiza el propio usuario que se va a borrar, o un administrador
-        if (user.getId() == loggedUser.getId() || loggedUser.getAdmin()) {
-            if (user.delete()) {
-                deleteUserCache(user);
-                return ok(messages.at("user.deleted"));
+            /*Comprobamos que si se va a borrar el admin, haya al menos otro, de lo contrario no podrá borrarse
+            Si el que quiere borrar al administrador no es administrador, saltará el error de autorización y no éste*/
+            if (user.getAdmin() && loggedUser.getAdmin() && User.findByAdmin(0).getTotalCount() == 1) {
+                return Results.status(401, messages.at("user.adminError"));
             }
-            return Results.internalServerError(messages.at("user.deletedFailed"));
-        }
-        return Results.status(401, messages.at("user.authorization"));
 
+            //Si la petición la realiza el propio usuario que se va a borrar, o un administrador
+            if (user.getId() == loggedUser.getId() || loggedUser.getAdmin()) {
+                //Si el cliente indica la versión que modifica, tiene que ser la actual
+                if (!ETags.matches(request(), user)) {
+                    return Results.status(412, new ErrorObject("9", messages.at("modified")).convertToJson()).as("application/json");
+                }
+                //Las recetas del usuario se borran en cascada
+                List<Long> recipeIds = new ArrayList<>();
+                List<String> titles = new ArrayList<>();
+                for (Recipe recipe : user.getUserRecipes()) {
+                    recipeIds.add(recipe.getId());
+                    titles.add(recipe.getTitle());
+                }
+                if (user.delete()) {
+                    //Las recetas borradas en cascada no pueden seguir encontrándose por su título
+                    for (String title : titles) {
+                        cache.remove(cache.key(RECIPE_BY_TITLE, title));
+                    }
+                    apiKeyIndex.remove(user.getId());
+                    searchIndex.removeAll(recipeIds);
+                    existingIds.remove(USERS, user.getId());
+                    existingIds.removeAll(RECIPES, recipeIds);
+                    deleteUserCache(user);
+                    versions.bump(USERS, RECIPES);
+                    return ok(messages.at("user.deleted"));
+                }
+                return Results.internalServerError(messages.at("user.deletedFailed"));
+            }
+            return Results.status(401, messages.at("user.authorization"));
+        });
     }
 
 
     /**
-     * Método para obtener un listado de los usuarios
+     * Método que exporta todos los usuarios. La respuesta se envía por partes, en JSON con un usuario por línea o en XML,
+     * leyendo la base de datos a medida que el cliente recibe los datos.
      *
-     * @return Indica si se ha realizado correctamente o no la operación
+     * @return Respuesta con todos los usuarios
      */
-    public Result retrieveUserCollection() {
+    public Result exportUsers() {
 
         messages = Http.Context.current().messages();
 
-        //Obtenemos la página
-        String pageString = request().getQueryString("page");
-        if (pageString == null) {
-            return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
+        if (request().accepts(Export.NDJSON) || request().accepts("application/json")) {
+            return ok().chunked(Export.ndjson(User::findBatchAfter, dbContext)).as(Export.NDJSON);
+        } else if (request().accepts("application/xml")) {
+            return ok().chunked(Export.xml("users", User::findBatchAfter, user -> XmlWriter.userElement(UserView.of(user)), dbContext))
+                    .as(XmlWriter.XML);
         }
-        Integer page = Integer.parseInt(pageString);
+        return Results.status(415, messages.at("wrongOutputFormat"));
+    }
 
-        //Comprobamos si la lista está en caché
-        String key = "usersList-" + page;
-        PagedList<User> list = cache.get(key);
-        //Si no lo tenemos en caché, lo buscamos y lo guardamos
-        if (list == null) {
-            list = User.findAll(page);
-            cache.set(key, list, 60 * 2);
-        }
-        List<User> usersList = list.getList();
-        Integer number = list.getTotalCount();
+    /**
+     * Método para obtener un listado de los usuarios
+     *
+     * @return Indica si se ha realizado correctamente o no la operación
+     */
+    public CompletionStage<Result> retrieveUserCollection() {
+        return dbContext.supplyCached(() -> {
+            messages = Http.Context.current().messages();
+
+            //Campos que se muestran de cada elemento, que son los únicos que se consultan
+            FieldSet fields = FieldSet.parse(request().getQueryString(FieldSet.PARAM), UserView.FIELDS);
+            if (fields == null) {
+                return Results.badRequest(messages.at("fields.unknown"));
+            }
 
-        //Si la lista está vacía
-        if (usersList.isEmpty()) {
-            return Results.notFound(messages.at("user.listEmpty"));
-        }
+            //Si se indica un cursor, se pagina por identificador en lugar de por número de página
+            String after = request().getQueryString(Cursor.AFTER_PARAM);
+            if (after != null) {
+                return retrieveUserCollectionAfter(after, fields);
+            }
 
-        //Si la lista tiene usuarios
-        if (request().accepts("application/xml")) {
-            return ok(views.xml.users.render(usersList)).withHeader("X-Count", number.toString());
-        } else if (request().accepts("application/json")) {
-            //Buscamos la respuesta en caché
-            key = "usersList-" + page + "-json";
-            JsonNode json = cache.get(key);
-            //Si no está, la creamos y la guardamos en caché
-            if (json == null) {
-                json = Json.toJson(usersList);
-                cache.set(key, json, 60 * 2);
+            //Obtenemos la página
+            String pageString = request().getQueryString("page");
+            if (pageString == null) {
+                return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
+            }
+            Integer page = Integer.parseInt(pageString);
+
+            //Comprobamos si la lista está en caché
+            CacheKey key = cache.key(USER_LIST, page, fields.key());
+            //Si no lo tenemos en caché, lo buscamos y lo guardamos
+            PageView<UserView> list = cache.getOrLoad(key, () -> PageView.of(User.findAll(page, fields), rows -> UserView.of(rows, fields)));
+            List<UserView> usersList = list.getList();
+            Integer number = list.getTotalCount();
+
+            //Si la lista está vacía
+            if (usersList.isEmpty()) {
+                return Results.notFound(messages.at("user.listEmpty"));
             }
-            return ok(Json.prettyPrint(json)).withHeader("X-Count", number.toString());
-        }
-        return Results.status(415, messages.at("wrongOutputFormat"));
 
+            //Si la lista tiene usuarios
+            if (request().accepts("application/xml")) {
+                CacheKey xmlKey = key.xml();
+                return ETags.cached(request(), ETags.weak(xmlKey, request()),
+                        () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.users(usersList, fields)))).withHeader("X-Count", number.toString());
+            } else if (request().accepts("application/json")) {
+                //Buscamos la respuesta en caché
+                CacheKey jsonKey = key.json();
+                //Si no está, la creamos y la guardamos en caché
+                return ETags.cached(request(), ETags.weak(jsonKey, request()),
+                        () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(fields.retain(Json.toJson(usersList))))).withHeader("X-Count", number.toString());
+            }
+            return Results.status(415, messages.at("wrongOutputFormat"));
+        });
     }
 
 
     /**
-     * Método para obtener un listado de los administradores
+     * Método para obtener un listado de los usuarios paginado por cursor. El total sólo se calcula si se solicita con el
+     * parámetro count.
      *
+     * @param after  Cursor recibido en la cabecera X-Next-Cursor de la página anterior
+     * @param fields Campos que se muestran de cada elemento
      * @return Indica si se ha realizado correctamente o no la operación
      */
-    public Result retrieveAdmin() {
+    private Result retrieveUserCollectionAfter(String after, FieldSet fields) {
 
-        messages = Http.Context.current().messages();
-
-        //Obtenemos la página
-        String pageString = request().getQueryString("page");
-        if (pageString == null) {
-            return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
+        Long lastId = Cursor.decode(after);
+        if (lastId == null) {
+            return Results.badRequest(messages.at("page.wrongCursor"));
         }
-        Integer page = Integer.parseInt(pageString);
 
         //Comprobamos si la lista está en caché
-        String key = "adminList-" + page;
-        PagedList<User> list = cache.get(key);
+        CacheKey key = cache.key(USER_LIST_AFTER, lastId, fields.key());
         //Si no lo tenemos en caché, lo buscamos y lo guardamos
-        if (list == null) {
-            list = User.findByAdmin(page);
-            cache.set(key, list, 60 * 2);
-        }
-        List<User> usersList = list.getList();
-        Integer number = list.getTotalCount();
+        List<UserView> usersList = cache.getOrLoad(key, () -> UserView.of(User.findAllAfter(lastId, fields), fields));
 
         //Si la lista está vacía
         if (usersList.isEmpty()) {
             return Results.notFound(messages.at("user.listEmpty"));
         }
 
-        //Si la lista tiene usuarios
+        Result result;
         if (request().accepts("application/xml")) {
-            return ok(views.xml.users.render(usersList)).withHeader("X-Count", number.toString());
+            CacheKey xmlKey = key.xml();
+            result = ETags.cached(request(), ETags.weak(xmlKey, request()),
+                    () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.users(usersList, fields))));
         } else if (request().accepts("application/json")) {
             //Buscamos la respuesta en caché
-            key = "adminList-" + page + "-json";
-            JsonNode json = cache.get(key);
+            CacheKey jsonKey = key.json();
             //Si no está, la creamos y la guardamos en caché
-            if (json == null) {
-                json = Json.toJson(usersList);
-                cache.set(key, json, 60 * 2);
-            }
-            return ok(Json.prettyPrint(json)).withHeader("X-Count", number.toString());
+            result = ETags.cached(request(), ETags.weak(jsonKey, request()),
+                    () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(fields.retain(Json.toJson(usersList)))));
+        } else {
+            return Results.status(415, messages.at("wrongOutputFormat"));
         }
-        return Results.status(415, messages.at("wrongOutputFormat"));
+        return Cursor.withHeaders(result, usersList, User.PAGE_SIZE, User::count);
+    }
+
+
+    /**
+     * Método para obtener un listado de los administradores
+     *
+     * @return Indica si se ha realizado correctamente o no la operación
+     */
+    public CompletionStage<Result> retrieveAdmin() {
+        return dbContext.supplyCached(() -> {
+            messages = Http.Context.current().messages();
+
+            //Obtenemos la página
+            String pageString = request().getQueryString("page");
+            if (pageString == null) {
+                return Results.status(409, new ErrorObject("5", messages.at("page.null")).convertToJson()).as("application/json");
+            }
+            Integer page = Integer.parseInt(pageString);
+
+            //Comprobamos si la lista está en caché
+            CacheKey key = cache.key(ADMIN_LIST, page);
+            //Si no lo tenemos en caché, lo buscamos y lo guardamos
+            PageView<UserView> list = cache.getOrLoad(key, () -> PageView.of(User.findByAdmin(page), UserView::of));
+            List<UserView> usersList = list.getList();
+            Integer number = list.getTotalCount();
+
+            //Si la lista está vacía
+            if (usersList.isEmpty()) {
+                return Results.notFound(messages.at("user.listEmpty"));
+            }
 
+            //Si la lista tiene usuarios
+            if (request().accepts("application/xml")) {
+                CacheKey xmlKey = key.xml();
+                return ETags.cached(request(), ETags.weak(xmlKey, request()),
+                        () -> cache.getOrLoad(xmlKey, () -> CachedBody.xml(XmlWriter.users(usersList)))).withHeader("X-Count", number.toString());
+            } else if (request().accepts("application/json")) {
+                //Buscamos la respuesta en caché
+                CacheKey jsonKey = key.json();
+                //Si no está, la creamos y la guardamos en caché
+                return ETags.cached(request(), ETags.weak(jsonKey, request()),
+                        () -> cache.getOrLoad(jsonKey, () -> CachedBody.json(Json.toJson(usersList)))).withHeader("X-Count", number.toString());
+            }
+            return Results.status(415, messages.at("wrongOutputFormat"));
+        });
     }
 
     /**
@@ -629,15 +745,9 @@ public class UserController extends Controller {
      * @param user usuario del que se quiere borrar el caché
      */
     public void deleteUserCache(User user) {
-        String key = "user-" + user.getId();
-        cache.remove(key);
-        key = "user-" + user.getNick();
-        cache.remove(key);
-        //Se borran la caché de las respuestas
-        key = "user-" + user.getId() + "-json";
-        cache.remove(key);
-        key = "user-" + user.getNick() + "-json";
-        cache.remove(key);
+        //Se borran también las respuestas JSON
+        cache.remove(cache.key(USER, user.getId()));
+        cache.remove(cache.key(USER_BY_NICK, user.getNick()));
     }
 
     /**
@@ -646,10 +756,8 @@ public class UserController extends Controller {
      * @param recipe receta de la que se quiere borrar el caché
      */
     public void deleteRecipeCache(Recipe recipe) {
-        String key = "recipe-" + recipe.getId();
-        cache.remove(key);
-        key = "recipe-" + recipe.getId() + "-json";
-        cache.remove(key);
+        cache.remove(cache.key(RECIPE, recipe.getId()));
+        cache.remove(cache.key(RECIPE_BY_TITLE, recipe.getTitle()));
     }
 
 
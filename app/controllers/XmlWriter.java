@@ -0,0 +1,333 @@
+package controllers;
+
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import models.CategoryView;
+import models.FieldSet;
+import models.IngredientView;
+import models.RecipeView;
+import models.UserView;
+
+/**
+ * Clase que serializa las vistas de los modelos en XML con StAX. Los documentos se escriben directamente en bytes UTF-8,
+ * sin construir antes el texto completo, y se guardan en caché como las respuestas JSON. El esquema es el de las
+ * antiguas plantillas Twirl: recipes, users y categories como elementos raíz de los listados, y recipe, user y category
+ * como elementos de cada modelo.
+ *
+ * @author MIMO
+ */
+public final class XmlWriter {
+
+    /**
+     * Tipo de contenido de las respuestas XML
+     */
+    public static final String XML = "application/xml; charset=utf-8";
+
+    /**
+     * Declaración con la que empiezan los documentos
+     */
+    public static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+    /**
+     * Factoría de los escritores de StAX, que puede compartirse entre hilos una vez configurada
+     */
+    private static final XMLOutputFactory FACTORY = XMLOutputFactory.newFactory();
+
+    private XmlWriter() {
+    }
+
+    /**
+     * Escritura de un elemento
+     *
+     * @param <T> Tipo del elemento
+     */
+    @FunctionalInterface
+    private interface Element<T> {
+        void write(XMLStreamWriter out, T value) throws XMLStreamException;
+    }
+
+    /**
+     * Método que serializa una receta
+     *
+     * @param recipe La receta
+     * @return El documento XML
+     */
+    public static ByteString recipe(RecipeView recipe) {
+        return document(null, recipe, (out, value) -> writeRecipe(out, value, FieldSet.ALL));
+    }
+
+    /**
+     * Método que serializa un listado de recetas
+     *
+     * @param recipes Las recetas
+     * @return El documento XML
+     */
+    public static ByteString recipes(List<RecipeView> recipes) {
+        return recipes(recipes, FieldSet.ALL);
+    }
+
+    /**
+     * Método que serializa un listado de recetas con sólo los campos solicitados
+     *
+     * @param recipes Las recetas
+     * @param fields  Campos solicitados
+     * @return El documento XML
+     */
+    public static ByteString recipes(List<RecipeView> recipes, FieldSet fields) {
+        return document("recipes", recipes, (out, list) -> {
+            for (RecipeView recipe : list) {
+                writeRecipe(out, recipe, fields);
+            }
+        });
+    }
+
+    /**
+     * Método que serializa una receta sin la declaración, para las exportaciones
+     *
+     * @param recipe La receta
+     * @return El elemento recipe
+     */
+    public static ByteString recipeElement(RecipeView recipe) {
+        return fragment(recipe, (out, value) -> writeRecipe(out, value, FieldSet.ALL));
+    }
+
+    /**
+     * Método que serializa un usuario
+     *
+     * @param user El usuario
+     * @return El documento XML
+     */
+    public static ByteString user(UserView user) {
+        return document(null, user, (out, value) -> writeUser(out, value, FieldSet.ALL));
+    }
+
+    /**
+     * Método que serializa un listado de usuarios
+     *
+     * @param users Los usuarios
+     * @return El documento XML
+     */
+    public static ByteString users(List<UserView> users) {
+        return users(users, FieldSet.ALL);
+    }
+
+    /**
+     * Método que serializa un listado de usuarios con sólo los campos solicitados
+     *
+     * @param users  Los usuarios
+     * @param fields Campos solicitados
+     * @return El documento XML
+     */
+    public static ByteString users(List<UserView> users, FieldSet fields) {
+        return document("users", users, (out, list) -> {
+            for (UserView user : list) {
+                writeUser(out, user, fields);
+            }
+        });
+    }
+
+    /**
+     * Método que serializa un usuario sin la declaración, para las exportaciones
+     *
+     * @param user El usuario
+     * @return El elemento user
+     */
+    public static ByteString userElement(UserView user) {
+        return fragment(user, (out, value) -> writeUser(out, value, FieldSet.ALL));
+    }
+
+    /**
+     * Método que serializa una categoría
+     *
+     * @param category La categoría
+     * @return El documento XML
+     */
+    public static ByteString category(CategoryView category) {
+        return document(null, category, (out, value) -> writeCategory(out, value, FieldSet.ALL));
+    }
+
+    /**
+     * Método que serializa un listado de categorías
+     *
+     * @param categories Las categorías
+     * @return El documento XML
+     */
+    public static ByteString categories(List<CategoryView> categories) {
+        return categories(categories, FieldSet.ALL);
+    }
+
+    /**
+     * Método que serializa un listado de categorías con sólo los campos solicitados
+     *
+     * @param categories Las categorías
+     * @param fields     Campos solicitados
+     * @return El documento XML
+     */
+    public static ByteString categories(List<CategoryView> categories, FieldSet fields) {
+        return document("categories", categories, (out, list) -> {
+            for (CategoryView category : list) {
+                writeCategory(out, category, fields);
+            }
+        });
+    }
+
+    /**
+     * Método que escribe un documento completo
+     *
+     * @param root    Elemento raíz que envuelve al contenido, o null si el contenido ya es el elemento raíz
+     * @param value   Contenido del documento
+     * @param element Escritura del contenido
+     * @param <T>     Tipo del contenido
+     * @return El documento en UTF-8
+     */
+    private static <T> ByteString document(String root, T value, Element<T> element) {
+        ByteStringBuilder bytes = new ByteStringBuilder();
+        try {
+            XMLStreamWriter out = writer(bytes.asOutputStream());
+            out.writeStartDocument("UTF-8", "1.0");
+            if (root != null) {
+                out.writeStartElement(root);
+            }
+            element.write(out, value);
+            if (root != null) {
+                out.writeEndElement();
+            }
+            out.writeEndDocument();
+            out.close();
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.result();
+    }
+
+    /**
+     * Método que escribe un elemento suelto, sin declaración
+     *
+     * @param value   El elemento
+     * @param element Escritura del elemento
+     * @param <T>     Tipo del elemento
+     * @return El elemento en UTF-8
+     */
+    private static <T> ByteString fragment(T value, Element<T> element) {
+        ByteStringBuilder bytes = new ByteStringBuilder();
+        try {
+            XMLStreamWriter out = writer(bytes.asOutputStream());
+            element.write(out, value);
+            out.writeCharacters("\n");
+            out.close();
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.result();
+    }
+
+    private static XMLStreamWriter writer(OutputStream stream) throws XMLStreamException {
+        return FACTORY.createXMLStreamWriter(stream, "UTF-8");
+    }
+
+    private static void writeRecipe(XMLStreamWriter out, RecipeView recipe, FieldSet fields) throws XMLStreamException {
+        out.writeStartElement("recipe");
+        if (fields.has("id")) {
+            text(out, "recipeId", recipe.getId());
+        }
+        if (fields.has("title")) {
+            text(out, "title", recipe.getTitle());
+        }
+        if (fields.has("ingredients")) {
+            out.writeStartElement("ingredients");
+            if (recipe.getIngredients() != null) {
+                for (IngredientView ingredient : recipe.getIngredients()) {
+                    writeIngredient(out, ingredient);
+                }
+            }
+            out.writeEndElement();
+        }
+        if (fields.has("steps")) {
+            text(out, "steps", recipe.getSteps());
+        }
+        if (fields.has("time")) {
+            text(out, "time", recipe.getTime());
+        }
+        if (fields.has("difficulty")) {
+            text(out, "difficulty", recipe.getDifficulty());
+        }
+        if (fields.has("serving")) {
+            text(out, "serving", recipe.getServing());
+        }
+        if (fields.has("category") && recipe.getCategory() != null) {
+            writeCategory(out, recipe.getCategory(), FieldSet.ALL);
+        }
+        //Los datos del autor van directamente dentro de la receta
+        if (fields.has("user")) {
+            UserView user = recipe.getUser();
+            text(out, "userId", user == null ? null : user.getId());
+            text(out, "nick", user == null ? null : user.getNick());
+            text(out, "name", user == null ? null : user.getName());
+            text(out, "surname", user == null ? null : user.getSurname());
+            text(out, "city", user == null ? null : user.getCity());
+        }
+        out.writeEndElement();
+    }
+
+    private static void writeIngredient(XMLStreamWriter out, IngredientView ingredient) throws XMLStreamException {
+        out.writeStartElement("ingredient");
+        text(out, "id", ingredient.getId());
+        text(out, "name", ingredient.getIngredientName());
+        text(out, "units", ingredient.getUnits());
+        out.writeEndElement();
+    }
+
+    private static void writeCategory(XMLStreamWriter out, CategoryView category, FieldSet fields)
+            throws XMLStreamException {
+        out.writeStartElement("category");
+        if (fields.has("id")) {
+            text(out, "id", category.getId());
+        }
+        if (fields.has("categoryName")) {
+            text(out, "name", category.getCategoryName());
+        }
+        out.writeEndElement();
+    }
+
+    private static void writeUser(XMLStreamWriter out, UserView user, FieldSet fields) throws XMLStreamException {
+        out.writeStartElement("user");
+        if (fields.has("id")) {
+            text(out, "id_user", user.getId());
+        }
+        if (fields.has("nick")) {
+            text(out, "nick", user.getNick());
+        }
+        if (fields.has("name")) {
+            text(out, "name", user.getName());
+        }
+        if (fields.has("surname")) {
+            text(out, "surname", user.getSurname());
+        }
+        if (fields.has("city")) {
+            text(out, "city", user.getCity());
+        }
+        out.writeEndElement();
+    }
+
+    /**
+     * Método que escribe un elemento con texto. Los valores nulos se escriben como elementos vacíos.
+     *
+     * @param out   El documento
+     * @param name  Nombre del elemento
+     * @param value Valor del elemento
+     */
+    private static void text(XMLStreamWriter out, String name, Object value) throws XMLStreamException {
+        out.writeStartElement(name);
+        if (value != null) {
+            out.writeCharacters(value.toString());
+        }
+        out.writeEndElement();
+    }
+}
@@ -0,0 +1,82 @@
+package filters;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import play.api.routing.HandlerDef;
+import play.mvc.EssentialAction;
+import play.mvc.EssentialFilter;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.routing.Router;
+import services.Metrics;
+
+/**
+ * Filtro que mide cada petición y la registra en las métricas con la ruta de conf/routes que la ha atendido, de modo que
+ * todas las peticiones a /recipe/:id comparten las mismas métricas. La latencia se mide hasta que la respuesta está
+ * lista; en las respuestas por partes no incluye el envío del cuerpo.
+ */
+@Singleton
+public class MetricsFilter extends EssentialFilter {
+
+    /**
+     * Parámetros de los patrones de ruta de Play, que se escriben como en conf/routes
+     */
+    private static final Pattern PARAMETER = Pattern.compile("\\$([^<]+)<[^>]+>");
+
+    /**
+     * Ruta de las peticiones que no corresponden a ninguna ruta
+     */
+    private static final String UNMATCHED = "unmatched";
+
+    private final Executor exec;
+
+    private final Metrics metrics;
+
+    /**
+     * @param exec    Contexto en el que se registra el resultado de cada petición
+     * @param metrics Métricas del API
+     */
+    @Inject
+    public MetricsFilter(Executor exec, Metrics metrics) {
+        this.exec = exec;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public EssentialAction apply(EssentialAction next) {
+        return EssentialAction.of(request -> {
+            long start = System.nanoTime();
+            return next.apply(request).map(result -> {
+                record(request, result.status(), start);
+                return result;
+            }, exec).recoverWith(error -> {
+                record(request, Http.Status.INTERNAL_SERVER_ERROR, start);
+                CompletableFuture<Result> failed = new CompletableFuture<>();
+                failed.completeExceptionally(error);
+                return failed;
+            }, exec);
+        });
+    }
+
+    /**
+     * Método que registra una petición con su ruta
+     *
+     * @param request La petición
+     * @param status  Código de estado de la respuesta
+     * @param start   Instante de llegada de la petición en nanosegundos
+     */
+    private void record(Http.RequestHeader request, int status, long start) {
+        long elapsed = System.nanoTime() - start;
+        HandlerDef route = request.attrs().getOptional(Router.Attrs.HANDLER_DEF).orElse(null);
+        if (route == null) {
+            metrics.record(request.method(), UNMATCHED, status, elapsed);
+        } else {
+            metrics.record(route.verb(), PARAMETER.matcher(route.path()).replaceAll(":$1"), status, elapsed);
+        }
+    }
+}
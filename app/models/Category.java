@@ -11,6 +11,7 @@ import org.hibernate.validator.constraints.NotBlank;
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
 
+import io.ebean.DuplicateKeyException;
 import io.ebean.Ebean;
 import io.ebean.Finder;
 import io.ebean.PagedList;
@@ -29,6 +30,11 @@ public class Category extends BaseModel{
 	 */
 	public static final Finder<Long, Category> find = new Finder<>(Category.class);
 
+	/**
+	 * Número de categorías por página
+	 */
+	public static final int PAGE_SIZE = 10;
+
 	/**
 	 * Nombre de la categoría de receta
 	 */
@@ -77,35 +83,55 @@ public class Category extends BaseModel{
 	/**
 	 * Método que muestra las categorías existentes de forma paginada
 	 * @param page Número de página que se desea ver
+	 * @param fields Campos que se van a mostrar, que son las únicas columnas que se consultan
 	 * @return Devuelve una lista con las categorías
 	 */
-	public static PagedList<Category> findPage(Integer page){
+	public static PagedList<Category> findPage(Integer page, FieldSet fields){
 		
-		return find.query().setMaxRows(10).setFirstRow(10*page).findPagedList();
+		return find.query().select(fields.select("categoryName")).setMaxRows(PAGE_SIZE).setFirstRow(PAGE_SIZE*page).findPagedList();
 	}
 	
 	/**
-	 * Método que comprueba si una categoría está repetida
+	 * Método que muestra las categorías siguientes a un cursor, buscando por identificador
+	 * @param after Identificador de la última categoría de la página anterior
+	 * @param fields Campos que se van a mostrar, que son las únicas columnas que se consultan
+	 * @return Devuelve una lista con las categorías ordenadas por identificador
+	 */
+	public static List<Category> findPageAfter(Long after, FieldSet fields){
+		
+		return find.query().select(fields.select("categoryName")).where().gt("id", after).orderBy("id").setMaxRows(PAGE_SIZE).findList();
+	}
+	
+	/**
+	 * Método que cuenta las categorías existentes
+	 * @return Número de categorías
+	 */
+	public static int count() {
+		
+		return find.query().findCount();
+	}
+	
+	/**
+	 * Método que guarda la categoría si no está repetida. No se busca antes: el índice único del nombre rechaza la
+	 * inserción de una categoría repetida.
 	 * @return Verdadero si está repetida y falso en caso contrario
 	 */
 	public boolean checkCategory() {
 		
-		if(Category.findByCategoryName(this.categoryName.toUpperCase()) == null) {
-			
-			this.categoryName = this.categoryName.toUpperCase();
-			
-			Ebean.beginTransaction();
-			try {
-				this.save();
-				Ebean.commitTransaction();
-			}
-			finally {
-				Ebean.endTransaction();
-			}
-			return false;
-		}
+		this.categoryName = this.categoryName.toUpperCase();
 		
-		return true;
+		Ebean.beginTransaction();
+		try {
+			this.save();
+			Ebean.commitTransaction();
+		}
+		catch (DuplicateKeyException e) {
+			return true;
+		}
+		finally {
+			Ebean.endTransaction();
+		}
+		return false;
 	}
 
 	/**
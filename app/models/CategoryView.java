@@ -0,0 +1,109 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Vista inmutable de una categoría de recetas, que es lo que se guarda en caché y se muestra en JSON y XML.
+ *
+ * @author MIMO
+ */
+public final class CategoryView extends EntityView {
+
+    /**
+     * Orden alfabético por nombre
+     */
+    public static final Comparator<CategoryView> BY_NAME = Comparator.comparing(CategoryView::getCategoryName);
+
+    /**
+     * Campos de la categoría que pueden solicitarse en los listados
+     */
+    public static final List<String> FIELDS = FieldSet.fields("id", "categoryName");
+
+    /**
+     * Nombre de la categoría
+     */
+    private final String categoryName;
+
+    /**
+     * Constructor de CategoryView
+     *
+     * @param category La categoría
+     */
+    private CategoryView(Category category) {
+        super(category);
+        this.categoryName = category.getCategoryName();
+    }
+
+    /**
+     * Constructor de CategoryView a partir de una categoría cargada sólo con los campos solicitados
+     *
+     * @param category La categoría
+     * @param fields   Campos solicitados
+     */
+    private CategoryView(Category category, FieldSet fields) {
+        super(category, fields);
+        this.categoryName = fields.has("categoryName") ? category.getCategoryName() : null;
+    }
+
+    /**
+     * Método que crea la vista de una categoría
+     *
+     * @param category La categoría
+     * @return La vista o null si la categoría es null
+     */
+    public static CategoryView of(Category category) {
+        return category == null ? null : new CategoryView(category);
+    }
+
+    /**
+     * Método que crea las vistas de una lista de categorías
+     *
+     * @param categories Las categorías
+     * @return Lista inmutable con las vistas en el mismo orden
+     */
+    public static List<CategoryView> of(List<Category> categories) {
+        List<CategoryView> views = new ArrayList<>(categories.size());
+        for (Category category : categories) {
+            views.add(new CategoryView(category));
+        }
+        return Collections.unmodifiableList(views);
+    }
+
+    /**
+     * Método que crea la vista de una categoría cargada sólo con los campos solicitados
+     *
+     * @param category La categoría
+     * @param fields   Campos solicitados
+     * @return La vista o null si la categoría es null
+     */
+    public static CategoryView of(Category category, FieldSet fields) {
+        return category == null ? null : new CategoryView(category, fields);
+    }
+
+    /**
+     * Método que crea las vistas de una lista de categorías cargadas sólo con los campos solicitados
+     *
+     * @param categories Las categorías
+     * @param fields     Campos solicitados
+     * @return Lista inmutable con las vistas en el mismo orden
+     */
+    public static List<CategoryView> of(List<Category> categories, FieldSet fields) {
+        List<CategoryView> views = new ArrayList<>(categories.size());
+        for (Category category : categories) {
+            views.add(new CategoryView(category, fields));
+        }
+        return Collections.unmodifiableList(views);
+    }
+
+    /**
+     * Getter de categoryName
+     *
+     * @return Nombre de la categoría
+     */
+    public String getCategoryName() {
+        return categoryName;
+    }
+}
@@ -0,0 +1,73 @@
+package models;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * Clase base de las vistas de solo lectura de los modelos. Una vista es una copia inmutable de los datos que se muestran
+ * de una entidad, sin el estado de persistencia de Ebean, por lo que puede guardarse en caché y compartirse entre
+ * peticiones y formatos sin que su serialización consulte la base de datos.
+ *
+ * @author MIMO
+ */
+public abstract class EntityView {
+
+    /**
+     * Identificador de la entidad
+     */
+    private final Long id;
+
+    /**
+     * Versión de la entidad, que cambia con cada actualización
+     */
+    private final Long version;
+
+    /**
+     * Constructor de EntityView
+     *
+     * @param model La entidad
+     */
+    protected EntityView(BaseModel model) {
+        this.id = model.getId();
+        this.version = model.getVersion();
+    }
+
+    /**
+     * Constructor de las vistas de los listados, que se consultan sólo con las columnas que se muestran. No leen la
+     * versión, porque no se ha cargado y leerla haría otra consulta.
+     *
+     * @param model La entidad cargada parcialmente
+     * @param fields Campos cargados
+     */
+    protected EntityView(BaseModel model, FieldSet fields) {
+        this.id = model.getId();
+        this.version = null;
+    }
+
+    /**
+     * Getter de id
+     *
+     * @return Identificador de la entidad
+     */
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * Getter de version
+     *
+     * @return Versión de la entidad
+     */
+    @JsonIgnore
+    public Long getVersion() {
+        return version;
+    }
+
+    /**
+     * Método que identifica el estado de la entidad que muestra la vista. Cambia con cada actualización de la entidad.
+     *
+     * @return El identificador y la versión separados por un guion
+     */
+    public String tag() {
+        return id + "-" + version;
+    }
+}
@@ -0,0 +1,152 @@
+package models;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Campos de un modelo que se solicitan en un listado con el parámetro fields, por ejemplo fields=id,title. Los
+ * listados sólo consultan en la base de datos las columnas y relaciones de los campos solicitados y sólo los muestran a
+ * ellos. Los nombres de los campos son los de la respuesta JSON.
+ *
+ * @author MIMO
+ */
+public final class FieldSet {
+
+    /**
+     * Parámetro de la petición con los campos
+     */
+    public static final String PARAM = "fields";
+
+    /**
+     * Todos los campos del modelo
+     */
+    public static final FieldSet ALL = new FieldSet(null);
+
+    /**
+     * Campos solicitados en orden alfabético, o null si se solicitan todos
+     */
+    private final Set<String> names;
+
+    /**
+     * Constructor de FieldSet
+     *
+     * @param names Campos solicitados o null para todos
+     */
+    private FieldSet(Set<String> names) {
+        this.names = names == null ? null : Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Método que lee el parámetro fields
+     *
+     * @param param   Valor del parámetro o null si no se ha indicado
+     * @param allowed Campos del modelo
+     * @return Los campos, ALL si no se ha indicado el parámetro o null si incluye algún campo que no existe
+     */
+    public static FieldSet parse(String param, List<String> allowed) {
+        if (param == null) {
+            return ALL;
+        }
+        Set<String> names = new TreeSet<>();
+        for (String name : param.split(",")) {
+            name = name.trim();
+            if (!allowed.contains(name)) {
+                return null;
+            }
+            names.add(name);
+        }
+        return names.containsAll(allowed) ? ALL : new FieldSet(names);
+    }
+
+    /**
+     * Método que indica si se ha solicitado un campo
+     *
+     * @param name Nombre del campo
+     * @return Verdadero si se ha solicitado
+     */
+    public boolean has(String name) {
+        return names == null || names.contains(name);
+    }
+
+    /**
+     * Método que devuelve los campos solicitados más otro campo, que se necesita para consultar el listado aunque no se
+     * muestre (por ejemplo el título, por el que se ordenan las recetas)
+     *
+     * @param name Nombre del campo
+     * @return Los campos
+     */
+    public FieldSet with(String name) {
+        if (has(name)) {
+            return this;
+        }
+        Set<String> more = new TreeSet<>(names);
+        more.add(name);
+        return new FieldSet(more);
+    }
+
+    /**
+     * Método que devuelve las propiedades de la consulta correspondientes a los campos solicitados
+     *
+     * @param columns Campos que son columnas de la tabla del modelo; el resto son relaciones
+     * @return Las propiedades separadas por comas, o id si no se ha solicitado ninguna columna
+     */
+    public String select(String... columns) {
+        StringBuilder select = new StringBuilder();
+        for (String column : columns) {
+            if (has(column)) {
+                select.append(select.length() == 0 ? "" : ",").append(column);
+            }
+        }
+        return select.length() == 0 ? "id" : select.toString();
+    }
+
+    /**
+     * Método que deja en un documento JSON sólo los campos solicitados. Si es un array, se aplica a cada elemento.
+     *
+     * @param json El documento
+     * @return El mismo documento
+     */
+    public JsonNode retain(JsonNode json) {
+        if (names == null) {
+            return json;
+        }
+        if (json.isArray()) {
+            for (JsonNode element : json) {
+                retain(element);
+            }
+        } else if (json.isObject()) {
+            ((ObjectNode) json).retain(names);
+        }
+        return json;
+    }
+
+    /**
+     * Parte de la clave de caché de los listados, que distingue los campos solicitados
+     *
+     * @return Los campos en orden alfabético separados por comas, o * si son todos
+     */
+    public String key() {
+        return names == null ? "*" : String.join(",", names);
+    }
+
+    @Override
+    public String toString() {
+        return key();
+    }
+
+    /**
+     * Método auxiliar para declarar los campos de un modelo
+     *
+     * @param names Nombres de los campos
+     * @return Lista inmutable con los campos
+     */
+    static List<String> fields(String... names) {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+}
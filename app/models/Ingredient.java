@@ -1,5 +1,12 @@
 package models;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.persistence.Entity;
@@ -9,7 +16,11 @@ import org.hibernate.validator.constraints.NotBlank;
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
 
+import io.ebean.Ebean;
 import io.ebean.Finder;
+import io.ebean.PersistBatch;
+import io.ebean.Transaction;
+import services.IngredientCache;
 import validators.FirstCapitalLetter;
 import validators.FirstWordFirstCapitalLetter;
 
@@ -70,6 +81,135 @@ public class Ingredient extends BaseModel {
 		return find.query().where().isNotNull("ingredientName").eq("ingredientName", name)
 				.and().isNotNull("units").eq("units", units).findOne();
 	}
+
+	/**
+	 * Método que obtiene los ingredientes guardados que corresponden a una lista de ingredientes. Los que no están en
+	 * la caché se buscan con una sola consulta y los que no existen se insertan en un único lote, por lo que el número de
+	 * sentencias no depende del número de ingredientes. Debe llamarse dentro de la transacción que guarda la receta.
+	 * Además transforma las unidades de los ingredientes en minúsculas y descarta los ingredientes repetidos.
+	 * @param ingredients Ingredientes recibidos en la petición
+	 * @param cache Caché de ingredientes de la aplicación
+	 * @return Los ingredientes de la base de datos en el mismo orden
+	 */
+	public static List<Ingredient> resolveAll(List<Ingredient> ingredients, IngredientCache cache) {
+
+		//Normalizamos las unidades y descartamos los ingredientes repetidos
+		Map<String, Ingredient> requested = new LinkedHashMap<>();
+		for (Ingredient ingredient : ingredients) {
+			ingredient.setUnits(ingredient.getUnits().toLowerCase());
+			requested.putIfAbsent(key(ingredient.getIngredientName(), ingredient.getUnits()), ingredient);
+		}
+
+		//Comprobamos primero la caché
+		Map<String, Ingredient> resolved = new HashMap<>();
+		Set<String> names = new HashSet<>();
+		Set<String> units = new HashSet<>();
+		for (Map.Entry<String, Ingredient> entry : requested.entrySet()) {
+			Ingredient ingredient = entry.getValue();
+			Long id = cache.get(ingredient.getIngredientName(), ingredient.getUnits());
+			if (id != null) {
+				resolved.put(entry.getKey(), reference(id, ingredient.getIngredientName(), ingredient.getUnits()));
+			} else {
+				names.add(ingredient.getIngredientName());
+				units.add(ingredient.getUnits());
+			}
+		}
+
+		//Buscamos el resto en una sola consulta. Puede devolver combinaciones que no se han pedido, que se descartan
+		if (!names.isEmpty()) {
+			for (Ingredient found : find.query().where().in("ingredientName", names).in("units", units).findList()) {
+				String key = key(found.getIngredientName(), found.getUnits());
+				if (requested.containsKey(key) && !resolved.containsKey(key)) {
+					resolved.put(key, found);
+					cache.put(found);
+				}
+			}
+		}
+
+		//Creamos los que no existen
+		List<Ingredient> result = new ArrayList<>(requested.size());
+		List<Ingredient> missing = new ArrayList<>();
+		for (Map.Entry<String, Ingredient> entry : requested.entrySet()) {
+			Ingredient ingredient = resolved.get(entry.getKey());
+			if (ingredient == null) {
+				ingredient = new Ingredient(entry.getValue().getIngredientName(), entry.getValue().getUnits());
+				missing.add(ingredient);
+			}
+			result.add(ingredient);
+		}
+		if (!missing.isEmpty()) {
+			Transaction transaction = Ebean.currentTransaction();
+			if (transaction != null) {
+				//El lote sólo incluye los ingredientes: se restaura el modo anterior para que la receta se guarde
+				//inmediatamente y un título repetido se detecte en su save()
+				PersistBatch previous = transaction.getBatch();
+				transaction.setBatch(PersistBatch.ALL);
+				try {
+					Ebean.saveAll(missing);
+					transaction.flushBatch();
+				} finally {
+					transaction.setBatch(previous);
+				}
+			} else {
+				Ebean.saveAll(missing);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Método que obtiene los ingredientes guardados de varias recetas a la vez, con una sola llamada a resolveAll, y
+	 * sustituye el contenido de cada lista por los ingredientes obtenidos, sin repetidos. Se usa en la importación de
+	 * recetas y debe llamarse dentro de la transacción que las guarda.
+	 * @param lists Listas de ingredientes de cada receta
+	 * @param cache Caché de ingredientes de la aplicación
+	 */
+	public static void resolveLists(Collection<List<Ingredient>> lists, IngredientCache cache) {
+
+		List<Ingredient> all = new ArrayList<>();
+		for (List<Ingredient> list : lists) {
+			all.addAll(list);
+		}
+		Map<String, Ingredient> resolved = new HashMap<>();
+		for (Ingredient ingredient : resolveAll(all, cache)) {
+			resolved.put(key(ingredient.getIngredientName(), ingredient.getUnits()), ingredient);
+		}
+		//resolveAll ya ha pasado las unidades a minúsculas, por lo que las claves coinciden
+		for (List<Ingredient> list : lists) {
+			Map<String, Ingredient> own = new LinkedHashMap<>();
+			for (Ingredient ingredient : list) {
+				String key = key(ingredient.getIngredientName(), ingredient.getUnits());
+				own.putIfAbsent(key, resolved.get(key));
+			}
+			list.clear();
+			list.addAll(own.values());
+		}
+	}
+
+	/**
+	 * Método que crea la clave que identifica un ingrediente por su nombre y sus unidades
+	 * @param name Nombre del ingrediente
+	 * @param units Unidades del ingrediente
+	 * @return La clave
+	 */
+	private static String key(String name, String units) {
+		return name + '\u0000' + units;
+	}
+
+	/**
+	 * Método que crea un ingrediente ya guardado a partir de los datos de la caché sin consultar la base de datos. Se
+	 * marca como cargado para que al guardar la receta sólo se use su id.
+	 * @param id Id del ingrediente
+	 * @param name Nombre del ingrediente
+	 * @param units Unidades del ingrediente
+	 * @return El ingrediente
+	 */
+	private static Ingredient reference(Long id, String name, String units) {
+		Ingredient ingredient = new Ingredient(name, units);
+		ingredient.setId(id);
+		Ebean.getBeanState(ingredient).setLoaded();
+		return ingredient;
+	}
 	
 	/**
 	 * Getter de ingredientName
@@ -0,0 +1,93 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Vista inmutable de un ingrediente de una receta.
+ *
+ * @author MIMO
+ */
+public final class IngredientView extends EntityView {
+
+    /**
+     * Nombre del ingrediente
+     */
+    private final String ingredientName;
+
+    /**
+     * Unidades del ingrediente
+     */
+    private final String units;
+
+    /**
+     * Constructor de IngredientView
+     *
+     * @param ingredient El ingrediente
+     */
+    private IngredientView(Ingredient ingredient) {
+        super(ingredient);
+        this.ingredientName = ingredient.getIngredientName();
+        this.units = ingredient.getUnits();
+    }
+
+    /**
+     * Constructor de IngredientView a partir de un ingrediente cargado sin su versión
+     *
+     * @param ingredient El ingrediente
+     * @param fields     Campos cargados
+     */
+    private IngredientView(Ingredient ingredient, FieldSet fields) {
+        super(ingredient, fields);
+        this.ingredientName = ingredient.getIngredientName();
+        this.units = ingredient.getUnits();
+    }
+
+    /**
+     * Método que crea las vistas de una lista de ingredientes
+     *
+     * @param ingredients Los ingredientes
+     * @return Lista inmutable con las vistas en el mismo orden
+     */
+    public static List<IngredientView> of(List<Ingredient> ingredients) {
+        List<IngredientView> views = new ArrayList<>(ingredients.size());
+        for (Ingredient ingredient : ingredients) {
+            views.add(new IngredientView(ingredient));
+        }
+        return Collections.unmodifiableList(views);
+    }
+
+    /**
+     * Método que crea las vistas de una lista de ingredientes cargados sólo con su nombre y sus unidades
+     *
+     * @param ingredients Los ingredientes
+     * @param fields      Campos cargados
+     * @return Lista inmutable con las vistas en el mismo orden
+     */
+    public static List<IngredientView> of(List<Ingredient> ingredients, FieldSet fields) {
+        List<IngredientView> views = new ArrayList<>(ingredients.size());
+        for (Ingredient ingredient : ingredients) {
+            views.add(new IngredientView(ingredient, fields));
+        }
+        return Collections.unmodifiableList(views);
+    }
+
+    /**
+     * Getter de ingredientName
+     *
+     * @return Nombre del ingrediente
+     */
+    public String getIngredientName() {
+        return ingredientName;
+    }
+
+    /**
+     * Getter de units
+     *
+     * @return Unidades del ingrediente
+     */
+    public String getUnits() {
+        return units;
+    }
+}
@@ -0,0 +1,83 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+import io.ebean.PagedList;
+
+/**
+ * Página de un listado ya resuelta: las vistas de sus elementos y el total de elementos del listado. A diferencia de
+ * PagedList, no guarda la consulta ni calcula el total al pedirlo, por lo que puede guardarse en caché.
+ *
+ * @param <T> Tipo de las vistas
+ * @author MIMO
+ */
+public final class PageView<T> {
+
+    /**
+     * Elementos de la página
+     */
+    private final List<T> list;
+
+    /**
+     * Número total de elementos del listado
+     */
+    private final int totalCount;
+
+    /**
+     * Constructor de PageView
+     *
+     * @param list       Elementos de la página
+     * @param totalCount Número total de elementos del listado
+     */
+    private PageView(List<T> list, int totalCount) {
+        this.list = list;
+        this.totalCount = totalCount;
+    }
+
+    /**
+     * Método que resuelve una página de Ebean: crea las vistas de sus elementos y consulta el total
+     *
+     * @param page La página
+     * @param view Creación de la vista de la lista de elementos
+     * @param <E>  Tipo de los elementos
+     * @param <T>  Tipo de las vistas
+     * @return La página resuelta
+     */
+    public static <E, T> PageView<T> of(PagedList<E> page, Function<List<E>, List<T>> view) {
+        return new PageView<>(view.apply(page.getList()), page.getTotalCount());
+    }
+
+    /**
+     * Método que devuelve una copia de la página con los elementos ordenados
+     *
+     * @param order El orden
+     * @return La página ordenada
+     */
+    public PageView<T> sorted(Comparator<? super T> order) {
+        List<T> sorted = new ArrayList<>(list);
+        sorted.sort(order);
+        return new PageView<>(Collections.unmodifiableList(sorted), totalCount);
+    }
+
+    /**
+     * Getter de list
+     *
+     * @return Elementos de la página
+     */
+    public List<T> getList() {
+        return list;
+    }
+
+    /**
+     * Getter de totalCount
+     *
+     * @return Número total de elementos del listado
+     */
+    public int getTotalCount() {
+        return totalCount;
+    }
+}
@@ -1,7 +1,9 @@
 package models;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.*;
 import javax.validation.Valid;
@@ -11,12 +13,16 @@ import org.hibernate.validator.constraints.NotBlank;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonManagedReference;
 
+import io.ebean.DuplicateKeyException;
 import io.ebean.Ebean;
+import io.ebean.FetchConfig;
 import io.ebean.Finder;
 import io.ebean.PagedList;
+import io.ebean.Query;
 import io.ebean.annotation.DbArray;
 import play.data.validation.Constraints.MaxLength;
 import play.data.validation.Constraints.Required;
+import services.IngredientCache;
 
 /**
  * Clase modelo que representa la tabla Recipe donde se almacenan las recetas del API.
@@ -32,6 +38,11 @@ public class Recipe extends BaseModel {
      */
     public static final Finder<Long, Recipe> find = new Finder<>(Recipe.class);
 
+    /**
+     * Número de recetas por página
+     */
+    public static final int PAGE_SIZE = 10;
+
     /**
      * Nombre de la receta
      */
@@ -124,7 +135,63 @@ public class Recipe extends BaseModel {
      */
     public static Recipe findById(Long id) {
 
-        return find.byId(id);
+        return find.query().fetch("category").fetch("user").fetch("ingredients").where().idEq(id).findOne();
+    }
+
+    /**
+     * Método que crea una consulta de recetas que carga también lo que se muestra de cada una: la categoría y el autor
+     * en la misma consulta y los ingredientes de todas las recetas en una sola consulta adicional. Así, al serializar
+     * una página no se cargan las relaciones receta a receta.
+     *
+     * @return La consulta
+     */
+    private static Query<Recipe> queryWithGraph() {
+
+        return find.query().fetch("category").fetch("user").fetch("ingredients", new FetchConfig().query());
+    }
+
+    /**
+     * Método que crea una consulta de recetas que sólo carga las columnas y relaciones de los campos solicitados. Los
+     * objetos quedan cargados parcialmente, por lo que sólo deben leerse esos campos.
+     *
+     * @param fields Campos solicitados
+     * @return La consulta
+     */
+    private static Query<Recipe> queryWithGraph(FieldSet fields) {
+
+        Query<Recipe> query = find.query().select(fields.select("title", "steps", "time", "difficulty", "serving"));
+        if (fields.has("category")) {
+            query.fetch("category", "categoryName");
+        }
+        if (fields.has("user")) {
+            query.fetch("user", "nick,name,surname,city");
+        }
+        if (fields.has("ingredients")) {
+            query.fetch("ingredients", "ingredientName,units", new FetchConfig().query());
+        }
+        return query;
+    }
+
+    /**
+     * Método que busca las recetas con los identificadores indicados
+     *
+     * @param ids Identificadores de las recetas
+     * @return Las recetas en el mismo orden que los identificadores
+     */
+    public static List<Recipe> findByIds(List<Long> ids) {
+
+        Map<Long, Recipe> byId = new HashMap<>();
+        for (Recipe recipe : queryWithGraph().where().idIn(ids).findList()) {
+            byId.put(recipe.getId(), recipe);
+        }
+        List<Recipe> recipes = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Recipe recipe = byId.get(id);
+            if (recipe != null) {
+                recipes.add(recipe);
+            }
+        }
+        return recipes;
     }
 
     /**
@@ -135,18 +202,54 @@ public class Recipe extends BaseModel {
      */
     public static Recipe findByName(String title) {
 
-        return find.query().where().isNotNull("title").eq("title", title).findOne();
+        return find.query().fetch("category").fetch("user").fetch("ingredients").where().isNotNull("title").eq("title", title).findOne();
     }
 
     /**
      * Método que muestra las recetas existentes de forma paginada
      *
-     * @param page Número de página que se desea ver
+     * @param page   Número de página que se desea ver
+     * @param fields Campos que se van a mostrar
      * @return Devuelve una lista con las recetas
      */
-    public static PagedList<Recipe> findPage(Integer page) {
+    public static PagedList<Recipe> findPage(Integer page, FieldSet fields) {
 
-        return find.query().setMaxRows(10).setFirstRow(10 * page).findPagedList();
+        return queryWithGraph(fields).setMaxRows(PAGE_SIZE).setFirstRow(PAGE_SIZE * page).findPagedList();
+    }
+
+    /**
+     * Método que muestra las recetas siguientes a un cursor. Se busca por identificador, que está indexado, por lo que
+     * cualquier página cuesta lo mismo que la primera.
+     *
+     * @param after  Identificador de la última receta de la página anterior
+     * @param fields Campos que se van a mostrar
+     * @return Devuelve una lista con las recetas ordenadas por identificador
+     */
+    public static List<Recipe> findPageAfter(Long after, FieldSet fields) {
+
+        return queryWithGraph(fields).where().gt("id", after).orderBy("id").setMaxRows(PAGE_SIZE).findList();
+    }
+
+    /**
+     * Método que devuelve un lote de recetas siguientes a un identificador para exportarlas
+     *
+     * @param after Identificador de la última receta del lote anterior
+     * @param size  Número máximo de recetas
+     * @return Devuelve una lista con las recetas ordenadas por identificador
+     */
+    public static List<Recipe> findBatchAfter(Long after, Integer size) {
+
+        return queryWithGraph().where().gt("id", after).orderBy("id").setMaxRows(size).findList();
+    }
+
+    /**
+     * Método que cuenta las recetas existentes
+     *
+     * @return Número de recetas
+     */
+    public static int count() {
+
+        return find.query().findCount();
     }
 
     /**
@@ -157,7 +260,39 @@ public class Recipe extends BaseModel {
      * @return Devuelve el listado con las recetas
      */
     public static PagedList<Recipe> findRecipesByCategory(Long id, Integer page) {
-        return find.query().where().eq("category_id", id).setMaxRows(10).setFirstRow(10 * page).findPagedList();
+        return queryWithGraph().where().eq("category.id", id).setMaxRows(PAGE_SIZE).setFirstRow(PAGE_SIZE * page).findPagedList();
+    }
+
+    /**
+     * Método que devuelve todas las recetas de una categoría con su categoría y sus ingredientes, que se cargan en una
+     * consulta aparte para todas las recetas
+     *
+     * @param id Id de la categoría
+     * @return Devuelve el listado con las recetas
+     */
+    public static List<Recipe> findAllByCategory(Long id) {
+        return queryWithGraph().where().eq("category.id", id).findList();
+    }
+
+    /**
+     * Método que muestra las recetas de una categoría siguientes a un cursor
+     *
+     * @param id    Id de la categoría
+     * @param after Identificador de la última receta de la página anterior
+     * @return Devuelve el listado con las recetas ordenadas por identificador
+     */
+    public static List<Recipe> findRecipesByCategoryAfter(Long id, Long after) {
+        return queryWithGraph().where().eq("category.id", id).gt("id", after).orderBy("id").setMaxRows(PAGE_SIZE).findList();
+    }
+
+    /**
+     * Método que cuenta las recetas de una categoría
+     *
+     * @param id Id de la categoría
+     * @return Número de recetas de la categoría
+     */
+    public static int countByCategory(Long id) {
+        return find.query().where().eq("category_id", id).findCount();
     }
 
     /**
@@ -168,7 +303,28 @@ public class Recipe extends BaseModel {
      * @return Devuelve el listado con las recetas
      */
     public static PagedList<Recipe> findRecipesByUser(Long id, Integer page) {
-        return find.query().where().eq("user_id", id).setMaxRows(10).setFirstRow(10 * page).findPagedList();
+        return queryWithGraph().where().eq("user.id", id).setMaxRows(PAGE_SIZE).setFirstRow(PAGE_SIZE * page).findPagedList();
+    }
+
+    /**
+     * Método que muestra las recetas de un usuario siguientes a un cursor
+     *
+     * @param id    Id del usuario
+     * @param after Identificador de la última receta de la página anterior
+     * @return Devuelve el listado con las recetas ordenadas por identificador
+     */
+    public static List<Recipe> findRecipesByUserAfter(Long id, Long after) {
+        return queryWithGraph().where().eq("user.id", id).gt("id", after).orderBy("id").setMaxRows(PAGE_SIZE).findList();
+    }
+
+    /**
+     * Método que cuenta las recetas de un usuario
+     *
+     * @param id Id del usuario
+     * @return Número de recetas del usuario
+     */
+    public static int countByUser(Long id) {
+        return find.query().where().eq("user_id", id).findCount();
     }
 
     /**
@@ -187,72 +343,58 @@ public class Recipe extends BaseModel {
     }
 
     /**
-     * Método que comprueba si una receta ya existe y la crea en caso de que sea posible
+     * Método que crea la receta si no existe otra con el mismo título. No se busca antes: el índice único del título
+     * rechaza la inserción de una receta repetida, también si dos peticiones la crean a la vez.
      *
+     * @param cache Caché de ingredientes de la aplicación
      * @return Devuelve false si la receta ya existe y true si se creó correctamente
      */
-    public boolean checkRecipe() {
-
-        if (Recipe.findByName(this.title.toUpperCase()) == null) {
+    public boolean checkRecipe(IngredientCache cache) {
 
-            this.title = this.title.toUpperCase();
-            this.checkIngredients(this.ingredients);
+        this.title = this.title.toUpperCase();
 
-            Ebean.beginTransaction();
-            try {
-                this.save();
-                Ebean.commitTransaction();
-            } finally {
-                Ebean.endTransaction();
-            }
-            return true;
+        Ebean.beginTransaction();
+        try {
+            this.checkIngredients(this.ingredients, cache);
+            this.save();
+            Ebean.commitTransaction();
+        } catch (DuplicateKeyException e) {
+            return false;
+        } finally {
+            Ebean.endTransaction();
         }
-
-        return false;
+        cache.remember(this.ingredients);
+        return true;
     }
 
     /**
      * Método que comprueba si los ingredientes de la receta ya existen en la base de datos para evitar la creación de tuplas repetidas con la
-     * misma información. Además transforma las unidades de los ingredientes en minúsculas.
+     * misma información. Además transforma las unidades de los ingredientes en minúsculas. Debe llamarse dentro de la transacción
+     * que guarda la receta.
      *
-     * @param i Lista con los ingredientes de la receta
+     * @param i     Lista con los ingredientes de la receta
+     * @param cache Caché de ingredientes de la aplicación
      */
-    public void checkIngredients(List<Ingredient> i) {
-
-        Ingredient ing;
-        for (int j = 0; j < i.size(); j++) {
-        	
-            i.get(j).setIngredientName(i.get(j).getIngredientName());
-            i.get(j).setUnits(i.get(j).getUnits().toLowerCase());
-            ing = Ingredient.findIngredientByNameAndUnit(i.get(j).getIngredientName(), i.get(j).getUnits());
-            if (ing != null) {
-                i.set(j, ing);
-            }
-        }
+    public void checkIngredients(List<Ingredient> i, IngredientCache cache) {
 
+        List<Ingredient> resolved = Ingredient.resolveAll(i, cache);
+        i.clear();
+        i.addAll(resolved);
     }
 
     /**
      * Método que actualiza los ingredientes de una receta. Hay cuatro escenarios posibles: se incorpora un ingrediente/es, se
-     * elimina un ingrediente/es, se modifica un ingrediente/es y la unión de los casos anteriores.
+     * elimina un ingrediente/es, se modifica un ingrediente/es y la unión de los casos anteriores. Debe llamarse dentro de la
+     * transacción que guarda la receta.
      *
-     * @param i Lista con los ingredientes de la receta que se pretende actualizar
+     * @param i     Lista con los ingredientes de la receta que se pretende actualizar
+     * @param cache Caché de ingredientes de la aplicación
      */
-    public void updateRecipeIngredients(List<Ingredient> i) {
+    public void updateRecipeIngredients(List<Ingredient> i, IngredientCache cache) {
 
-        Ingredient ing;
+        List<Ingredient> resolved = Ingredient.resolveAll(i, cache);
         this.ingredients.clear();
-        for (int j = 0; j < i.size(); j++) {
-        	
-            i.get(j).setIngredientName(i.get(j).getIngredientName());
-            i.get(j).setUnits(i.get(j).getUnits().toLowerCase());
-            ing = Ingredient.findIngredientByNameAndUnit(i.get(j).getIngredientName(), i.get(j).getUnits());
-            if (ing == null) {
-                ing = new Ingredient(i.get(j).getIngredientName(), i.get(j).getUnits());
-            }
-            this.ingredients.add(ing);
-        }
-
+        this.ingredients.addAll(resolved);
     }
 
     /**
@@ -0,0 +1,230 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Vista inmutable de una receta con sus ingredientes, su categoría y su autor, que es lo que se guarda en caché y se
+ * muestra en JSON y XML. Se crea a partir de una receta cargada con sus relaciones, por lo que crearla no consulta la
+ * base de datos.
+ *
+ * @author MIMO
+ */
+public final class RecipeView extends EntityView {
+
+    /**
+     * Campos de la receta que pueden solicitarse en los listados
+     */
+    public static final List<String> FIELDS = FieldSet.fields("id", "title", "ingredients", "steps", "time",
+            "difficulty", "serving", "category", "user");
+
+    /**
+     * Orden alfabético por título
+     */
+    public static final Comparator<RecipeView> BY_TITLE = Comparator.comparing(RecipeView::getTitle);
+
+    /**
+     * Nombre de la receta
+     */
+    private final String title;
+
+    /**
+     * Ingredientes de la receta
+     */
+    private final List<IngredientView> ingredients;
+
+    /**
+     * Pasos para elaborar la receta
+     */
+    private final List<String> steps;
+
+    /**
+     * Tiempo necesario para elaborar la receta
+     */
+    private final String time;
+
+    /**
+     * Dificultad de la receta
+     */
+    private final Difficulty difficulty;
+
+    /**
+     * Número de raciones de la receta
+     */
+    private final String serving;
+
+    /**
+     * Categoría de la receta
+     */
+    private final CategoryView category;
+
+    /**
+     * Autor de la receta
+     */
+    private final UserView user;
+
+    /**
+     * Constructor de RecipeView
+     *
+     * @param recipe La receta
+     */
+    private RecipeView(Recipe recipe) {
+        super(recipe);
+        this.title = recipe.getTitle();
+        this.ingredients = IngredientView.of(recipe.getIngredients());
+        this.steps = Collections.unmodifiableList(new ArrayList<>(recipe.getSteps()));
+        this.time = recipe.getTime();
+        this.difficulty = recipe.getDifficulty();
+        this.serving = recipe.getServing();
+        this.category = CategoryView.of(recipe.getCategory());
+        this.user = UserView.of(recipe.getUser());
+    }
+
+    /**
+     * Constructor de RecipeView a partir de una receta cargada sólo con los campos solicitados. La categoría, el autor y
+     * los ingredientes, si se solicitan, se muestran completos.
+     *
+     * @param recipe La receta
+     * @param fields Campos solicitados
+     */
+    private RecipeView(Recipe recipe, FieldSet fields) {
+        super(recipe, fields);
+        this.title = fields.has("title") ? recipe.getTitle() : null;
+        this.ingredients = fields.has("ingredients") ? IngredientView.of(recipe.getIngredients(), FieldSet.ALL) : null;
+        this.steps = fields.has("steps") ? Collections.unmodifiableList(new ArrayList<>(recipe.getSteps())) : null;
+        this.time = fields.has("time") ? recipe.getTime() : null;
+        this.difficulty = fields.has("difficulty") ? recipe.getDifficulty() : null;
+        this.serving = fields.has("serving") ? recipe.getServing() : null;
+        this.category = fields.has("category") ? CategoryView.of(recipe.getCategory(), FieldSet.ALL) : null;
+        this.user = fields.has("user") ? UserView.of(recipe.getUser(), FieldSet.ALL) : null;
+    }
+
+    /**
+     * Método que crea la vista de una receta
+     *
+     * @param recipe La receta
+     * @return La vista o null si la receta es null
+     */
+    public static RecipeView of(Recipe recipe) {
+        return recipe == null ? null : new RecipeView(recipe);
+    }
+
+    /**
+     * Método que crea las vistas de una lista de recetas
+     *
+     * @param recipes Las recetas
+     * @return Lista inmutable con las vistas en el mismo orden
+     */
+    public static List<RecipeView> of(List<Recipe> recipes) {
+        List<RecipeView> views = new ArrayList<>(recipes.size());
+        for (Recipe recipe : recipes) {
+            views.add(new RecipeView(recipe));
+        }
+        return Collections.unmodifiableList(views);
+    }
+
+    /**
+     * Método que crea las vistas de una lista de recetas cargadas sólo con los campos solicitados
+     *
+     * @param recipes Las recetas
+     * @param fields  Campos solicitados
+     * @return Lista inmutable con las vistas en el mismo orden
+     */
+    public static List<RecipeView> of(List<Recipe> recipes, FieldSet fields) {
+        List<RecipeView> views = new ArrayList<>(recipes.size());
+        for (Recipe recipe : recipes) {
+            views.add(new RecipeView(recipe, fields));
+        }
+        return Collections.unmodifiableList(views);
+    }
+
+    /**
+     * Método que identifica el estado de la receta. La receta muestra también datos de su categoría, su autor y sus
+     * ingredientes, por lo que a su identificador y su versión se añade un resumen de las versiones de éstos.
+     *
+     * @return El identificador, la versión y el resumen separados por guiones
+     */
+    @Override
+    public String tag() {
+        StringBuilder related = new StringBuilder();
+        related.append(category == null ? "" : category.tag()).append('|').append(user == null ? "" : user.tag());
+        for (IngredientView ingredient : ingredients) {
+            related.append('|').append(ingredient.tag());
+        }
+        return super.tag() + "-" + Integer.toHexString(related.toString().hashCode());
+    }
+
+    /**
+     * Getter de title
+     *
+     * @return Nombre de la receta
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Getter de ingredients
+     *
+     * @return Ingredientes de la receta
+     */
+    public List<IngredientView> getIngredients() {
+        return ingredients;
+    }
+
+    /**
+     * Getter de steps
+     *
+     * @return Pasos para elaborar la receta
+     */
+    public List<String> getSteps() {
+        return steps;
+    }
+
+    /**
+     * Getter de time
+     *
+     * @return Tiempo necesario para elaborar la receta
+     */
+    public String getTime() {
+        return time;
+    }
+
+    /**
+     * Getter de difficulty
+     *
+     * @return Dificultad de la receta
+     */
+    public Difficulty getDifficulty() {
+        return difficulty;
+    }
+
+    /**
+     * Getter de serving
+     *
+     * @return Número de raciones de la receta
+     */
+    public String getServing() {
+        return serving;
+    }
+
+    /**
+     * Getter de category
+     *
+     * @return Categoría de la receta
+     */
+    public CategoryView getCategory() {
+        return category;
+    }
+
+    /**
+     * Getter de user
+     *
+     * @return Autor de la receta
+     */
+    public UserView getUser() {
+        return user;
+    }
+}
@@ -3,6 +3,7 @@ package models;
 import com.fasterxml.jackson.annotation.JsonBackReference;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
+import io.ebean.DuplicateKeyException;
 import io.ebean.Ebean;
 import io.ebean.Finder;
 import io.ebean.PagedList;
@@ -98,6 +99,16 @@ public class User extends BaseModel {
      */
     public static final Finder<Long, User> find = new Finder<>(User.class);
 
+    /**
+     * Número de usuarios por página en el listado completo
+     */
+    public static final int PAGE_SIZE = 25;
+
+    /**
+     * Columnas de la tabla que pueden mostrarse en el listado
+     */
+    private static final String[] COLUMNS = {"nick", "name", "surname", "city"};
+
 
     //Métodos para realizar búsquedas de usuarios
 
@@ -209,17 +220,54 @@ public class User extends BaseModel {
     /**
      * Listado completo mostrado en páginas de 25 usuarios
      *
-     * @param page Página del listado a mostrar
+     * @param page   Página del listado a mostrar
+     * @param fields Campos que se van a mostrar, que son las únicas columnas que se consultan
      * @return <p>Devuelve el listado de usuarios</p>
      */
-    public static PagedList<User> findAll(Integer page) {
+    public static PagedList<User> findAll(Integer page, FieldSet fields) {
+
+        return find.query().select(fields.select(COLUMNS)).setMaxRows(PAGE_SIZE).setFirstRow(PAGE_SIZE * page).findPagedList();
+    }
+
+    /**
+     * Listado completo paginado por cursor. Se busca por identificador, por lo que cualquier página cuesta lo mismo
+     * que la primera.
+     *
+     * @param after  Identificador del último usuario de la página anterior
+     * @param fields Campos que se van a mostrar, que son las únicas columnas que se consultan
+     * @return <p>Devuelve los usuarios ordenados por identificador</p>
+     */
+    public static List<User> findAllAfter(Long after, FieldSet fields) {
+
+        return find.query().select(fields.select(COLUMNS)).where().gt("id", after).orderBy("id").setMaxRows(PAGE_SIZE).findList();
+    }
+
+    /**
+     * Lote de usuarios siguientes a un identificador para exportarlos
+     *
+     * @param after Identificador del último usuario del lote anterior
+     * @param size  Número máximo de usuarios
+     * @return <p>Devuelve los usuarios ordenados por identificador</p>
+     */
+    public static List<User> findBatchAfter(Long after, Integer size) {
+
+        return find.query().where().gt("id", after).orderBy("id").setMaxRows(size).findList();
+    }
+
+    /**
+     * Número total de usuarios
+     *
+     * @return <p>Devuelve el número de usuarios</p>
+     */
+    public static int count() {
 
-        return find.query().setMaxRows(25).setFirstRow(25 * page).findPagedList();
+        return find.query().findCount();
     }
 
 
     /**
-     * Método que comprueba si el nick ya existe en la base de datos
+     * Método que guarda el usuario con una clave API nueva si su nick no existe. No se busca antes: los índices únicos
+     * del nick y de la clave rechazan la inserción. Si el conflicto es de la clave, se genera otra y se vuelve a intentar.
      *
      * @return <ul>
      * <li>true: genera una clave API y guarda el usuario</li>
@@ -227,21 +275,20 @@ public class User extends BaseModel {
      * </ul>
      */
     public boolean checkAndSave() {
-        if (User.findByNick(this.nick) == null) {
-
+        do {
             Ebean.beginTransaction();
             try {
-                do {
-                    this.generateApiKey();
-                } while (ApiKey.findBykey(this.apiKey.getKey()) != null);
+                this.generateApiKey();
                 this.save();
                 Ebean.commitTransaction();
+                return true;
+            } catch (DuplicateKeyException e) {
+                //Se comprueba después de cerrar la transacción cuál de los dos índices ha fallado
             } finally {
                 Ebean.endTransaction();
             }
-            return true;
-
-        }
+            this.setId(null);
+        } while (User.findByNick(this.nick) == null);
         return false;
     }
 
@@ -0,0 +1,152 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Vista inmutable de los datos públicos de un usuario, sin su clave API ni su rol, que es lo que se guarda en caché y
+ * se muestra en JSON y XML.
+ *
+ * @author MIMO
+ */
+public final class UserView extends EntityView {
+
+    /**
+     * Campos del usuario que pueden solicitarse en los listados
+     */
+    public static final List<String> FIELDS = FieldSet.fields("id", "nick", "name", "surname", "city");
+
+    /**
+     * Nick del usuario
+     */
+    private final String nick;
+
+    /**
+     * Nombre del usuario
+     */
+    private final String name;
+
+    /**
+     * Apellido del usuario
+     */
+    private final String surname;
+
+    /**
+     * Ciudad del usuario
+     */
+    private final String city;
+
+    /**
+     * Constructor de UserView
+     *
+     * @param user El usuario
+     */
+    private UserView(User user) {
+        super(user);
+        this.nick = user.getNick();
+        this.name = user.getName();
+        this.surname = user.getSurname();
+        this.city = user.getCity();
+    }
+
+    /**
+     * Constructor de UserView a partir de un usuario cargado sólo con los campos solicitados
+     *
+     * @param user   El usuario
+     * @param fields Campos solicitados
+     */
+    private UserView(User user, FieldSet fields) {
+        super(user, fields);
+        this.nick = fields.has("nick") ? user.getNick() : null;
+        this.name = fields.has("name") ? user.getName() : null;
+        this.surname = fields.has("surname") ? user.getSurname() : null;
+        this.city = fields.has("city") ? user.getCity() : null;
+    }
+
+    /**
+     * Método que crea la vista de un usuario
+     *
+     * @param user El usuario
+     * @return La vista o null si el usuario es null
+     */
+    public static UserView of(User user) {
+        return user == null ? null : new UserView(user);
+    }
+
+    /**
+     * Método que crea las vistas de una lista de usuarios
+     *
+     * @param users Los usuarios
+     * @return Lista inmutable con las vistas en el mismo orden
+     */
+    public static List<UserView> of(List<User> users) {
+        List<UserView> views = new ArrayList<>(users.size());
+        for (User user : users) {
+            views.add(new UserView(user));
+        }
+        return Collections.unmodifiableList(views);
+    }
+
+    /**
+     * Método que crea la vista de un usuario cargado sólo con los campos solicitados
+     *
+     * @param user   El usuario
+     * @param fields Campos solicitados
+     * @return La vista o null si el usuario es null
+     */
+    public static UserView of(User user, FieldSet fields) {
+        return user == null ? null : new UserView(user, fields);
+    }
+
+    /**
+     * Método que crea las vistas de una lista de usuarios cargados sólo con los campos solicitados
+     *
+     * @param users  Los usuarios
+     * @param fields Campos solicitados
+     * @return Lista inmutable con las vistas en el mismo orden
+     */
+    public static List<UserView> of(List<User> users, FieldSet fields) {
+        List<UserView> views = new ArrayList<>(users.size());
+        for (User user : users) {
+            views.add(new UserView(user, fields));
+        }
+        return Collections.unmodifiableList(views);
+    }
+
+    /**
+     * Getter de nick
+     *
+     * @return Nick del usuario
+     */
+    public String getNick() {
+        return nick;
+    }
+
+    /**
+     * Getter de name
+     *
+     * @return Nombre del usuario
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Getter de surname
+     *
+     * @return Apellido del usuario
+     */
+    public String getSurname() {
+        return surname;
+    }
+
+    /**
+     * Getter de city
+     *
+     * @return Ciudad del usuario
+     */
+    public String getCity() {
+        return city;
+    }
+}
@@ -0,0 +1,469 @@
+package services;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import play.cache.SyncCacheApi;
+import services.CacheKey.Format;
+import services.CacheKey.Kind;
+import services.CacheKey.Namespace;
+
+/**
+ * Caché del API. Los controladores sólo usan claves tipadas y el tiempo de vida de cada espacio de nombres se decide en
+ * un único sitio. Tiene dos niveles: el primero está en la memoria del proceso, acotado por peso y con el tiempo de vida
+ * de cada espacio de nombres (ver NearCache); el segundo, opcional, es la caché de Play que esté configurada, y sólo se
+ * consulta cuando el primero no tiene el elemento. El segundo nivel también tiene que estar en el proceso, porque las
+ * versiones de las colecciones que forman parte de las claves empiezan en 0 en cada arranque y no se comparten. Además recuerda los elementos que no existen: los buscados por id
+ * se descartan con el mapa de identificadores existentes y el resto se guarda en una caché negativa pequeña, con un
+ * tiempo de vida corto, que se invalida cuando cambia la versión de su colección.
+ * <p>
+ * Las cargas se coordinan por clave: si varias peticiones no encuentran el mismo elemento a la vez, sólo una consulta la
+ * base de datos y las demás esperan su resultado. Los listados pueden recargarse antes de caducar: la primera petición
+ * que llega pasada una fracción de su tiempo de vida lo recarga mientras las demás siguen usando la copia guardada.
+ *
+ * @author MIMO
+ */
+@Singleton
+public class ApiCache {
+
+    /**
+     * Tiempo de vida en segundos de los elementos de la caché negativa
+     */
+    public static final int NEGATIVE_TTL = 30;
+
+    /**
+     * Número máximo de elementos de la caché negativa
+     */
+    public static final int NEGATIVE_SIZE = 10000;
+
+    /**
+     * Fracción del tiempo de vida de los listados a partir de la cual se recargan por defecto
+     */
+    public static final double REFRESH_AHEAD = 0.8;
+
+    /**
+     * Tamaño mínimo en bytes por defecto de las respuestas que se guardan también comprimidas
+     */
+    public static final long COMPRESSION_THRESHOLD = 1024;
+
+    /**
+     * Primer nivel, en memoria
+     */
+    private final NearCache near;
+
+    /**
+     * Segundo nivel, la caché de Play, o null si no se usa
+     */
+    private final SyncCacheApi cache;
+
+    /**
+     * Versiones de las colecciones
+     */
+    private final CollectionVersions versions;
+
+    /**
+     * Identificadores existentes de cada colección
+     */
+    private final ExistingIds existingIds;
+
+    /**
+     * Caché negativa: instante de caducidad y versión de la colección de cada clave que no existe. Se consulta sin
+     * bloqueos; cuando se llena se descartan primero las claves caducadas y, si no basta, cualquier otra.
+     */
+    private final ConcurrentMap<CacheKey, long[]> missing = new ConcurrentHashMap<>();
+
+    /**
+     * Cargas en curso de cada clave
+     */
+    private final ConcurrentMap<CacheKey, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * Aciertos de cada espacio de nombres, por ordinal
+     */
+    private final LongAdder[] hits = adders();
+
+    /**
+     * Fallos de cada espacio de nombres, por ordinal
+     */
+    private final LongAdder[] misses = adders();
+
+    /**
+     * Fracción del tiempo de vida tras la que se recarga un listado o 0 si no se recargan antes de caducar
+     */
+    private final double refreshAhead;
+
+    /**
+     * Tamaño mínimo en bytes de las respuestas que se guardan también comprimidas
+     */
+    private final long compressionThreshold;
+
+    /**
+     * Constructor de ApiCache
+     *
+     * @param cache       Caché de Play
+     * @param versions    Versiones de las colecciones
+     * @param existingIds Identificadores existentes de cada colección
+     * @param config      Configuración de la aplicación, de la que se leen api.cache.namespaces, api.cache.secondTier,
+     *                    api.cache.refreshAhead y api.compression.threshold
+     */
+    @Inject
+    public ApiCache(SyncCacheApi cache, CollectionVersions versions, ExistingIds existingIds, Config config) {
+        this(config.hasPath("api.cache.secondTier") && config.getBoolean("api.cache.secondTier") ? cache : null,
+                versions, existingIds, NearCache.fromConfig(config),
+                config.hasPath("api.cache.refreshAhead") ? config.getDouble("api.cache.refreshAhead") : REFRESH_AHEAD,
+                config.hasPath("api.compression.threshold") ? config.getBytes("api.compression.threshold") : COMPRESSION_THRESHOLD);
+    }
+
+    /**
+     * Constructor de ApiCache con los tiempos de vida y pesos por defecto del primer nivel
+     *
+     * @param cache        Segundo nivel o null para usar sólo el primero
+     * @param versions     Versiones de las colecciones
+     * @param existingIds  Identificadores existentes de cada colección
+     * @param refreshAhead Fracción del tiempo de vida de los listados tras la que se recargan; 0 lo desactiva
+     */
+    public ApiCache(SyncCacheApi cache, CollectionVersions versions, ExistingIds existingIds, double refreshAhead) {
+        this(cache, versions, existingIds, NearCache.withDefaults(), refreshAhead);
+    }
+
+    /**
+     * Constructor de ApiCache
+     *
+     * @param cache        Segundo nivel o null para usar sólo el primero
+     * @param versions     Versiones de las colecciones
+     * @param existingIds  Identificadores existentes de cada colección
+     * @param near         Primer nivel
+     * @param refreshAhead Fracción del tiempo de vida de los listados tras la que se recargan; 0 lo desactiva
+     */
+    public ApiCache(SyncCacheApi cache, CollectionVersions versions, ExistingIds existingIds, NearCache near,
+                    double refreshAhead) {
+        this(cache, versions, existingIds, near, refreshAhead, COMPRESSION_THRESHOLD);
+    }
+
+    /**
+     * Constructor de ApiCache
+     *
+     * @param cache                Segundo nivel o null para usar sólo el primero
+     * @param versions             Versiones de las colecciones
+     * @param existingIds          Identificadores existentes de cada colección
+     * @param near                 Primer nivel
+     * @param refreshAhead         Fracción del tiempo de vida de los listados tras la que se recargan; 0 lo desactiva
+     * @param compressionThreshold Tamaño mínimo en bytes de las respuestas que se guardan también comprimidas
+     */
+    public ApiCache(SyncCacheApi cache, CollectionVersions versions, ExistingIds existingIds, NearCache near,
+                    double refreshAhead, long compressionThreshold) {
+        this.near = near;
+        this.cache = cache;
+        this.versions = versions;
+        this.existingIds = existingIds;
+        this.refreshAhead = refreshAhead > 0 && refreshAhead < 1 ? refreshAhead : 0;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Método que crea una clave. Si es de un listado, incluye la versión actual de la colección, por lo que debe crearse
+     * una sola vez por petición y derivar de ella la clave de la respuesta JSON.
+     *
+     * @param namespace Espacio de nombres
+     * @param parts     Partes de la clave
+     * @return La clave
+     */
+    public CacheKey key(Namespace namespace, Object... parts) {
+        return new CacheKey(namespace, versions.current(namespace.getCollection()), parts, CacheKey.Format.VIEW);
+    }
+
+    /**
+     * Método que obtiene un elemento de la caché
+     *
+     * @param key La clave
+     * @param <T> Tipo del elemento
+     * @return El elemento o null si no está en caché
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(CacheKey key) {
+        Object value = lookup(key);
+        return value instanceof Timed ? (T) ((Timed) value).value : (T) value;
+    }
+
+    /**
+     * Método que busca un elemento en el primer nivel y después en el segundo. Lo que se encuentra en el segundo se
+     * copia en el primero.
+     *
+     * @param key La clave
+     * @return El elemento tal como se guardó o null si no está en ningún nivel
+     */
+    private Object lookup(CacheKey key) {
+        Object value = near.get(key);
+        if (value == null && cache != null) {
+            value = cache.get(key.toString());
+            if (value != null) {
+                near.put(key, value, NearCache.weigh(value instanceof Timed ? ((Timed) value).value : value));
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Método que obtiene un elemento de la caché o lo busca si no está. Si se sabe que el elemento no existe no se
+     * ejecuta la búsqueda, y si la búsqueda no lo encuentra se recuerda en la caché negativa. Si otra petición ya está
+     * buscando el mismo elemento, se espera a su resultado en lugar de repetir la búsqueda. La carga de las claves JSON
+     * y XML puede ejecutarse en el hilo de la petición, por lo que no debe consultar la base de datos.
+     *
+     * @param key    La clave
+     * @param loader Búsqueda del elemento en la base de datos
+     * @param <T>    Tipo del elemento
+     * @return El elemento o null si no existe
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getOrLoad(CacheKey key, Supplier<T> loader) {
+        int namespace = key.getNamespace().ordinal();
+        //Se cuenta al devolver el valor, ya que una lectura intentada en el hilo de la petición puede repetirse
+        if (isMissing(key)) {
+            DatabaseExecutionContext.count(hits[namespace]);
+            return null;
+        }
+        Object cached = lookup(key);
+        if (cached == null) {
+            T value = load(key, loader, true);
+            DatabaseExecutionContext.count(misses[namespace]);
+            return value;
+        }
+        if (cached instanceof Timed) {
+            Timed timed = (Timed) cached;
+            //Si ha pasado el tiempo de recarga y nadie lo está recargando, lo recarga esta petición
+            if (timed.refreshAt - System.nanoTime() < 0 && !loading.containsKey(key)) {
+                T value = load(key, loader, false);
+                DatabaseExecutionContext.count(hits[namespace]);
+                return value != null ? value : (T) timed.value;
+            }
+            DatabaseExecutionContext.count(hits[namespace]);
+            return (T) timed.value;
+        }
+        DatabaseExecutionContext.count(hits[namespace]);
+        return (T) cached;
+    }
+
+    /**
+     * Número de peticiones de un espacio de nombres que se han respondido con la caché, incluidas las de elementos que
+     * se sabe que no existen
+     *
+     * @param namespace El espacio de nombres
+     * @return Número de aciertos desde el arranque
+     */
+    public long hits(Namespace namespace) {
+        return hits[namespace.ordinal()].sum();
+    }
+
+    /**
+     * Número de peticiones de un espacio de nombres que no han encontrado el elemento en la caché
+     *
+     * @param namespace El espacio de nombres
+     * @return Número de fallos desde el arranque
+     */
+    public long misses(Namespace namespace) {
+        return misses[namespace.ordinal()].sum();
+    }
+
+    /**
+     * Método que crea un contador por espacio de nombres
+     *
+     * @return Los contadores
+     */
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[Namespace.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Método que busca un elemento en la base de datos de forma que sólo una petición lo busque a la vez
+     *
+     * @param key    La clave
+     * @param loader Búsqueda del elemento en la base de datos
+     * @param wait   Verdadero para esperar a la carga en curso; falso para devolver null si ya hay una
+     * @param <T>    Tipo del elemento
+     * @return El elemento o null si no existe
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T load(CacheKey key, Supplier<T> loader, boolean wait) {
+        //Las lecturas que se intentan en el hilo de la petición se repiten en el contexto de la base de datos. Las
+        //respuestas serializadas se generan a partir de vistas ya cargadas, por lo que no lo necesitan
+        if (key.getFormat() == Format.VIEW) {
+            DatabaseExecutionContext.requireDatabase();
+        }
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> current = loading.putIfAbsent(key, flight);
+        if (current != null) {
+            return wait ? (T) await(current) : null;
+        }
+        try {
+            //Otra petición puede haberlo guardado entre la consulta a la caché y el registro de esta carga
+            T value = wait ? get(key) : null;
+            if (value == null) {
+                value = loader.get();
+                if (value == null) {
+                    setMissing(key);
+                } else {
+                    set(key, value);
+                }
+            }
+            flight.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, flight);
+        }
+    }
+
+    /**
+     * Método que espera a la carga en curso de otra petición
+     *
+     * @param flight La carga
+     * @return El elemento cargado
+     */
+    private static Object await(CompletableFuture<Object> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Método que guarda un elemento en los dos niveles de la caché con el tiempo de vida de su espacio de nombres. Si
+     * está activada la recarga anticipada, los listados se guardan con el instante en que deben recargarse. Las
+     * respuestas ya serializadas se comprimen antes de guardarse.
+     *
+     * @param key   La clave
+     * @param value El elemento
+     */
+    public void set(CacheKey key, Object value) {
+        if (value instanceof Compressible) {
+            ((Compressible) value).compress(compressionThreshold);
+        }
+        Namespace namespace = key.getNamespace();
+        long ttl = near.ttl(namespace);
+        Object stored = namespace.isList() && refreshAhead > 0
+                ? new Timed(value, System.nanoTime() + (long) (ttl * refreshAhead)) : value;
+        near.put(key, stored, NearCache.weigh(value));
+        if (cache != null) {
+            cache.set(key.toString(), stored, (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(ttl)));
+        }
+    }
+
+    /**
+     * Método que borra de la caché un elemento y sus respuestas ya serializadas
+     *
+     * @param key La clave del elemento
+     */
+    public void remove(CacheKey key) {
+        for (CacheKey.Format format : CacheKey.Format.values()) {
+            CacheKey formatted = key.as(format);
+            near.remove(formatted);
+            if (cache != null) {
+                cache.remove(formatted.toString());
+            }
+        }
+        missing.remove(key);
+    }
+
+    /**
+     * Método que comprueba si se sabe que un elemento no existe
+     *
+     * @param key La clave del elemento
+     * @return Verdadero si el elemento no existe
+     */
+    public boolean isMissing(CacheKey key) {
+        //Las respuestas serializadas sólo se piden de elementos que existen
+        if (key.getFormat() != Format.VIEW) {
+            return false;
+        }
+        Namespace namespace = key.getNamespace();
+        if (namespace.getKind() == Kind.ID && !existingIds.mayExist(namespace.getCollection(), (Long) key.part(0))) {
+            return true;
+        }
+        long[] entry = missing.get(key);
+        if (entry == null) {
+            return false;
+        }
+        if (entry[0] - System.nanoTime() < 0 || entry[1] != versions.current(namespace.getCollection())) {
+            missing.remove(key, entry);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Método que recuerda durante NEGATIVE_TTL segundos que un elemento no existe. Se guarda con la versión de la
+     * colección al crear la clave, de modo que cualquier escritura posterior en la colección lo invalida.
+     *
+     * @param key La clave del elemento
+     */
+    public void setMissing(CacheKey key) {
+        long now = System.nanoTime();
+        if (missing.size() >= NEGATIVE_SIZE) {
+            evictMissing(now);
+        }
+        missing.put(key, new long[]{now + TimeUnit.SECONDS.toNanos(NEGATIVE_TTL), key.getCollectionVersion()});
+    }
+
+    /**
+     * Método que hace sitio en la caché negativa llena: borra las claves caducadas y, si no basta para dejar libre una
+     * décima parte, también otras claves hasta conseguirlo
+     *
+     * @param now Instante actual en nanosegundos de System.nanoTime
+     */
+    private void evictMissing(long now) {
+        missing.values().removeIf(entry -> entry[0] - now < 0);
+        int excess = missing.size() - NEGATIVE_SIZE * 9 / 10;
+        for (Iterator<CacheKey> keys = missing.keySet().iterator(); excess > 0 && keys.hasNext(); excess--) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    /**
+     * Listado guardado junto con el instante en que debe recargarse
+     */
+    private static final class Timed {
+
+        /**
+         * El listado
+         */
+        private final Object value;
+
+        /**
+         * Instante, en nanosegundos de System.nanoTime, a partir del cual se recarga
+         */
+        private final long refreshAt;
+
+        /**
+         * Constructor de Timed
+         *
+         * @param value     El listado
+         * @param refreshAt Instante a partir del cual se recarga
+         */
+        Timed(Object value, long refreshAt) {
+            this.value = value;
+            this.refreshAt = refreshAt;
+        }
+    }
+}
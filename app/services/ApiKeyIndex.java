@@ -0,0 +1,185 @@
+package services;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import models.User;
+import play.api.db.evolutions.ApplicationEvolutions;
+
+/**
+ * Índice en memoria de las claves API de los usuarios. Permite autenticar las peticiones sin consultar la base de datos:
+ * se carga al arrancar la aplicación y se mantiene actualizado desde las operaciones que crean, modifican o borran usuarios.
+ *
+ * @author MIMO
+ */
+@Singleton
+public class ApiKeyIndex {
+
+    /**
+     * Datos del usuario asociados a cada clave API
+     */
+    private final ConcurrentMap<String, Entry> byKey = new ConcurrentHashMap<>();
+
+    /**
+     * Clave API de cada usuario, necesaria para mantener el índice cuando sólo se conoce el id del usuario
+     */
+    private final ConcurrentMap<Long, String> keyByUser = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor del índice. Depende de las evoluciones para asegurar que el esquema existe antes de cargarlo.
+     *
+     * @param evolutions Evoluciones de la base de datos ya aplicadas
+     */
+    @Inject
+    public ApiKeyIndex(ApplicationEvolutions evolutions) {
+        reload();
+    }
+
+    /**
+     * Método que carga en el índice las claves de todos los usuarios de la base de datos
+     */
+    public synchronized void reload() {
+        byKey.clear();
+        keyByUser.clear();
+        User.find.query().select("nick, admin").fetch("apiKey", "key").findEach(this::put);
+    }
+
+    /**
+     * Método que busca el usuario propietario de una clave API
+     *
+     * @param key La clave API de la petición
+     * @return Los datos del usuario o null si la clave no existe
+     */
+    public Entry lookup(String key) {
+        return key == null ? null : byKey.get(key);
+    }
+
+    /**
+     * Método que añade o reemplaza un usuario en el índice. El usuario debe tener cargada su clave API.
+     *
+     * @param user Usuario guardado en la base de datos
+     */
+    public synchronized void put(User user) {
+        if (user.getApiKey() == null || user.getApiKey().getKey() == null) {
+            return;
+        }
+        String key = user.getApiKey().getKey();
+        String previous = keyByUser.put(user.getId(), key);
+        if (previous != null && !previous.equals(key)) {
+            byKey.remove(previous);
+        }
+        byKey.put(key, new Entry(user.getId(), user.getNick(), Boolean.TRUE.equals(user.getAdmin())));
+    }
+
+    /**
+     * Método que actualiza el nick y el rol de un usuario ya indexado sin cambiar su clave
+     *
+     * @param userId Id del usuario
+     * @param nick   Nick actual del usuario
+     * @param admin  Rol actual del usuario
+     */
+    public synchronized void update(Long userId, String nick, Boolean admin) {
+        String key = keyByUser.get(userId);
+        if (key != null) {
+            byKey.put(key, new Entry(userId, nick, Boolean.TRUE.equals(admin)));
+        }
+    }
+
+    /**
+     * Método que elimina del índice la clave de un usuario
+     *
+     * @param userId Id del usuario borrado
+     */
+    public synchronized void remove(Long userId) {
+        String key = keyByUser.remove(userId);
+        if (key != null) {
+            byKey.remove(key);
+        }
+    }
+
+    /**
+     * Número de claves indexadas
+     *
+     * @return El tamaño del índice
+     */
+    public int size() {
+        return byKey.size();
+    }
+
+    /**
+     * Datos inmutables del usuario que necesitan las acciones autenticadas
+     */
+    public static final class Entry {
+
+        /**
+         * Id del usuario
+         */
+        private final Long userId;
+
+        /**
+         * Nick del usuario
+         */
+        private final String nick;
+
+        /**
+         * Rol del usuario
+         */
+        private final boolean admin;
+
+        /**
+         * Constructor de Entry
+         *
+         * @param userId Id del usuario
+         * @param nick   Nick del usuario
+         * @param admin  Rol del usuario
+         */
+        Entry(Long userId, String nick, boolean admin) {
+            this.userId = userId;
+            this.nick = nick;
+            this.admin = admin;
+        }
+
+        /**
+         * Método que crea un usuario desligado de la base de datos con el id, el nick y el rol. Basta para las
+         * comprobaciones de permisos y para asignar el autor de una receta.
+         *
+         * @return Usuario con los datos del índice
+         */
+        public User toUser() {
+            User user = new User(nick, null, null, null);
+            user.setId(userId);
+            user.setAdmin(admin);
+            return user;
+        }
+
+        /**
+         * Getter de userId
+         *
+         * @return Id del usuario
+         */
+        public Long getUserId() {
+            return userId;
+        }
+
+        /**
+         * Getter de nick
+         *
+         * @return Nick del usuario
+         */
+        public String getNick() {
+            return nick;
+        }
+
+        /**
+         * Getter de admin
+         *
+         * @return Verdadero si el usuario es administrador
+         */
+        public boolean isAdmin() {
+            return admin;
+        }
+    }
+}
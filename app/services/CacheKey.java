@@ -0,0 +1,304 @@
+package services;
+
+import java.util.Arrays;
+
+import services.CollectionVersions.Collection;
+
+/**
+ * Clave tipada de un elemento guardado en caché. Se compone del espacio de nombres, la versión de la colección de la
+ * que depende, sus partes (identificadores, páginas o textos) y el formato guardado. El hash se calcula al crearla y la
+ * representación en texto, en la que cada texto lleva delante su longitud, se genera una sola vez, por lo que dos claves
+ * distintas nunca comparten la misma cadena.
+ *
+ * @author MIMO
+ */
+public final class CacheKey {
+
+    /**
+     * Tipos de espacio de nombres
+     */
+    public enum Kind {
+        /**
+         * Elemento buscado por su id, que es la primera parte de la clave
+         */
+        ID,
+        /**
+         * Elemento buscado por otro campo
+         */
+        ITEM,
+        /**
+         * Listado, cuya clave incluye la versión de la colección
+         */
+        LIST
+    }
+
+    /**
+     * Formatos en los que se guarda un elemento
+     */
+    public enum Format {
+        /**
+         * Vista del modelo
+         */
+        VIEW,
+        /**
+         * Respuesta JSON ya serializada
+         */
+        JSON,
+        /**
+         * Respuesta XML ya serializada
+         */
+        XML
+    }
+
+    /**
+     * Espacios de nombres de la caché con la colección de la que dependen
+     */
+    public enum Namespace {
+        RECIPE(Collection.RECIPES, Kind.ID),
+        RECIPE_BY_TITLE(Collection.RECIPES, Kind.ITEM),
+        RECIPE_LIST(Collection.RECIPES, Kind.LIST),
+        RECIPE_LIST_AFTER(Collection.RECIPES, Kind.LIST),
+        USER_RECIPES(Collection.RECIPES, Kind.LIST),
+        USER_RECIPES_AFTER(Collection.RECIPES, Kind.LIST),
+        CATEGORY_RECIPES(Collection.RECIPES, Kind.LIST),
+        CATEGORY_RECIPES_AFTER(Collection.RECIPES, Kind.LIST),
+        CATEGORY(Collection.CATEGORIES, Kind.ID),
+        CATEGORY_LIST(Collection.CATEGORIES, Kind.LIST),
+        CATEGORY_LIST_AFTER(Collection.CATEGORIES, Kind.LIST),
+        USER(Collection.USERS, Kind.ID),
+        USER_BY_NICK(Collection.USERS, Kind.ITEM),
+        USER_LIST(Collection.USERS, Kind.LIST),
+        USER_LIST_AFTER(Collection.USERS, Kind.LIST),
+        USERS_BY_NAME(Collection.USERS, Kind.LIST),
+        USERS_BY_SURNAME(Collection.USERS, Kind.LIST),
+        USERS_BY_FULL_NAME(Collection.USERS, Kind.LIST),
+        USERS_BY_CITY(Collection.USERS, Kind.LIST),
+        ADMIN_LIST(Collection.USERS, Kind.LIST);
+
+        /**
+         * Colección de la que depende
+         */
+        private final Collection collection;
+
+        /**
+         * Tipo de espacio de nombres
+         */
+        private final Kind kind;
+
+        /**
+         * Constructor de Namespace
+         *
+         * @param collection Colección de la que depende
+         * @param kind       Tipo de espacio de nombres
+         */
+        Namespace(Collection collection, Kind kind) {
+            this.collection = collection;
+            this.kind = kind;
+        }
+
+        /**
+         * Getter de collection
+         *
+         * @return Colección de la que depende
+         */
+        public Collection getCollection() {
+            return collection;
+        }
+
+        /**
+         * Getter de kind
+         *
+         * @return Tipo de espacio de nombres
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Método que indica si el espacio de nombres corresponde a un listado
+         *
+         * @return Verdadero si es un listado
+         */
+        public boolean isList() {
+            return kind == Kind.LIST;
+        }
+    }
+
+    /**
+     * Espacio de nombres
+     */
+    private final Namespace namespace;
+
+    /**
+     * Versión de la colección de la que depende el listado. Sólo forma parte de la clave en los listados.
+     */
+    private final long version;
+
+    /**
+     * Versión de la colección al crear la clave, que se usa para invalidar los elementos que no existen
+     */
+    private final long collectionVersion;
+
+    /**
+     * Partes de la clave
+     */
+    private final Object[] parts;
+
+    /**
+     * Formato guardado
+     */
+    private final Format format;
+
+    /**
+     * Hash precalculado
+     */
+    private final int hash;
+
+    /**
+     * Representación en texto, que se genera la primera vez que se necesita
+     */
+    private String text;
+
+    /**
+     * Constructor de CacheKey
+     *
+     * @param namespace         Espacio de nombres
+     * @param collectionVersion Versión de la colección
+     * @param parts             Partes de la clave
+     * @param format            Formato guardado
+     */
+    CacheKey(Namespace namespace, long collectionVersion, Object[] parts, Format format) {
+        this.namespace = namespace;
+        this.collectionVersion = collectionVersion;
+        this.version = namespace.isList() ? collectionVersion : 0L;
+        this.parts = parts;
+        this.format = format;
+        int h = namespace.hashCode();
+        h = 31 * h + Long.hashCode(version);
+        h = 31 * h + Arrays.hashCode(parts);
+        this.hash = 31 * h + format.ordinal();
+    }
+
+    /**
+     * Método que devuelve la clave de la respuesta JSON correspondiente a esta clave
+     *
+     * @return La clave de la respuesta JSON
+     */
+    public CacheKey json() {
+        return as(Format.JSON);
+    }
+
+    /**
+     * Método que devuelve la clave de la respuesta XML correspondiente a esta clave
+     *
+     * @return La clave de la respuesta XML
+     */
+    public CacheKey xml() {
+        return as(Format.XML);
+    }
+
+    /**
+     * Método que devuelve la clave de esta misma clave en otro formato
+     *
+     * @param format El formato
+     * @return La clave en ese formato
+     */
+    public CacheKey as(Format format) {
+        return this.format == format ? this : new CacheKey(namespace, collectionVersion, parts, format);
+    }
+
+    /**
+     * Getter de namespace
+     *
+     * @return Espacio de nombres
+     */
+    public Namespace getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * Getter de collectionVersion
+     *
+     * @return Versión de la colección al crear la clave
+     */
+    public long getCollectionVersion() {
+        return collectionVersion;
+    }
+
+    /**
+     * Método que devuelve una parte de la clave
+     *
+     * @param index Posición de la parte
+     * @return La parte
+     */
+    public Object part(int index) {
+        return parts[index];
+    }
+
+    /**
+     * Método que indica si la clave corresponde a la respuesta JSON
+     *
+     * @return Verdadero si es la clave de la respuesta JSON
+     */
+    public boolean isJson() {
+        return format == Format.JSON;
+    }
+
+    /**
+     * Getter de format
+     *
+     * @return Formato guardado
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CacheKey)) {
+            return false;
+        }
+        CacheKey other = (CacheKey) o;
+        return hash == other.hash && namespace == other.namespace && version == other.version && format == other.format
+                && Arrays.equals(parts, other.parts);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Representación en texto de la clave, que es la que se usa en la caché. Los textos se escriben precedidos de su
+     * longitud para que ningún valor pueda confundirse con el separador.
+     *
+     * @return La clave en texto
+     */
+    @Override
+    public String toString() {
+        String result = text;
+        if (result == null) {
+            StringBuilder sb = new StringBuilder(32).append(namespace.name()).append('@').append(version);
+            for (Object part : parts) {
+                sb.append('|');
+                if (part instanceof Number) {
+                    sb.append(part);
+                } else if (part == null) {
+                    sb.append('-');
+                } else {
+                    String s = part.toString();
+                    sb.append(s.length()).append(':').append(s);
+                }
+            }
+            if (format != Format.VIEW) {
+                sb.append('|').append(format.name().toLowerCase());
+            }
+            result = sb.toString();
+            text = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,65 @@
+package services;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Singleton;
+
+/**
+ * Versiones de las colecciones del API que se usan para invalidar los listados guardados en caché. La versión forma
+ * parte de la clave de cada listado: al modificar una colección se incrementa su versión, de modo que las peticiones
+ * siguientes usan claves nuevas y las antiguas caducan sin que haya que recorrer la caché.
+ *
+ * @author MIMO
+ */
+@Singleton
+public class CollectionVersions {
+
+    /**
+     * Colecciones cuyos listados se guardan en caché
+     */
+    public enum Collection {
+        RECIPES, CATEGORIES, USERS
+    }
+
+    /**
+     * Tiempo de vida en segundos de los listados en caché. Puede ser largo porque la versión los invalida.
+     */
+    public static final int LIST_TTL = 60 * 60 * 6;
+
+    /**
+     * Versión actual de cada colección
+     */
+    private final Map<Collection, AtomicLong> versions = new EnumMap<>(Collection.class);
+
+    /**
+     * Constructor de CollectionVersions
+     */
+    public CollectionVersions() {
+        for (Collection collection : Collection.values()) {
+            versions.put(collection, new AtomicLong());
+        }
+    }
+
+    /**
+     * Versión actual de una colección. Forma parte de las claves de sus listados.
+     *
+     * @param collection La colección
+     * @return La versión
+     */
+    public long current(Collection collection) {
+        return versions.get(collection).get();
+    }
+
+    /**
+     * Método que invalida los listados de las colecciones modificadas. Se llama después de confirmar la transacción.
+     *
+     * @param collections Colecciones modificadas
+     */
+    public void bump(Collection... collections) {
+        for (Collection collection : collections) {
+            versions.get(collection).incrementAndGet();
+        }
+    }
+}
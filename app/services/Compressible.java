@@ -0,0 +1,17 @@
+package services;
+
+/**
+ * Elemento de la caché que puede guardar también una copia comprimida de sí mismo. La caché lo comprime una sola vez al
+ * guardarlo, de modo que los aciertos no gastan CPU en comprimir.
+ *
+ * @author MIMO
+ */
+public interface Compressible {
+
+    /**
+     * Método que genera las copias comprimidas si el elemento alcanza un tamaño mínimo
+     *
+     * @param threshold Tamaño mínimo en bytes por debajo del cual no se comprime
+     */
+    void compress(long threshold);
+}
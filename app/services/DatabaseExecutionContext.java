@@ -0,0 +1,132 @@
+package services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import akka.actor.ActorSystem;
+import play.libs.concurrent.CustomExecutionContext;
+import play.libs.concurrent.HttpExecution;
+
+/**
+ * Contexto de ejecución de las acciones que consultan la base de datos. Usa el dispatcher database.dispatcher, un grupo
+ * fijo de hilos del mismo tamaño que el pool de conexiones, de modo que las consultas bloqueantes no ocupan los hilos
+ * de Play que atienden el resto de peticiones.
+ * <p>
+ * Las lecturas se intentan primero en el hilo de la petición: si todo lo que necesitan está en caché la respuesta se
+ * completa sin cambiar de hilo, y si hace falta la base de datos se abandona el intento y la acción se repite entera
+ * en este contexto.
+ *
+ * @author MIMO
+ */
+@Singleton
+public class DatabaseExecutionContext extends CustomExecutionContext {
+
+    /**
+     * Verdadero mientras se intenta una lectura en el hilo de la petición
+     */
+    private static final ThreadLocal<Boolean> INLINE = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    /**
+     * Contadores que se incrementan cuando termina la lectura que se está intentando en el hilo de la petición
+     */
+    private static final ThreadLocal<List<LongAdder>> PENDING = ThreadLocal.withInitial(ArrayList::new);
+
+    /**
+     * Constructor de DatabaseExecutionContext
+     *
+     * @param actorSystem Sistema de actores de Play, que crea el dispatcher
+     */
+    @Inject
+    public DatabaseExecutionContext(ActorSystem actorSystem) {
+        super(actorSystem, "database.dispatcher");
+    }
+
+    /**
+     * Método que ejecuta una acción en el contexto de la base de datos. Se conserva el contexto HTTP de la petición.
+     *
+     * @param action La acción
+     * @param <T>    Tipo del resultado
+     * @return El resultado de la acción
+     */
+    public <T> CompletionStage<T> supply(Supplier<T> action) {
+        return CompletableFuture.supplyAsync(action, HttpExecution.fromThread((Executor) this));
+    }
+
+    /**
+     * Método que ejecuta una acción de lectura sin cambiar de hilo si todo lo que necesita está en caché y en el
+     * contexto de la base de datos en caso contrario. Las respuestas JSON y XML se generan a partir de vistas
+     * inmutables, que nunca cargan relaciones, por lo que ambas pueden completarse en el hilo de la petición. La acción
+     * no debe modificar nada antes de llamar a requireDatabase, ya que puede ejecutarse dos veces.
+     *
+     * @param action La acción
+     * @param <T>    Tipo del resultado
+     * @return El resultado de la acción
+     */
+    public <T> CompletionStage<T> supplyCached(Supplier<T> action) {
+        INLINE.set(Boolean.TRUE);
+        try {
+            return CompletableFuture.completedFuture(action.get());
+        } catch (DatabaseRequired e) {
+            //El intento se repite entero, así que lo que ha contado no vale
+            PENDING.get().clear();
+            return supply(action);
+        } finally {
+            INLINE.set(Boolean.FALSE);
+            List<LongAdder> pending = PENDING.get();
+            for (LongAdder counter : pending) {
+                counter.increment();
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * Método que incrementa un contador de la acción. Si se está intentando una lectura en el hilo de la petición, no se
+     * incrementa hasta que termine, para no contar dos veces lo que ocurra antes de que se repita.
+     *
+     * @param counter El contador
+     */
+    public static void count(LongAdder counter) {
+        if (INLINE.get()) {
+            PENDING.get().add(counter);
+        } else {
+            counter.increment();
+        }
+    }
+
+    /**
+     * Método que se llama antes de consultar la base de datos. Si se está intentando una lectura en el hilo de la
+     * petición, la abandona para que se repita en el contexto de la base de datos.
+     */
+    public static void requireDatabase() {
+        if (INLINE.get()) {
+            throw DatabaseRequired.INSTANCE;
+        }
+    }
+
+    /**
+     * Excepción que interrumpe una lectura que necesita la base de datos. No guarda la traza porque no es un error.
+     */
+    private static final class DatabaseRequired extends RuntimeException {
+
+        /**
+         * Única instancia
+         */
+        private static final DatabaseRequired INSTANCE = new DatabaseRequired();
+
+        /**
+         * Constructor de DatabaseRequired
+         */
+        private DatabaseRequired() {
+            super("database required", null, false, false);
+        }
+    }
+}
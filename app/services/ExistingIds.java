@@ -0,0 +1,199 @@
+package services;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import models.Category;
+import models.Recipe;
+import models.User;
+import play.api.db.evolutions.ApplicationEvolutions;
+import services.CollectionVersions.Collection;
+
+/**
+ * Mapa de bits con los identificadores existentes de cada colección. Permite responder a las búsquedas por id de
+ * elementos que no existen sin consultar la base de datos: se carga al arrancar la aplicación y se mantiene actualizado
+ * desde las operaciones que crean o borran recetas, categorías y usuarios. Ocupa un bit por identificador hasta el
+ * mayor id existente.
+ * <p>
+ * Las consultas no usan bloqueos, porque se hacen en cada lectura de la caché: los bits se guardan en un
+ * AtomicLongArray que sólo se sustituye, ya copiado, cuando hay que ampliarlo o recargarlo. Las escrituras se
+ * sincronizan entre sí.
+ *
+ * @author MIMO
+ */
+@Singleton
+public class ExistingIds {
+
+    /**
+     * Identificadores existentes de cada colección
+     */
+    private final Map<Collection, Bits> ids = new EnumMap<>(Collection.class);
+
+    /**
+     * Constructor del mapa. Depende de las evoluciones para asegurar que el esquema existe antes de cargarlo.
+     *
+     * @param evolutions Evoluciones de la base de datos ya aplicadas
+     */
+    @Inject
+    public ExistingIds(ApplicationEvolutions evolutions) {
+        this();
+        reload();
+    }
+
+    /**
+     * Constructor de un mapa vacío
+     */
+    public ExistingIds() {
+        for (Collection collection : Collection.values()) {
+            ids.put(collection, new Bits());
+        }
+    }
+
+    /**
+     * Método que carga los identificadores de todas las colecciones de la base de datos
+     */
+    public void reload() {
+        load(Collection.RECIPES, Recipe.find.query().findIds());
+        load(Collection.CATEGORIES, Category.find.query().findIds());
+        load(Collection.USERS, User.find.query().findIds());
+    }
+
+    /**
+     * Método que sustituye los identificadores de una colección
+     *
+     * @param collection La colección
+     * @param list       Identificadores existentes
+     */
+    private void load(Collection collection, List<Long> list) {
+        long max = -1;
+        for (Long id : list) {
+            if (fits(id)) {
+                max = Math.max(max, id);
+            }
+        }
+        AtomicLongArray words = new AtomicLongArray(Bits.length(max));
+        for (Long id : list) {
+            if (fits(id)) {
+                int bit = id.intValue();
+                words.set(bit >>> 6, words.get(bit >>> 6) | 1L << bit);
+            }
+        }
+        synchronized (this) {
+            ids.get(collection).words = words;
+        }
+    }
+
+    /**
+     * Método que indica si un elemento puede existir. Los identificadores que no caben en el mapa se consideran
+     * existentes para que se busquen en la base de datos.
+     *
+     * @param collection La colección
+     * @param id         Id del elemento
+     * @return Falso si se sabe que el elemento no existe
+     */
+    public boolean mayExist(Collection collection, Long id) {
+        return !fits(id) || ids.get(collection).get(id.intValue());
+    }
+
+    /**
+     * Método que añade un elemento recién creado
+     *
+     * @param collection La colección
+     * @param id         Id del elemento
+     */
+    public synchronized void add(Collection collection, Long id) {
+        if (fits(id)) {
+            ids.get(collection).set(id.intValue());
+        }
+    }
+
+    /**
+     * Método que elimina un elemento borrado
+     *
+     * @param collection La colección
+     * @param id         Id del elemento
+     */
+    public synchronized void remove(Collection collection, Long id) {
+        if (fits(id)) {
+            ids.get(collection).clear(id.intValue());
+        }
+    }
+
+    /**
+     * Método que elimina varios elementos borrados, por ejemplo las recetas borradas en cascada
+     *
+     * @param collection La colección
+     * @param list       Identificadores de los elementos
+     */
+    public synchronized void removeAll(Collection collection, Iterable<Long> list) {
+        for (Long id : list) {
+            remove(collection, id);
+        }
+    }
+
+    /**
+     * Método que comprueba si un identificador cabe en el mapa de bits
+     *
+     * @param id El identificador
+     * @return Verdadero si está entre 0 y Integer.MAX_VALUE
+     */
+    private static boolean fits(Long id) {
+        return id != null && id >= 0 && id <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Bits de una colección. Se leen sin bloqueos; set y clear sólo se llaman con el bloqueo de ExistingIds.
+     */
+    private static final class Bits {
+
+        /**
+         * Palabras de 64 bits. Al ampliarlas se copia el contenido en un array nuevo antes de publicarlo.
+         */
+        private volatile AtomicLongArray words = new AtomicLongArray(0);
+
+        /**
+         * Método que calcula el número de palabras necesario para guardar un bit
+         *
+         * @param bit El mayor bit, o -1 si no hay ninguno
+         * @return Número de palabras
+         */
+        static int length(long bit) {
+            return (int) ((bit >>> 6) + 1);
+        }
+
+        boolean get(int bit) {
+            AtomicLongArray current = words;
+            int word = bit >>> 6;
+            return word < current.length() && (current.get(word) & 1L << bit) != 0;
+        }
+
+        void set(int bit) {
+            AtomicLongArray current = words;
+            int word = bit >>> 6;
+            if (word >= current.length()) {
+                //Se amplía al doble para que los ids consecutivos no copien el array cada vez
+                AtomicLongArray grown = new AtomicLongArray(Math.max(word + 1,
+                        (int) Math.min(2L * current.length(), Integer.MAX_VALUE / 64 + 1)));
+                for (int i = 0; i < current.length(); i++) {
+                    grown.set(i, current.get(i));
+                }
+                current = grown;
+            }
+            current.set(word, current.get(word) | 1L << bit);
+            words = current;
+        }
+
+        void clear(int bit) {
+            AtomicLongArray current = words;
+            int word = bit >>> 6;
+            if (word < current.length()) {
+                current.set(word, current.get(word) & ~(1L << bit));
+            }
+        }
+    }
+}
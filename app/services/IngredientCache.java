@@ -0,0 +1,89 @@
+package services;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.inject.Singleton;
+
+import models.Ingredient;
+
+/**
+ * Caché que asocia cada par nombre/unidades con el id del ingrediente guardado, para no buscar en la base de datos los
+ * ingredientes que ya se han usado al guardar recetas. Cuando se llena se descartan los ingredientes usados hace más
+ * tiempo. Es un singleton de la aplicación, por lo que se vacía al arrancarla con otra base de datos.
+ *
+ * @author MIMO
+ */
+@Singleton
+public class IngredientCache {
+
+    /**
+     * Número máximo de ingredientes que se guardan en la caché
+     */
+    public static final int CACHE_SIZE = 10000;
+
+    /**
+     * Id de cada ingrediente por su clave
+     */
+    private final Map<String, Long> canonical = Collections.synchronizedMap(
+            new LinkedHashMap<String, Long>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    /**
+     * Método que obtiene el id de un ingrediente guardado
+     *
+     * @param name  Nombre del ingrediente
+     * @param units Unidades del ingrediente
+     * @return El id o null si no está en la caché
+     */
+    public Long get(String name, String units) {
+        return canonical.get(key(name, units));
+    }
+
+    /**
+     * Método que añade un ingrediente guardado a la caché
+     *
+     * @param ingredient El ingrediente
+     */
+    public void put(Ingredient ingredient) {
+        if (ingredient.getId() != null) {
+            canonical.put(key(ingredient.getIngredientName(), ingredient.getUnits()), ingredient.getId());
+        }
+    }
+
+    /**
+     * Método que añade a la caché los ingredientes de una receta ya guardada. Se llama después de confirmar la
+     * transacción para no guardar ids de ingredientes cuya inserción se ha deshecho.
+     *
+     * @param ingredients Ingredientes guardados
+     */
+    public void remember(Collection<Ingredient> ingredients) {
+        for (Ingredient ingredient : ingredients) {
+            put(ingredient);
+        }
+    }
+
+    /**
+     * Método que vacía la caché
+     */
+    public void clear() {
+        canonical.clear();
+    }
+
+    /**
+     * Método que crea la clave de un ingrediente en la caché
+     *
+     * @param name  Nombre del ingrediente
+     * @param units Unidades del ingrediente
+     * @return La clave
+     */
+    private static String key(String name, String units) {
+        return name + '\u0000' + units;
+    }
+}
@@ -0,0 +1,277 @@
+package services;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import io.ebean.Ebean;
+import io.ebean.meta.MetaQueryPlanStatistic;
+import services.CacheKey.Namespace;
+
+/**
+ * Métricas del API en el formato de texto de Prometheus: la latencia de cada ruta, las respuestas de cada ruta por
+ * código de estado, los aciertos y fallos de cada espacio de nombres de la caché, el tiempo de las consultas de Ebean
+ * por entidad y el estado del pool de conexiones.
+ * <p>
+ * El registro de una petición no usa bloqueos: la latencia se guarda en un Recorder de HdrHistogram y los contadores
+ * son LongAdder. Los histogramas acumulados sólo se actualizan al generar las métricas.
+ *
+ * @author MIMO
+ */
+@Singleton
+public class Metrics {
+
+    /**
+     * Tipo de contenido del formato de texto de Prometheus
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Cifras significativas de los histogramas de latencia
+     */
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    /**
+     * Percentiles que se publican de cada ruta
+     */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * Métricas de cada ruta, por método y patrón
+     */
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Caché del API, de la que se leen los aciertos y fallos
+     */
+    private final ApiCache cache;
+
+    /**
+     * Métricas del pool de conexiones
+     */
+    private final PoolMetrics pool;
+
+    /**
+     * Constructor de Metrics
+     *
+     * @param cache Caché del API
+     * @param pool  Métricas del pool de conexiones
+     */
+    @Inject
+    public Metrics(ApiCache cache, PoolMetrics pool) {
+        this.cache = cache;
+        this.pool = pool;
+    }
+
+    /**
+     * Método que registra una petición atendida
+     *
+     * @param method  Método HTTP de la ruta
+     * @param route   Patrón de la ruta
+     * @param status  Código de estado de la respuesta
+     * @param elapsed Nanosegundos desde que llegó la petición hasta que se generó la respuesta
+     */
+    public void record(String method, String route, int status, long elapsed) {
+        String key = method + " " + route;
+        Route metrics = routes.get(key);
+        if (metrics == null) {
+            metrics = routes.computeIfAbsent(key, k -> new Route(method, route));
+        }
+        metrics.record(status, elapsed);
+    }
+
+    /**
+     * Método que genera todas las métricas
+     *
+     * @return Las métricas en el formato de texto de Prometheus
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        Map<String, Route> sorted = new TreeMap<>(routes);
+
+        out.append("# HELP http_server_requests_seconds Latency of each route until the response is ready\n");
+        out.append("# TYPE http_server_requests_seconds summary\n");
+        for (Route route : sorted.values()) {
+            route.writeLatency(out);
+        }
+
+        out.append("# HELP http_server_responses_total Responses of each route by status code\n");
+        out.append("# TYPE http_server_responses_total counter\n");
+        for (Route route : sorted.values()) {
+            route.writeStatuses(out);
+        }
+
+        out.append("# HELP api_cache_requests_total Cache lookups of each namespace by result\n");
+        out.append("# TYPE api_cache_requests_total counter\n");
+        for (Namespace namespace : Namespace.values()) {
+            String labels = "namespace=\"" + namespace.name() + "\",result=";
+            sample(out, "api_cache_requests_total", labels + "\"hit\"", cache.hits(namespace));
+            sample(out, "api_cache_requests_total", labels + "\"miss\"", cache.misses(namespace));
+        }
+
+        writeQueries(out);
+        pool.write(out);
+        return out.toString();
+    }
+
+    /**
+     * Método que añade el número y el tiempo de las consultas de Ebean, sumando las de cada entidad
+     *
+     * @param out Las métricas
+     */
+    private static void writeQueries(StringBuilder out) {
+        Map<String, long[]> byType = new TreeMap<>();
+        for (MetaQueryPlanStatistic plan : Ebean.getDefaultServer().getMetaInfoManager().collectQueryPlanStatistics(false)) {
+            long[] totals = byType.computeIfAbsent(plan.getBeanType().getSimpleName(), k -> new long[3]);
+            totals[0] += plan.getExecutionCount();
+            totals[1] += plan.getTotalTimeMicros();
+            totals[2] = Math.max(totals[2], plan.getMaxTimeMicros());
+        }
+        out.append("# HELP ebean_queries_total ORM queries executed for each entity\n");
+        out.append("# TYPE ebean_queries_total counter\n");
+        for (Map.Entry<String, long[]> type : byType.entrySet()) {
+            sample(out, "ebean_queries_total", "type=\"" + type.getKey() + "\"", type.getValue()[0]);
+        }
+        out.append("# HELP ebean_query_seconds_total Time spent in the ORM queries of each entity\n");
+        out.append("# TYPE ebean_query_seconds_total counter\n");
+        for (Map.Entry<String, long[]> type : byType.entrySet()) {
+            sample(out, "ebean_query_seconds_total", "type=\"" + type.getKey() + "\"", seconds(type.getValue()[1]));
+        }
+        out.append("# HELP ebean_query_seconds_max Slowest ORM query of each entity\n");
+        out.append("# TYPE ebean_query_seconds_max gauge\n");
+        for (Map.Entry<String, long[]> type : byType.entrySet()) {
+            sample(out, "ebean_query_seconds_max", "type=\"" + type.getKey() + "\"", seconds(type.getValue()[2]));
+        }
+    }
+
+    /**
+     * Método que añade una muestra
+     *
+     * @param out    Las métricas
+     * @param name   Nombre de la métrica
+     * @param labels Etiquetas ya formateadas
+     * @param value  Valor de la muestra
+     */
+    static void sample(StringBuilder out, String name, String labels, Object value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    /**
+     * Método que convierte microsegundos en segundos
+     *
+     * @param micros Microsegundos
+     * @return Segundos
+     */
+    private static double seconds(long micros) {
+        return micros / 1e6;
+    }
+
+    /**
+     * Método que escapa el valor de una etiqueta
+     *
+     * @param value El valor
+     * @return El valor escapado
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Métricas de una ruta
+     */
+    private static final class Route {
+
+        /**
+         * Etiquetas de la ruta ya formateadas
+         */
+        private final String labels;
+
+        /**
+         * Latencias en microsegundos registradas desde la última lectura
+         */
+        private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+
+        /**
+         * Latencias acumuladas desde el arranque, que sólo se modifican al generar las métricas
+         */
+        private final Histogram total = new Histogram(SIGNIFICANT_DIGITS);
+
+        /**
+         * Histograma que se reutiliza en cada lectura del Recorder
+         */
+        private Histogram interval;
+
+        /**
+         * Suma de las latencias en nanosegundos
+         */
+        private final LongAdder sum = new LongAdder();
+
+        /**
+         * Respuestas por código de estado
+         */
+        private final ConcurrentMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        /**
+         * Constructor de Route
+         *
+         * @param method Método HTTP
+         * @param route  Patrón de la ruta
+         */
+        Route(String method, String route) {
+            this.labels = "method=\"" + escape(method) + "\",route=\"" + escape(route) + "\"";
+        }
+
+        /**
+         * Método que registra una petición
+         *
+         * @param status  Código de estado
+         * @param elapsed Latencia en nanosegundos
+         */
+        void record(int status, long elapsed) {
+            recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(elapsed));
+            sum.add(elapsed);
+            LongAdder count = statuses.get(status);
+            if (count == null) {
+                count = statuses.computeIfAbsent(status, k -> new LongAdder());
+            }
+            count.increment();
+        }
+
+        /**
+         * Método que añade los percentiles, la suma y el número de peticiones
+         *
+         * @param out Las métricas
+         */
+        synchronized void writeLatency(StringBuilder out) {
+            interval = recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            for (double quantile : QUANTILES) {
+                sample(out, "http_server_requests_seconds", labels + ",quantile=\"" + quantile + "\"",
+                        seconds(total.getValueAtPercentile(quantile * 100)));
+            }
+            sample(out, "http_server_requests_seconds_sum", labels, sum.sum() / 1e9);
+            sample(out, "http_server_requests_seconds_count", labels, total.getTotalCount());
+        }
+
+        /**
+         * Método que añade las respuestas por código de estado
+         *
+         * @param out Las métricas
+         */
+        void writeStatuses(StringBuilder out) {
+            for (Map.Entry<Integer, LongAdder> status : new TreeMap<>(statuses).entrySet()) {
+                sample(out, "http_server_responses_total", labels + ",status=\"" + status.getKey() + "\"",
+                        status.getValue().sum());
+            }
+        }
+    }
+}
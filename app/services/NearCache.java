@@ -0,0 +1,331 @@
+package services;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import models.PageView;
+import services.CacheKey.Namespace;
+
+/**
+ * Primer nivel de la caché del API, en la memoria del proceso. Se divide por espacio de nombres y cada espacio tiene su
+ * propio tiempo de vida y su peso máximo, de modo que la memoria total está acotada por la suma de los pesos máximos y
+ * un espacio con mucho tráfico no expulsa a los demás. Dentro de cada espacio se descartan primero los elementos que no
+ * se han usado recientemente, con un reloj que aproxima el orden de uso sin bloquear las lecturas.
+ * <p>
+ * El peso es una estimación del tamaño en memoria: las respuestas ya serializadas pesan sus bytes y las vistas
+ * de los modelos ENTITY_WEIGHT cada una, también dentro de los listados.
+ *
+ * @author MIMO
+ */
+public class NearCache {
+
+    /**
+     * Peso estimado de la vista de un modelo en memoria
+     */
+    public static final long ENTITY_WEIGHT = 1024;
+
+    /**
+     * Tiempo de vida por defecto de los elementos que no son listados
+     */
+    public static final long ITEM_TTL = TimeUnit.HOURS.toSeconds(1);
+
+    /**
+     * Peso máximo por defecto de cada espacio de nombres
+     */
+    public static final long MAX_WEIGHT = 8L * 1024 * 1024;
+
+    /**
+     * Ruta de la configuración de los espacios de nombres
+     */
+    private static final String CONFIG_PATH = "api.cache.namespaces";
+
+    /**
+     * Segmento de cada espacio de nombres
+     */
+    private final Map<Namespace, Segment> segments = new EnumMap<>(Namespace.class);
+
+    /**
+     * Constructor de NearCache
+     *
+     * @param ttls       Tiempo de vida en segundos de cada espacio de nombres
+     * @param maxWeights Peso máximo de cada espacio de nombres
+     */
+    public NearCache(Map<Namespace, Long> ttls, Map<Namespace, Long> maxWeights) {
+        for (Namespace namespace : Namespace.values()) {
+            segments.put(namespace, new Segment(TimeUnit.SECONDS.toNanos(ttls.get(namespace)), maxWeights.get(namespace)));
+        }
+    }
+
+    /**
+     * Método que crea la caché con los valores por defecto: los listados viven CollectionVersions.LIST_TTL segundos, el
+     * resto ITEM_TTL, y cada espacio pesa como máximo MAX_WEIGHT
+     *
+     * @return La caché
+     */
+    public static NearCache withDefaults() {
+        Map<Namespace, Long> ttls = new EnumMap<>(Namespace.class);
+        Map<Namespace, Long> maxWeights = new EnumMap<>(Namespace.class);
+        for (Namespace namespace : Namespace.values()) {
+            ttls.put(namespace, namespace.isList() ? (long) CollectionVersions.LIST_TTL : ITEM_TTL);
+            maxWeights.put(namespace, MAX_WEIGHT);
+        }
+        return new NearCache(ttls, maxWeights);
+    }
+
+    /**
+     * Método que crea la caché a partir de api.cache.namespaces. Cada espacio de nombres toma ttl y maxWeight de su
+     * propia sección (por ejemplo api.cache.namespaces.RECIPE), después de la sección list si es un listado y por
+     * último de la sección default.
+     *
+     * @param config Configuración de la aplicación
+     * @return La caché
+     */
+    public static NearCache fromConfig(Config config) {
+        if (!config.hasPath(CONFIG_PATH)) {
+            return withDefaults();
+        }
+        Config namespaces = config.getConfig(CONFIG_PATH);
+        Config defaults = namespaces.hasPath("default") ? namespaces.getConfig("default") : ConfigFactory.empty();
+        Config lists = namespaces.hasPath("list") ? namespaces.getConfig("list").withFallback(defaults) : defaults;
+        Map<Namespace, Long> ttls = new EnumMap<>(Namespace.class);
+        Map<Namespace, Long> maxWeights = new EnumMap<>(Namespace.class);
+        for (Namespace namespace : Namespace.values()) {
+            Config base = namespace.isList() ? lists : defaults;
+            Config own = namespaces.hasPath(namespace.name()) ? namespaces.getConfig(namespace.name()).withFallback(base) : base;
+            ttls.put(namespace, own.hasPath("ttl") ? own.getDuration("ttl", TimeUnit.SECONDS)
+                    : namespace.isList() ? (long) CollectionVersions.LIST_TTL : ITEM_TTL);
+            maxWeights.put(namespace, own.hasPath("maxWeight") ? own.getBytes("maxWeight") : MAX_WEIGHT);
+        }
+        return new NearCache(ttls, maxWeights);
+    }
+
+    /**
+     * Tiempo de vida de un espacio de nombres
+     *
+     * @param namespace El espacio de nombres
+     * @return Tiempo de vida en nanosegundos
+     */
+    public long ttl(Namespace namespace) {
+        return segments.get(namespace).ttl;
+    }
+
+    /**
+     * Método que obtiene un elemento
+     *
+     * @param key La clave
+     * @return El elemento o null si no está o ha caducado
+     */
+    public Object get(CacheKey key) {
+        return segments.get(key.getNamespace()).get(key);
+    }
+
+    /**
+     * Método que guarda un elemento con el tiempo de vida de su espacio de nombres
+     *
+     * @param key    La clave
+     * @param value  El elemento
+     * @param weight Peso del elemento
+     */
+    public void put(CacheKey key, Object value, long weight) {
+        segments.get(key.getNamespace()).put(key, value, weight);
+    }
+
+    /**
+     * Método que borra un elemento
+     *
+     * @param key La clave
+     */
+    public void remove(CacheKey key) {
+        segments.get(key.getNamespace()).remove(key);
+    }
+
+    /**
+     * Peso actual de un espacio de nombres
+     *
+     * @param namespace El espacio de nombres
+     * @return La suma de los pesos de sus elementos
+     */
+    public long weight(Namespace namespace) {
+        return segments.get(namespace).weight();
+    }
+
+    /**
+     * Método que estima el peso de un elemento
+     *
+     * @param value El elemento
+     * @return Peso estimado en bytes
+     */
+    public static long weigh(Object value) {
+        if (value instanceof Weighted) {
+            return ((Weighted) value).weight();
+        }
+        if (value instanceof PageView) {
+            return ENTITY_WEIGHT * (1 + ((PageView<?>) value).getList().size());
+        }
+        if (value instanceof Collection) {
+            return ENTITY_WEIGHT * (1 + ((Collection<?>) value).size());
+        }
+        return ENTITY_WEIGHT;
+    }
+
+    /**
+     * Elementos de un espacio de nombres. Las lecturas no usan bloqueos: un acierto sólo marca el elemento como usado.
+     * Al superar el peso máximo, un reloj recorre los elementos: los marcados pierden la marca y se conservan, y los no
+     * marcados se descartan, de modo que se descartan primero los que no se han usado desde la última pasada.
+     */
+    private static final class Segment {
+
+        /**
+         * Tiempo de vida en nanosegundos
+         */
+        private final long ttl;
+
+        /**
+         * Peso máximo
+         */
+        private final long maxWeight;
+
+        /**
+         * Elementos por clave
+         */
+        private final ConcurrentHashMap<CacheKey, Entry> entries = new ConcurrentHashMap<>();
+
+        /**
+         * Suma de los pesos de los elementos
+         */
+        private final AtomicLong weight = new AtomicLong();
+
+        /**
+         * Posición del reloj, que sólo se usa con el bloqueo del segmento
+         */
+        private Iterator<Map.Entry<CacheKey, Entry>> hand = Collections.emptyIterator();
+
+        /**
+         * Constructor de Segment
+         *
+         * @param ttl       Tiempo de vida en nanosegundos
+         * @param maxWeight Peso máximo
+         */
+        Segment(long ttl, long maxWeight) {
+            this.ttl = ttl;
+            this.maxWeight = maxWeight;
+        }
+
+        Object get(CacheKey key) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt - System.nanoTime() < 0) {
+                if (entries.remove(key, entry)) {
+                    weight.addAndGet(-entry.weight);
+                }
+                return null;
+            }
+            //Sólo se escribe si cambia, para no invalidar la línea de caché en cada acierto
+            if (!entry.used) {
+                entry.used = true;
+            }
+            return entry.value;
+        }
+
+        void put(CacheKey key, Object value, long weight) {
+            //Un elemento que no cabe en el espacio no se guarda
+            if (weight > maxWeight) {
+                remove(key);
+                return;
+            }
+            Entry entry = new Entry(value, weight, System.nanoTime() + ttl);
+            Entry previous = entries.put(key, entry);
+            if (this.weight.addAndGet(weight - (previous == null ? 0 : previous.weight)) > maxWeight) {
+                evict(entry);
+            }
+        }
+
+        void remove(CacheKey key) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                weight.addAndGet(-entry.weight);
+            }
+        }
+
+        long weight() {
+            return weight.get();
+        }
+
+        /**
+         * Método que descarta elementos hasta volver al peso máximo. Sólo las escrituras que superan el peso llegan aquí.
+         *
+         * @param added Elemento recién guardado, que no se descarta
+         */
+        private synchronized void evict(Entry added) {
+            //Dos vueltas bastan: en la primera se quitan todas las marcas
+            int restarts = 0;
+            while (weight.get() > maxWeight && restarts <= 2) {
+                if (!hand.hasNext()) {
+                    hand = entries.entrySet().iterator();
+                    restarts++;
+                    continue;
+                }
+                Map.Entry<CacheKey, Entry> next = hand.next();
+                Entry entry = next.getValue();
+                if (entry == added) {
+                    continue;
+                }
+                if (entry.used) {
+                    entry.used = false;
+                } else if (entries.remove(next.getKey(), entry)) {
+                    weight.addAndGet(-entry.weight);
+                }
+            }
+        }
+    }
+
+    /**
+     * Elemento guardado con su peso y su instante de caducidad
+     */
+    private static final class Entry {
+
+        /**
+         * El elemento
+         */
+        private final Object value;
+
+        /**
+         * Peso del elemento
+         */
+        private final long weight;
+
+        /**
+         * Instante de caducidad, en nanosegundos de System.nanoTime
+         */
+        private final long expiresAt;
+
+        /**
+         * Verdadero si se ha leído desde la última pasada del reloj
+         */
+        private volatile boolean used;
+
+        /**
+         * Constructor de Entry
+         *
+         * @param value     El elemento
+         * @param weight    Peso del elemento
+         * @param expiresAt Instante de caducidad
+         */
+        Entry(Object value, long weight, long expiresAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package services;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import play.db.Database;
+
+/**
+ * Métricas del pool de conexiones HikariCP de la base de datos: conexiones activas, libres y totales, hilos esperando
+ * una conexión, tiempo de espera para obtenerla, tiempo que se usa y esperas agotadas. Se registra en el pool al
+ * arrancar, por lo que debe crearse como singleton inmediato. Si la base de datos no usa HikariCP no publica nada.
+ *
+ * @author MIMO
+ */
+@Singleton
+public class PoolMetrics implements MetricsTrackerFactory {
+
+    /**
+     * Cifras significativas del histograma de espera
+     */
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    /**
+     * Percentiles que se publican del tiempo de espera
+     */
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    /**
+     * Pool de conexiones, o null si no es HikariCP
+     */
+    private final HikariDataSource pool;
+
+    /**
+     * Estado del pool que actualiza HikariCP
+     */
+    private volatile PoolStats stats;
+
+    /**
+     * Esperas para obtener una conexión en microsegundos registradas desde la última lectura
+     */
+    private final Recorder acquire = new Recorder(SIGNIFICANT_DIGITS);
+
+    /**
+     * Esperas acumuladas desde el arranque, que sólo se modifican al generar las métricas
+     */
+    private final Histogram acquired = new Histogram(SIGNIFICANT_DIGITS);
+
+    /**
+     * Histograma que se reutiliza en cada lectura del Recorder
+     */
+    private Histogram interval;
+
+    /**
+     * Suma de las esperas en nanosegundos
+     */
+    private final LongAdder acquireSum = new LongAdder();
+
+    /**
+     * Suma del tiempo de uso de las conexiones en milisegundos
+     */
+    private final LongAdder usageSum = new LongAdder();
+
+    /**
+     * Esperas que han superado connectionTimeout
+     */
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * Constructor de PoolMetrics
+     *
+     * @param database Base de datos por defecto
+     */
+    @Inject
+    public PoolMetrics(Database database) {
+        this.pool = hikari(database.getDataSource());
+        if (pool != null) {
+            pool.setMetricsTrackerFactory(this);
+        }
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.stats = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquire.recordValue(TimeUnit.NANOSECONDS.toMicros(elapsedAcquiredNanos));
+                acquireSum.add(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usageSum.add(elapsedBorrowedMillis);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    /**
+     * Método que añade las métricas del pool
+     *
+     * @param out Las métricas
+     */
+    synchronized void write(StringBuilder out) {
+        PoolStats current = stats;
+        if (pool == null || current == null) {
+            return;
+        }
+        String labels = "pool=\"" + pool.getPoolName() + "\"";
+
+        out.append("# HELP db_pool_connections Connections of the database pool by state\n");
+        out.append("# TYPE db_pool_connections gauge\n");
+        Metrics.sample(out, "db_pool_connections", labels + ",state=\"active\"", current.getActiveConnections());
+        Metrics.sample(out, "db_pool_connections", labels + ",state=\"idle\"", current.getIdleConnections());
+        Metrics.sample(out, "db_pool_connections", labels + ",state=\"total\"", current.getTotalConnections());
+        out.append("# HELP db_pool_connections_max Maximum size of the database pool\n");
+        out.append("# TYPE db_pool_connections_max gauge\n");
+        Metrics.sample(out, "db_pool_connections_max", labels, pool.getMaximumPoolSize());
+        out.append("# HELP db_pool_pending_threads Threads waiting for a connection\n");
+        out.append("# TYPE db_pool_pending_threads gauge\n");
+        Metrics.sample(out, "db_pool_pending_threads", labels, current.getPendingThreads());
+
+        interval = acquire.getIntervalHistogram(interval);
+        acquired.add(interval);
+        out.append("# HELP db_pool_acquire_seconds Time waited to get a connection from the pool\n");
+        out.append("# TYPE db_pool_acquire_seconds summary\n");
+        for (double quantile : QUANTILES) {
+            Metrics.sample(out, "db_pool_acquire_seconds", labels + ",quantile=\"" + quantile + "\"",
+                    acquired.getValueAtPercentile(quantile * 100) / 1e6);
+        }
+        Metrics.sample(out, "db_pool_acquire_seconds_sum", labels, acquireSum.sum() / 1e9);
+        Metrics.sample(out, "db_pool_acquire_seconds_count", labels, acquired.getTotalCount());
+        out.append("# HELP db_pool_usage_seconds_total Time the connections have been borrowed from the pool\n");
+        out.append("# TYPE db_pool_usage_seconds_total counter\n");
+        Metrics.sample(out, "db_pool_usage_seconds_total", labels, usageSum.sum() / 1e3);
+        out.append("# HELP db_pool_timeouts_total Requests for a connection that exceeded connectionTimeout\n");
+        out.append("# TYPE db_pool_timeouts_total counter\n");
+        Metrics.sample(out, "db_pool_timeouts_total", labels, timeouts.sum());
+    }
+
+    /**
+     * Método que obtiene el pool HikariCP de un DataSource
+     *
+     * @param dataSource El DataSource
+     * @return El pool o null si no es HikariCP
+     */
+    private static HikariDataSource hikari(DataSource dataSource) {
+        try {
+            return dataSource.isWrapperFor(HikariDataSource.class) ? dataSource.unwrap(HikariDataSource.class) : null;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+
+import io.ebean.Ebean;
+import io.ebean.Transaction;
+import models.Category;
+import models.Ingredient;
+import models.Recipe;
+import models.User;
+import play.data.Form;
+import play.data.FormFactory;
+import play.i18n.Messages;
+import play.libs.Json;
+
+/**
+ * Importación de recetas en bloque. Recibe una receta en JSON por línea, valida cada una con las mismas reglas que la
+ * creación individual y las guarda por bloques: cada bloque se guarda en una transacción, con las inserciones agrupadas
+ * en lotes JDBC. Las categorías, los títulos existentes y los ingredientes se buscan con una consulta por bloque en
+ * lugar de una por receta. Si un bloque falla se guarda por mitades, para importar el resto de recetas e informar sólo de
+ * las que fallan. Las líneas que no se pueden importar se informan con su número y su error.
+ *
+ * @author MIMO
+ */
+@Singleton
+public class RecipeImport {
+
+    /**
+     * Número de sentencias de cada lote JDBC por defecto
+     */
+    public static final int BATCH_SIZE = 500;
+
+    /**
+     * Número de recetas de cada transacción por defecto
+     */
+    public static final int CHUNK_SIZE = 2000;
+
+    /**
+     * Número máximo de errores que se incluyen en el informe
+     */
+    public static final int MAX_ERRORS = 1000;
+
+    /**
+     * Factoría de formularios para validar las recetas
+     */
+    private final FormFactory formFactory;
+
+    /**
+     * Número de sentencias de cada lote JDBC
+     */
+    private final int batchSize;
+
+    /**
+     * Número de recetas de cada transacción
+     */
+    private final int chunkSize;
+
+    /**
+     * Caché de ingredientes ya guardados
+     */
+    private final IngredientCache ingredientCache;
+
+    /**
+     * Constructor de RecipeImport
+     *
+     * @param formFactory     Factoría de formularios
+     * @param config          Configuración de la aplicación, de la que se leen api.import.batchSize y api.import.chunkSize
+     * @param ingredientCache Caché de ingredientes ya guardados
+     */
+    @Inject
+    public RecipeImport(FormFactory formFactory, Config config, IngredientCache ingredientCache) {
+        this.formFactory = formFactory;
+        this.ingredientCache = ingredientCache;
+        this.batchSize = config.hasPath("api.import.batchSize") ? config.getInt("api.import.batchSize") : BATCH_SIZE;
+        this.chunkSize = config.hasPath("api.import.chunkSize") ? config.getInt("api.import.chunkSize") : CHUNK_SIZE;
+    }
+
+    /**
+     * Método que importa las recetas de un texto con una receta en JSON por línea
+     *
+     * @param lines    Las líneas
+     * @param user     Usuario al que pertenecen las recetas
+     * @param messages Mensajes en el idioma de la petición
+     * @param imported Acción que se ejecuta con las recetas de cada bloque después de confirmarlo
+     * @return El informe de la importación
+     */
+    public Report run(BufferedReader lines, User user, Messages messages, Consumer<List<Recipe>> imported) {
+
+        Report report = new Report();
+        Set<String> titles = new HashSet<>();
+        List<Row> chunk = new ArrayList<>(chunkSize);
+        try {
+            String line;
+            int number = 0;
+            while ((line = lines.readLine()) != null) {
+                number++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                report.received++;
+                Row row = parse(number, line, user, messages, report);
+                if (row == null) {
+                    continue;
+                }
+                //Los títulos repetidos dentro de la importación se detectan en memoria
+                if (!titles.add(row.recipe.getTitle())) {
+                    report.fail(row.line, messages.at("recipe.alreadyExist"));
+                    continue;
+                }
+                chunk.add(row);
+                if (chunk.size() == chunkSize) {
+                    save(chunk, messages, report, imported);
+                    chunk.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!chunk.isEmpty()) {
+            save(chunk, messages, report, imported);
+        }
+        report.finish();
+        return report;
+    }
+
+    /**
+     * Método que convierte una línea en una receta y la valida
+     *
+     * @return La receta o null si la línea tiene errores, que se añaden al informe
+     */
+    private Row parse(int number, String line, User user, Messages messages, Report report) {
+
+        JsonNode node;
+        try {
+            node = Json.parse(line);
+        } catch (RuntimeException e) {
+            node = null;
+        }
+        if (node == null || !node.isObject()) {
+            report.fail(number, messages.at("recipe.invalidLine"));
+            return null;
+        }
+        Form<Recipe> f = formFactory.form(Recipe.class).bind(node);
+        if (f.hasErrors()) {
+            report.fail(number, f.errorsAsJson());
+            return null;
+        }
+        Recipe recipe = f.get();
+        if (recipe.getCategory() == null || recipe.getCategory().getId() == null) {
+            report.fail(number, messages.at("category.notExist"));
+            return null;
+        }
+        recipe.setTitle(recipe.getTitle().toUpperCase());
+        recipe.setUser(user);
+        return new Row(number, node, recipe);
+    }
+
+    /**
+     * Método que guarda un bloque de recetas en una transacción. Antes descarta las recetas cuya categoría no existe o
+     * cuyo título ya está guardado.
+     */
+    private void save(List<Row> chunk, Messages messages, Report report, Consumer<List<Recipe>> imported) {
+
+        //Categorías y títulos existentes del bloque, con una consulta cada uno
+        Set<Long> categoryIds = new HashSet<>();
+        List<String> titles = new ArrayList<>(chunk.size());
+        for (Row row : chunk) {
+            categoryIds.add(row.recipe.getCategory().getId());
+            titles.add(row.recipe.getTitle());
+        }
+        Map<Long, Category> categories = new HashMap<>();
+        for (Category category : Category.find.query().where().idIn(new ArrayList<>(categoryIds)).findList()) {
+            categories.put(category.getId(), category);
+        }
+        Set<String> existing = new HashSet<>(Recipe.find.query().select("title").where().in("title", titles)
+                .findSingleAttributeList());
+
+        List<Row> rows = new ArrayList<>(chunk.size());
+        for (Row row : chunk) {
+            Category category = categories.get(row.recipe.getCategory().getId());
+            if (category == null) {
+                report.fail(row.line, messages.at("category.notExist"));
+            } else if (existing.contains(row.recipe.getTitle())) {
+                report.fail(row.line, messages.at("recipe.alreadyExist"));
+            } else {
+                row.recipe.setCategory(category);
+                rows.add(row);
+            }
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        insert(rows, messages, report, imported);
+    }
+
+    /**
+     * Método que guarda un bloque de recetas ya comprobadas en una transacción. Si falla, se guarda por mitades hasta
+     * aislar las recetas que no se pueden guardar, que se informan con el error de la base de datos.
+     */
+    private void insert(List<Row> rows, Messages messages, Report report, Consumer<List<Recipe>> imported) {
+
+        List<Recipe> recipes = new ArrayList<>(rows.size());
+        List<List<Ingredient>> ingredients = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            recipes.add(row.recipe);
+            ingredients.add(row.recipe.getIngredients());
+        }
+        RuntimeException failure = null;
+        Transaction transaction = Ebean.beginTransaction();
+        try {
+            transaction.setBatchMode(true);
+            transaction.setBatchSize(batchSize);
+            Ingredient.resolveLists(ingredients, ingredientCache);
+            Ebean.saveAll(recipes);
+            Ebean.commitTransaction();
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            Ebean.endTransaction();
+        }
+        if (failure != null) {
+            if (rows.size() == 1) {
+                report.fail(rows.get(0).line, messages.at("recipe.importFailed", cause(failure)));
+                return;
+            }
+            //Las recetas de la transacción deshecha pueden tener ids que no existen, así que se crean de nuevo
+            List<Row> retried = new ArrayList<>(rows.size());
+            for (Row row : rows) {
+                retried.add(rebind(row));
+            }
+            int half = retried.size() / 2;
+            insert(retried.subList(0, half), messages, report, imported);
+            insert(retried.subList(half, retried.size()), messages, report, imported);
+            return;
+        }
+        for (List<Ingredient> list : ingredients) {
+            ingredientCache.remember(list);
+        }
+        report.imported += recipes.size();
+        imported.accept(recipes);
+    }
+
+    /**
+     * Método que crea de nuevo la receta de una fila a partir de su JSON, con el mismo usuario y la misma categoría
+     *
+     * @param row La fila
+     * @return La fila con la nueva receta
+     */
+    private Row rebind(Row row) {
+        Recipe recipe = formFactory.form(Recipe.class).bind(row.node).get();
+        recipe.setTitle(recipe.getTitle().toUpperCase());
+        recipe.setUser(row.recipe.getUser());
+        recipe.setCategory(row.recipe.getCategory());
+        return new Row(row.line, row.node, recipe);
+    }
+
+    /**
+     * Método que obtiene el mensaje de la causa original de un error
+     *
+     * @param e El error
+     * @return El mensaje
+     */
+    private static String cause(Throwable e) {
+        while (e.getCause() != null && e.getCause() != e) {
+            e = e.getCause();
+        }
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    /**
+     * Receta leída de una línea
+     */
+    private static final class Row {
+
+        /**
+         * Número de línea
+         */
+        private final int line;
+
+        /**
+         * JSON de la línea
+         */
+        private final JsonNode node;
+
+        /**
+         * La receta
+         */
+        private final Recipe recipe;
+
+        /**
+         * Constructor de Row
+         *
+         * @param line   Número de línea
+         * @param node   JSON de la línea
+         * @param recipe La receta
+         */
+        Row(int line, JsonNode node, Recipe recipe) {
+            this.line = line;
+            this.node = node;
+            this.recipe = recipe;
+        }
+    }
+
+    /**
+     * Informe de una importación: recetas recibidas, importadas y erróneas, errores por línea y rendimiento
+     */
+    public static final class Report {
+
+        /**
+         * Instante de inicio en nanosegundos
+         */
+        private final long start = System.nanoTime();
+
+        /**
+         * Duración en nanosegundos
+         */
+        private long elapsed;
+
+        /**
+         * Recetas recibidas
+         */
+        private int received;
+
+        /**
+         * Recetas importadas
+         */
+        private int imported;
+
+        /**
+         * Recetas con errores
+         */
+        private int failed;
+
+        /**
+         * Errores de las primeras MAX_ERRORS líneas erróneas
+         */
+        private final ArrayNode errors = Json.newArray();
+
+        /**
+         * Método que añade el error de una línea
+         *
+         * @param line  Número de línea
+         * @param error Mensaje de error
+         */
+        private void fail(int line, String error) {
+            fail(line, Json.toJson(error));
+        }
+
+        /**
+         * Método que añade los errores de una línea
+         *
+         * @param line  Número de línea
+         * @param error Errores de validación
+         */
+        private void fail(int line, JsonNode error) {
+            failed++;
+            if (errors.size() < MAX_ERRORS) {
+                ObjectNode node = errors.addObject();
+                node.put("line", line);
+                node.set("error", error);
+            }
+        }
+
+        /**
+         * Método que marca el final de la importación
+         */
+        private void finish() {
+            elapsed = System.nanoTime() - start;
+        }
+
+        /**
+         * Getter de imported
+         *
+         * @return Recetas importadas
+         */
+        public int getImported() {
+            return imported;
+        }
+
+        /**
+         * Getter de failed
+         *
+         * @return Recetas con errores
+         */
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * Método que devuelve el informe en JSON
+         *
+         * @return El informe
+         */
+        public JsonNode toJson() {
+            double seconds = elapsed / 1e9;
+            ObjectNode node = Json.newObject();
+            node.put("received", received);
+            node.put("imported", imported);
+            node.put("failed", failed);
+            node.put("seconds", seconds);
+            node.put("recipesPerSecond", seconds > 0 ? Math.round(imported / seconds) : imported);
+            node.set("errors", errors);
+            return node;
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package services;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.ebean.FetchConfig;
+import io.ebean.QueryIterator;
+import models.Ingredient;
+import models.Recipe;
+import play.api.db.evolutions.ApplicationEvolutions;
+
+/**
+ * Índice invertido en memoria para la búsqueda de recetas por texto. Indexa el título, los ingredientes, los pasos y la
+ * categoría de cada receta, admite búsqueda por prefijo y ordena los resultados por relevancia. Se carga al arrancar la
+ * aplicación y se actualiza receta a receta desde las operaciones de escritura.
+ *
+ * Las listas de apariciones son inmutables y se sustituyen al escribir, por lo que las búsquedas no necesitan bloqueos.
+ *
+ * @author MIMO
+ */
+@Singleton
+public class RecipeSearchIndex {
+
+    /**
+     * Peso de cada campo en la relevancia
+     */
+    private static final float TITLE_WEIGHT = 4f;
+    private static final float CATEGORY_WEIGHT = 2f;
+    private static final float INGREDIENT_WEIGHT = 2f;
+    private static final float STEP_WEIGHT = 1f;
+
+    /**
+     * Factor aplicado a los términos que sólo coinciden por prefijo
+     */
+    private static final float PREFIX_FACTOR = 0.5f;
+
+    /**
+     * Número máximo de términos en los que se expande un prefijo
+     */
+    private static final int MAX_PREFIX_TERMS = 64;
+
+    /**
+     * Longitud mínima de un término
+     */
+    private static final int MIN_TERM_LENGTH = 2;
+
+    /**
+     * Longitud mínima de un término de la consulta para buscarlo también como prefijo
+     */
+    private static final int MIN_PREFIX_LENGTH = 3;
+
+    /**
+     * Palabras vacías que no se indexan porque aparecen en casi todas las recetas
+     */
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            "de", "del", "la", "las", "el", "los", "un", "una", "unos", "unas", "y", "o", "en", "con", "sin", "al",
+            "a", "por", "para", "que", "se", "su", "sus", "lo", "le", "les", "es", "muy",
+            "the", "and", "of", "with", "in", "to", "for", "or", "an"));
+
+    /**
+     * Contenido actual del índice. Una carga completa lo sustituye de una vez, por lo que una búsqueda nunca ve el
+     * índice a medio cargar.
+     */
+    private volatile Contents contents = new Contents(new ConcurrentSkipListMap<>(), new ConcurrentHashMap<>());
+
+    /**
+     * Constructor del índice. Depende de las evoluciones para asegurar que el esquema existe antes de cargarlo.
+     *
+     * @param evolutions Evoluciones de la base de datos ya aplicadas
+     */
+    @Inject
+    public RecipeSearchIndex(ApplicationEvolutions evolutions) {
+        rebuild();
+    }
+
+    /**
+     * Constructor de un índice vacío
+     */
+    public RecipeSearchIndex() {
+    }
+
+    /**
+     * Método que vuelve a cargar en el índice todas las recetas de la base de datos
+     */
+    public void rebuild() {
+        try (QueryIterator<Recipe> recipes = Recipe.find.query().fetch("category")
+                .fetch("ingredients", new FetchConfig().query()).orderBy("id").findIterate()) {
+            load(recipes);
+        }
+    }
+
+    /**
+     * Método que sustituye el contenido del índice por las recetas indicadas. Las listas de apariciones se construyen
+     * de una vez en lugar de receta a receta, en mapas nuevos que sustituyen a los anteriores cuando están completos.
+     *
+     * @param recipes Las recetas a indexar
+     */
+    public synchronized void load(Iterator<Recipe> recipes) {
+        Map<String, PostingsBuilder> builders = new HashMap<>();
+        Map<Long, Set<String>> terms = new HashMap<>();
+        while (recipes.hasNext()) {
+            Recipe recipe = recipes.next();
+            Map<String, Float> weights = weigh(recipe);
+            terms.put(recipe.getId(), Collections.unmodifiableSet(new HashSet<>(weights.keySet())));
+            for (Map.Entry<String, Float> entry : weights.entrySet()) {
+                builders.computeIfAbsent(entry.getKey(), t -> new PostingsBuilder()).add(recipe.getId(), entry.getValue());
+            }
+        }
+        ConcurrentSkipListMap<String, Postings> postings = new ConcurrentSkipListMap<>();
+        for (Map.Entry<String, PostingsBuilder> entry : builders.entrySet()) {
+            postings.put(entry.getKey(), entry.getValue().build());
+        }
+        contents = new Contents(postings, new ConcurrentHashMap<>(terms));
+    }
+
+    /**
+     * Método que añade o reemplaza una receta en el índice
+     *
+     * @param recipe La receta guardada
+     */
+    public synchronized void index(Recipe recipe) {
+        Map<String, Float> weights = weigh(recipe);
+        Long id = recipe.getId();
+        ConcurrentSkipListMap<String, Postings> postings = contents.postings;
+        Set<String> previous = contents.documents.put(id, Collections.unmodifiableSet(new HashSet<>(weights.keySet())));
+        if (previous != null) {
+            for (String term : previous) {
+                if (!weights.containsKey(term)) {
+                    removePosting(term, id);
+                }
+            }
+        }
+        for (Map.Entry<String, Float> entry : weights.entrySet()) {
+            Postings current = postings.get(entry.getKey());
+            postings.put(entry.getKey(), current == null
+                    ? Postings.of(id, entry.getValue()) : current.with(id, entry.getValue()));
+        }
+    }
+
+    /**
+     * Método que retira una receta del índice
+     *
+     * @param id Id de la receta
+     */
+    public synchronized void remove(Long id) {
+        Set<String> terms = contents.documents.remove(id);
+        if (terms != null) {
+            for (String term : terms) {
+                removePosting(term, id);
+            }
+        }
+    }
+
+    /**
+     * Método que retira varias recetas del índice
+     *
+     * @param ids Ids de las recetas
+     */
+    public synchronized void removeAll(Collection<Long> ids) {
+        for (Long id : ids) {
+            remove(id);
+        }
+    }
+
+    /**
+     * Método que busca recetas que contengan todos los términos de la consulta. Los términos de tres o más letras
+     * coinciden también como prefijo, con menos peso que la palabra completa.
+     *
+     * @param query  Texto de la búsqueda
+     * @param offset Número de resultados que se saltan
+     * @param limit  Número máximo de resultados que se devuelven
+     * @return Los ids de la página, de mayor a menor relevancia, y el total de coincidencias
+     */
+    public Hits search(String query, int offset, int limit) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        if (terms.isEmpty()) {
+            return Hits.EMPTY;
+        }
+        Contents snapshot = contents;
+        double total = Math.max(1, snapshot.documents.size());
+        Map<Long, Float> scores = null;
+        for (String term : terms) {
+            Map<Long, Float> termScores = new HashMap<>();
+            NavigableMap<String, Postings> matches = term.length() < MIN_PREFIX_LENGTH
+                    ? snapshot.postings.subMap(term, true, term, true)
+                    : snapshot.postings.subMap(term, true, term + Character.MAX_VALUE, true);
+            int expanded = 0;
+            for (Map.Entry<String, Postings> match : matches.entrySet()) {
+                if (expanded++ == MAX_PREFIX_TERMS) {
+                    break;
+                }
+                Postings p = match.getValue();
+                float factor = (float) Math.log(1 + total / p.ids.length);
+                if (!match.getKey().equals(term)) {
+                    factor *= PREFIX_FACTOR;
+                }
+                for (int i = 0; i < p.ids.length; i++) {
+                    if (scores == null) {
+                        termScores.merge(p.ids[i], p.weights[i] * factor, Float::sum);
+                    } else {
+                        Float previous = scores.get(p.ids[i]);
+                        if (previous != null) {
+                            Float current = termScores.get(p.ids[i]);
+                            termScores.put(p.ids[i], (current == null ? previous : current) + p.weights[i] * factor);
+                        }
+                    }
+                }
+            }
+            scores = termScores;
+            if (scores.isEmpty()) {
+                return Hits.EMPTY;
+            }
+        }
+
+        //Sólo se ordenan los resultados necesarios para la página solicitada
+        Comparator<Map.Entry<Long, Float>> byRelevance = (a, b) -> {
+            int byScore = Float.compare(b.getValue(), a.getValue());
+            return byScore != 0 ? byScore : a.getKey().compareTo(b.getKey());
+        };
+        int wanted = (int) Math.min((long) offset + limit, scores.size());
+        PriorityQueue<Map.Entry<Long, Float>> top = new PriorityQueue<>(Math.max(1, wanted), byRelevance.reversed());
+        for (Map.Entry<Long, Float> entry : scores.entrySet()) {
+            if (top.size() < wanted) {
+                top.add(entry);
+            } else if (wanted > 0 && byRelevance.compare(entry, top.peek()) < 0) {
+                top.poll();
+                top.add(entry);
+            }
+        }
+        List<Map.Entry<Long, Float>> ranked = new ArrayList<>(top);
+        ranked.sort(byRelevance);
+        List<Long> ids = new ArrayList<>();
+        for (int i = offset; i < ranked.size(); i++) {
+            ids.add(ranked.get(i).getKey());
+        }
+        return new Hits(ids, scores.size());
+    }
+
+    /**
+     * Número de recetas indexadas
+     *
+     * @return El tamaño del índice
+     */
+    public int size() {
+        return contents.documents.size();
+    }
+
+    /**
+     * Método que divide un texto en términos normalizados: minúsculas, sin tildes y sin palabras vacías
+     *
+     * @param text El texto
+     * @return Los términos en el orden en que aparecen
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}+", "").toLowerCase(Locale.ROOT);
+        for (String term : normalized.split("[^\\p{L}\\p{N}]+")) {
+            if (term.length() >= MIN_TERM_LENGTH && !STOP_WORDS.contains(term)) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    private static Map<String, Float> weigh(Recipe recipe) {
+        Map<String, Float> weights = new HashMap<>();
+        addTerms(weights, recipe.getTitle(), TITLE_WEIGHT);
+        if (recipe.getCategory() != null) {
+            addTerms(weights, recipe.getCategory().getCategoryName(), CATEGORY_WEIGHT);
+        }
+        if (recipe.getIngredients() != null) {
+            for (Ingredient ingredient : recipe.getIngredients()) {
+                addTerms(weights, ingredient.getIngredientName(), INGREDIENT_WEIGHT);
+            }
+        }
+        if (recipe.getSteps() != null) {
+            for (String step : recipe.getSteps()) {
+                addTerms(weights, step, STEP_WEIGHT);
+            }
+        }
+        return weights;
+    }
+
+    private static void addTerms(Map<String, Float> weights, String text, float weight) {
+        for (String term : tokenize(text)) {
+            weights.merge(term, weight, Float::sum);
+        }
+    }
+
+    private void removePosting(String term, Long id) {
+        ConcurrentSkipListMap<String, Postings> postings = contents.postings;
+        Postings current = postings.get(term);
+        if (current != null) {
+            Postings updated = current.without(id);
+            if (updated == null) {
+                postings.remove(term);
+            } else {
+                postings.put(term, updated);
+            }
+        }
+    }
+
+    /**
+     * Listas de apariciones y términos de cada receta de una misma carga del índice
+     */
+    private static final class Contents {
+
+        /**
+         * Apariciones de cada término, ordenadas por término para poder buscar por prefijo
+         */
+        private final ConcurrentSkipListMap<String, Postings> postings;
+
+        /**
+         * Términos de cada receta, necesarios para retirarla del índice
+         */
+        private final ConcurrentHashMap<Long, Set<String>> documents;
+
+        Contents(ConcurrentSkipListMap<String, Postings> postings, ConcurrentHashMap<Long, Set<String>> documents) {
+            this.postings = postings;
+            this.documents = documents;
+        }
+    }
+
+    /**
+     * Resultado de una búsqueda: los ids de la página solicitada y el total de recetas que coinciden
+     */
+    public static final class Hits {
+
+        static final Hits EMPTY = new Hits(Collections.emptyList(), 0);
+
+        private final List<Long> ids;
+        private final int total;
+
+        Hits(List<Long> ids, int total) {
+            this.ids = ids;
+            this.total = total;
+        }
+
+        /**
+         * Getter de ids
+         *
+         * @return Ids de las recetas de la página, de mayor a menor relevancia
+         */
+        public List<Long> getIds() {
+            return ids;
+        }
+
+        /**
+         * Getter de total
+         *
+         * @return Número total de recetas que coinciden con la búsqueda
+         */
+        public int getTotal() {
+            return total;
+        }
+    }
+
+    /**
+     * Lista de apariciones en construcción durante una carga completa del índice
+     */
+    private static final class PostingsBuilder {
+
+        private long[] ids = new long[4];
+        private float[] weights = new float[4];
+        private int size;
+        private boolean sorted = true;
+
+        void add(long id, float weight) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            sorted &= size == 0 || ids[size - 1] < id;
+            ids[size] = id;
+            weights[size] = weight;
+            size++;
+        }
+
+        Postings build() {
+            if (!sorted) {
+                Postings result = null;
+                for (int i = 0; i < size; i++) {
+                    result = result == null ? Postings.of(ids[i], weights[i]) : result.with(ids[i], weights[i]);
+                }
+                return result;
+            }
+            return new Postings(Arrays.copyOf(ids, size), Arrays.copyOf(weights, size));
+        }
+    }
+
+    /**
+     * Apariciones de un término: ids de receta ordenados y el peso del término en cada una
+     */
+    private static final class Postings {
+
+        private final long[] ids;
+        private final float[] weights;
+
+        private Postings(long[] ids, float[] weights) {
+            this.ids = ids;
+            this.weights = weights;
+        }
+
+        static Postings of(long id, float weight) {
+            return new Postings(new long[]{id}, new float[]{weight});
+        }
+
+        Postings with(long id, float weight) {
+            int i = Arrays.binarySearch(ids, id);
+            if (i >= 0) {
+                float[] w = weights.clone();
+                w[i] = weight;
+                return new Postings(ids, w);
+            }
+            int at = -i - 1;
+            long[] newIds = new long[ids.length + 1];
+            float[] newWeights = new float[ids.length + 1];
+            System.arraycopy(ids, 0, newIds, 0, at);
+            System.arraycopy(weights, 0, newWeights, 0, at);
+            newIds[at] = id;
+            newWeights[at] = weight;
+            System.arraycopy(ids, at, newIds, at + 1, ids.length - at);
+            System.arraycopy(weights, at, newWeights, at + 1, ids.length - at);
+            return new Postings(newIds, newWeights);
+        }
+
+        Postings without(long id) {
+            int i = Arrays.binarySearch(ids, id);
+            if (i < 0) {
+                return this;
+            }
+            if (ids.length == 1) {
+                return null;
+            }
+            long[] newIds = new long[ids.length - 1];
+            float[] newWeights = new float[ids.length - 1];
+            System.arraycopy(ids, 0, newIds, 0, i);
+            System.arraycopy(weights, 0, newWeights, 0, i);
+            System.arraycopy(ids, i + 1, newIds, i, ids.length - i - 1);
+            System.arraycopy(weights, i + 1, newWeights, i, ids.length - i - 1);
+            return new Postings(newIds, newWeights);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package services;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+import io.ebean.config.ServerConfig;
+import play.Environment;
+import play.db.DBApi;
+import play.db.ebean.DefaultEbeanConfig;
+import play.db.ebean.EbeanConfig;
+
+/**
+ * Registro de las sentencias SQL lentas. Ocupa el lugar del proveedor de la configuración de Ebean de play-ebean: obtiene
+ * la misma configuración y envuelve el DataSource de cada servidor para medir cada sentencia. Las que superan el umbral
+ * db.&lt;servidor&gt;.slowQueryThreshold se escriben en el logger sql.slow con su duración y su texto, sin los
+ * parámetros. Si el umbral no está configurado o es cero, el DataSource no se envuelve. El umbral se lee de la
+ * configuración de la aplicación, por lo que también se aplica el que se indica al crearla en las pruebas.
+ * <p>
+ * Sustituye a db.default.logSql, que escribe todas las sentencias, en los entornos en los que sólo interesan las lentas.
+ *
+ * @author MIMO
+ */
+@Singleton
+public class SlowQueryLog implements Provider<EbeanConfig> {
+
+    /**
+     * Logger de las sentencias lentas
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger("sql.slow");
+
+    /**
+     * Configuración de la aplicación
+     */
+    private final Config config;
+
+    /**
+     * Proveedor de play-ebean, que lee los modelos de cada servidor y les asigna su base de datos
+     */
+    private final DefaultEbeanConfig.EbeanConfigParser parser;
+
+    /**
+     * Constructor de SlowQueryLog
+     *
+     * @param config      Configuración de la aplicación
+     * @param environment Entorno de la aplicación
+     * @param dbApi       Bases de datos configuradas
+     */
+    @Inject
+    public SlowQueryLog(Config config, Environment environment, DBApi dbApi) {
+        this.config = config;
+        this.parser = new DefaultEbeanConfig.EbeanConfigParser(config, environment, dbApi);
+    }
+
+    @Override
+    public EbeanConfig get() {
+        EbeanConfig ebeanConfig = parser.get();
+        for (ServerConfig serverConfig : ebeanConfig.serverConfigs().values()) {
+            String path = "db." + serverConfig.getName() + ".slowQueryThreshold";
+            if (!config.hasPath(path) || serverConfig.getDataSource() == null) {
+                continue;
+            }
+            long threshold = config.getDuration(path, TimeUnit.NANOSECONDS);
+            if (threshold > 0) {
+                serverConfig.setDataSource(wrap(serverConfig.getDataSource(), threshold));
+                LOGGER.info("Logging statements slower than {} ms on {}", TimeUnit.NANOSECONDS.toMillis(threshold),
+                        serverConfig.getName());
+            }
+        }
+        return ebeanConfig;
+    }
+
+    /**
+     * Método que envuelve un DataSource para registrar las sentencias lentas de sus conexiones
+     *
+     * @param dataSource El DataSource
+     * @param threshold  Duración en nanosegundos a partir de la que se registra una sentencia
+     * @return El DataSource envuelto
+     */
+    public static DataSource wrap(DataSource dataSource, long threshold) {
+        return proxy(DataSource.class, new Handler(dataSource, threshold, null));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(SlowQueryLog.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    /**
+     * Manejador de los proxies del DataSource, de sus conexiones y de sus sentencias. Las conexiones y las sentencias
+     * que devuelve el objeto envuelto se envuelven a su vez, y se mide la duración de los métodos execute de las
+     * sentencias.
+     */
+    private static final class Handler implements InvocationHandler {
+
+        /**
+         * Objeto envuelto
+         */
+        private final Object target;
+
+        /**
+         * Duración en nanosegundos a partir de la que se registra una sentencia
+         */
+        private final long threshold;
+
+        /**
+         * Texto de la sentencia preparada, o null si no es una sentencia preparada
+         */
+        private final String sql;
+
+        Handler(Object target, long threshold, String sql) {
+            this.target = target;
+            this.threshold = threshold;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("equals") && args != null && args.length == 1) {
+                return proxy == args[0];
+            }
+            if (target instanceof Statement && name.startsWith("execute")) {
+                long start = System.nanoTime();
+                try {
+                    return call(method, args);
+                } finally {
+                    long elapsed = System.nanoTime() - start;
+                    if (elapsed >= threshold) {
+                        LOGGER.warn("{} ms: {}", TimeUnit.NANOSECONDS.toMillis(elapsed), sql(args, sql));
+                    }
+                }
+            }
+            Object result = call(method, args);
+            if (result instanceof Connection && target instanceof DataSource) {
+                return proxy(Connection.class, new Handler(result, threshold, null));
+            }
+            if (result instanceof Statement && target instanceof Connection) {
+                Handler handler = new Handler(result, threshold, sql(args, null));
+                if (result instanceof CallableStatement) {
+                    return proxy(CallableStatement.class, handler);
+                }
+                if (result instanceof PreparedStatement) {
+                    return proxy(PreparedStatement.class, handler);
+                }
+                return proxy(Statement.class, handler);
+            }
+            return result;
+        }
+
+        /**
+         * Método que obtiene el texto de la sentencia, que es el primer argumento de prepareStatement y de los métodos
+         * execute de las sentencias no preparadas
+         *
+         * @param args     Argumentos del método
+         * @param prepared Texto de la sentencia preparada
+         * @return El texto
+         */
+        private static String sql(Object[] args, String prepared) {
+            return args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : prepared;
+        }
+
+        /**
+         * Método que llama al objeto envuelto y devuelve la excepción original si falla
+         *
+         * @param method Método llamado
+         * @param args   Argumentos
+         * @return El resultado
+         */
+        private Object call(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
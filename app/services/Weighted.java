@@ -0,0 +1,17 @@
+package services;
+
+/**
+ * Elemento de la caché que conoce su tamaño aproximado en memoria. Los elementos que no implementan esta interfaz se
+ * pesan con una estimación fija por elemento.
+ *
+ * @author MIMO
+ */
+public interface Weighted {
+
+    /**
+     * Tamaño aproximado del elemento
+     *
+     * @return Número de bytes
+     */
+    long weight();
+}
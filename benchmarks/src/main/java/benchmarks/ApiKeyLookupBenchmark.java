@@ -0,0 +1,59 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import models.User;
+import play.Application;
+import play.test.Helpers;
+import services.ApiKeyIndex;
+
+/**
+ * Compara la resolución de una clave API con las dos consultas de User.findByApiKey frente al índice en memoria
+ * que usa Authorization.getUsername.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ApiKeyLookupBenchmark {
+
+    @Param({"100", "10000"})
+    public int users;
+
+    private Application app;
+    private ApiKeyIndex index;
+    private String[] keys;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        app = Fixtures.startApplication();
+        keys = Fixtures.seedUsers(users);
+        index = app.injector().instanceOf(ApiKeyIndex.class);
+        index.reload();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Helpers.stop(app);
+    }
+
+    private String nextKey() {
+        next = (next + 1) % keys.length;
+        return keys[next];
+    }
+
+    @Benchmark
+    public User twoQueryLookup() {
+        return User.findByApiKey(nextKey());
+    }
+
+    @Benchmark
+    public ApiKeyIndex.Entry indexLookup() {
+        return index.lookup(nextKey());
+    }
+}
@@ -0,0 +1,71 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import controllers.Authorization;
+import play.Application;
+import play.mvc.Http;
+import play.test.Helpers;
+import services.ApiKeyIndex;
+
+/**
+ * Coste de Authorization.getUsername, que se ejecuta en cada petición autenticada: con una clave existente, con una
+ * clave que no existe y sin cabecera Authorization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AuthorizationBenchmark {
+
+    @Param({"10000"})
+    public int users;
+
+    private Application app;
+    private Authorization authorization;
+    private Http.Context validKey;
+    private Http.Context unknownKey;
+    private Http.Context noHeader;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        app = Fixtures.startApplication();
+        String[] keys = Fixtures.seedUsers(users);
+        app.injector().instanceOf(ApiKeyIndex.class).reload();
+        validKey = context(keys[users / 2]);
+        unknownKey = context("0000000000000000");
+        noHeader = Helpers.httpContext(Helpers.fakeRequest().build());
+        //Authorization lee los mensajes del contexto actual al crearse
+        Http.Context.current.set(noHeader);
+        authorization = app.injector().instanceOf(Authorization.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Http.Context.current.remove();
+        Helpers.stop(app);
+    }
+
+    private static Http.Context context(String apiKey) {
+        return Helpers.httpContext(Helpers.fakeRequest().header("Authorization", apiKey).build());
+    }
+
+    @Benchmark
+    public String validKey() {
+        return authorization.getUsername(validKey);
+    }
+
+    @Benchmark
+    public String unknownKey() {
+        return authorization.getUsername(unknownKey);
+    }
+
+    @Benchmark
+    public String noHeader() {
+        return authorization.getUsername(noHeader);
+    }
+}
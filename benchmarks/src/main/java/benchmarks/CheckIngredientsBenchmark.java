@@ -0,0 +1,81 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import io.ebean.Ebean;
+import models.Ingredient;
+import models.Recipe;
+import play.Application;
+import play.test.Helpers;
+import services.IngredientCache;
+
+/**
+ * Coste de Recipe.checkIngredients contra H2 en memoria al guardar una receta cuyos ingredientes ya existen, con la
+ * caché de ingredientes llena y vacía. Cada invocación se ejecuta en una transacción que se deshace, por lo que la base
+ * de datos no cambia entre invocaciones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CheckIngredientsBenchmark {
+
+    /**
+     * Número de ingredientes de la receta
+     */
+    @Param({"5", "30"})
+    public int ingredients;
+
+    /**
+     * Verdadero para encontrar los ingredientes en la caché; falso para buscarlos en la base de datos
+     */
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private Application app;
+    private IngredientCache cache;
+    private Recipe recipe;
+    private List<Ingredient> list;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        app = Fixtures.startApplication();
+        cache = app.injector().instanceOf(IngredientCache.class);
+        Fixtures.seedUsers(1);
+        Fixtures.seedRecipes(app, 1, ingredients);
+        recipe = Fixtures.sampleRecipe(0, ingredients);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare() {
+        if (!cached) {
+            cache.clear();
+        }
+        list = new ArrayList<>(ingredients);
+        for (int i = 0; i < ingredients; i++) {
+            list.add(new Ingredient("Ingrediente " + i, "Gramos"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Helpers.stop(app);
+    }
+
+    @Benchmark
+    public List<Ingredient> checkIngredients() {
+        Ebean.beginTransaction();
+        try {
+            recipe.checkIngredients(list, cache);
+            return list;
+        } finally {
+            Ebean.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.ebean.Ebean;
+import io.ebean.Transaction;
+import models.Category;
+import models.Difficulty;
+import models.Ingredient;
+import models.Recipe;
+import models.User;
+import play.Application;
+import play.test.Helpers;
+import services.IngredientCache;
+
+/**
+ * Utilidades para arrancar la aplicación sobre una base de datos H2 en memoria y poblarla con datos de prueba
+ */
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * Método que arranca la aplicación con una base de datos en memoria. Las evoluciones se aplican al arrancar.
+     *
+     * @return La aplicación arrancada
+     */
+    public static Application startApplication() {
+        Application app = Helpers.fakeApplication(Helpers.inMemoryDatabase());
+        Helpers.start(app);
+        return app;
+    }
+
+    /**
+     * Método que crea usuarios con su clave API
+     *
+     * @param count Número de usuarios
+     * @return Las claves API generadas, en el orden de creación
+     */
+    public static String[] seedUsers(int count) {
+        String[] keys = new String[count];
+        Transaction transaction = Ebean.beginTransaction();
+        try {
+            transaction.setBatchMode(true);
+            transaction.setBatchSize(500);
+            for (int i = 0; i < count; i++) {
+                User user = new User("user" + i, "Name", "Surname", "City");
+                user.setAdmin(i == 0);
+                user.generateApiKey();
+                user.save();
+                keys[i] = user.getApiKey().getKey();
+            }
+            Ebean.commitTransaction();
+        } finally {
+            Ebean.endTransaction();
+        }
+        return keys;
+    }
+
+    /**
+     * Método que crea una categoría con recetas del primer usuario. Debe llamarse después de seedUsers.
+     *
+     * @param app         La aplicación arrancada, de la que se obtiene la caché de ingredientes
+     * @param count       Número de recetas
+     * @param ingredients Número de ingredientes de cada receta
+     */
+    public static void seedRecipes(Application app, int count, int ingredients) {
+        IngredientCache cache = app.injector().instanceOf(IngredientCache.class);
+        Category category = new Category("POSTRES");
+        category.save();
+        User user = User.findById(1L);
+        for (int i = 0; i < count; i++) {
+            Recipe recipe = sampleRecipe(0, ingredients);
+            recipe.setId(null);
+            recipe.setTitle("TARTA DE QUESO " + i);
+            for (Ingredient ingredient : recipe.getIngredients()) {
+                ingredient.setId(null);
+            }
+            recipe.setCategory(category);
+            recipe.setUser(user);
+            recipe.checkRecipe(cache);
+        }
+    }
+
+    /**
+     * Método que crea categorías vacías además de la de seedRecipes
+     *
+     * @param count Número de categorías
+     */
+    public static void seedCategories(int count) {
+        for (int i = 0; i < count; i++) {
+            new Category("CATEGORIA " + i).save();
+        }
+    }
+
+    /**
+     * Método que construye una receta completa sin guardarla en la base de datos
+     *
+     * @param id          Identificador de la receta
+     * @param ingredients Número de ingredientes
+     * @return La receta
+     */
+    public static Recipe sampleRecipe(long id, int ingredients) {
+        List<Ingredient> list = new ArrayList<>();
+        List<String> steps = new ArrayList<>();
+        for (int i = 0; i < ingredients; i++) {
+            Ingredient ingredient = new Ingredient("Ingrediente " + i, "gramos");
+            ingredient.setId((long) i + 1);
+            list.add(ingredient);
+            steps.add("Paso " + i + ": mezclar el ingrediente " + i + " con el resto y remover durante dos minutos");
+        }
+        Category category = new Category("POSTRES");
+        category.setId(1L);
+        Recipe recipe = new Recipe("TARTA DE QUESO " + id, list, steps, "45 minutos", Difficulty.INTERMEDIA, "6", category);
+        recipe.setId(id);
+        User user = new User("user" + id, "Name", "Surname", "City");
+        user.setId(1L);
+        recipe.setUser(user);
+        return recipe;
+    }
+}
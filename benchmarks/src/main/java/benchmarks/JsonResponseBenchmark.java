@@ -0,0 +1,65 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import controllers.CachedBody;
+import models.Recipe;
+import play.libs.Json;
+import play.mvc.Result;
+import play.mvc.Results;
+
+/**
+ * Coste de un acierto de caché en las respuestas JSON: el camino anterior, que guardaba el JsonNode y llamaba a
+ * Json.prettyPrint en cada petición, frente a CachedBody, que guarda los bytes ya serializados.
+ *
+ * Para obtener las cifras de memoria reservada por operación: sbt "benchmarks/jmh:run -prof gc JsonResponseBenchmark"
+ * (columna gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class JsonResponseBenchmark {
+
+    /**
+     * Una receta (/recipe/:id) o una página de diez (/recipes?page=N)
+     */
+    @Param({"1", "10"})
+    public int recipes;
+
+    private JsonNode node;
+    private CachedBody body;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Recipe> list = new ArrayList<>();
+        for (int i = 0; i < recipes; i++) {
+            list.add(Fixtures.sampleRecipe(i + 1, 10));
+        }
+        node = recipes == 1 ? Json.toJson(list.get(0)) : Json.toJson(list);
+        body = CachedBody.json(node);
+    }
+
+    @Benchmark
+    public Result prettyPrintHit() {
+        return Results.ok(Json.prettyPrint(node));
+    }
+
+    @Benchmark
+    public Result cachedBodyHit() {
+        return Results.ok().sendEntity(body.entity(false));
+    }
+
+    @Benchmark
+    public Result cachedBodyPrettyHit() {
+        return Results.ok().sendEntity(body.entity(true));
+    }
+}
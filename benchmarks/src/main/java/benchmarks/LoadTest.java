@@ -0,0 +1,405 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import io.ebean.Ebean;
+import io.ebean.Transaction;
+import play.Application;
+import play.test.Helpers;
+import play.test.TestServer;
+import services.ApiKeyIndex;
+import services.ExistingIds;
+import services.RecipeSearchIndex;
+
+/**
+ * Prueba de carga de extremo a extremo: arranca la aplicación en un servidor HTTP embebido sobre H2 en memoria, la
+ * puebla con usuarios, categorías y recetas y la somete durante un tiempo fijo a una mezcla de peticiones de
+ * conf/routes desde varios clientes concurrentes. Al terminar informa, por tipo de petición y en total, de las
+ * peticiones por segundo, los errores y los percentiles 50, 99 y 99,9 de la latencia, y del número de sentencias
+ * ejecutadas en la base de datos. No necesita ningún servicio externo, por lo que sirve para comparar dos versiones.
+ *
+ * Uso: sbt loadtest (alias de "benchmarks/runMain benchmarks.LoadTest"). Propiedades: load.users, load.categories,
+ * load.recipes (datos iniciales), load.clients (clientes concurrentes), load.warmup y load.seconds (duración del
+ * calentamiento y de la medida), load.port y load.mix (peso de cada tipo de petición, por ejemplo
+ * "recipe=50,page=20,search=20,create=5,update=5").
+ * <p>
+ * Con el argumento saturation (sbt loadtest-saturation) mide en cambio la latencia de las lecturas servidas desde la
+ * caché (/recipe/:id) primero solas y después mientras otros clientes saturan el pool de la base de datos con
+ * búsquedas por texto, que siempre cargan las recetas de la página. Como las consultas se ejecutan en
+ * database.dispatcher y los aciertos de caché se completan en el hilo de la petición, el p99 de las lecturas en caché
+ * debe mantenerse. Propiedades: load.cached (clientes de las lecturas en caché), load.db (clientes de las búsquedas) y
+ * load.maxRatio (máximo cociente permitido entre los dos p99; si se supera termina con error).
+ */
+public class LoadTest {
+
+    /**
+     * Tipos de petición de la mezcla
+     */
+    private enum Operation {
+        RECIPE, PAGE, SEARCH, CREATE, UPDATE
+    }
+
+    /**
+     * Textos de las búsquedas, que coinciden con los títulos, los ingredientes y los pasos de las recetas de prueba
+     */
+    private static final String[] SEARCHES = {"tarta", "queso", "ingrediente", "mezclar", "tarta queso", "remover"};
+
+    public static void main(String[] args) throws Exception {
+        int users = Integer.getInteger("load.users", 100);
+        int categories = Integer.getInteger("load.categories", 10);
+        int recipes = Integer.getInteger("load.recipes", 1000);
+        int clients = Integer.getInteger("load.clients", 32);
+        int warmup = Integer.getInteger("load.warmup", 5);
+        int seconds = Integer.getInteger("load.seconds", 30);
+        int port = Integer.getInteger("load.port", 19001);
+        Map<Operation, Integer> mix = mix(System.getProperty("load.mix", "recipe=50,page=20,search=20,create=5,update=5"));
+
+        Application app = Helpers.fakeApplication(Helpers.inMemoryDatabase());
+        TestServer server = Helpers.testServer(port, app);
+        server.start();
+        boolean passed = true;
+        try {
+            String[] keys = Fixtures.seedUsers(users);
+            Fixtures.seedRecipes(app, recipes, 10);
+            Fixtures.seedCategories(categories);
+            app.injector().instanceOf(ApiKeyIndex.class).reload();
+            app.injector().instanceOf(ExistingIds.class).reload();
+            app.injector().instanceOf(RecipeSearchIndex.class).rebuild();
+
+            if (args.length > 0 && args[0].equals("saturation")) {
+                passed = saturation("http://localhost:" + port, keys, recipes, categories + 1, warmup, seconds);
+            } else {
+                Load load = new Load("http://localhost:" + port, keys, recipes, categories + 1, clients, mix);
+                System.out.printf("users=%d categories=%d recipes=%d clients=%d mix=%s%n", users, categories + 1,
+                        recipes, clients, mix);
+
+                //El calentamiento no se mide: llena las cachés y deja que el JIT compile
+                load.run(warmup);
+                load.reset();
+                sql("SET QUERY_STATISTICS FALSE");
+                sql("SET QUERY_STATISTICS TRUE");
+
+                load.run(seconds);
+                load.report(seconds, statements());
+            }
+        } finally {
+            server.stop();
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Método que compara el p99 de las lecturas en caché solas y con el pool de la base de datos saturado
+     *
+     * @param base       URL del servidor
+     * @param keys       Claves API de los usuarios
+     * @param recipes    Número de recetas
+     * @param categories Número de categorías
+     * @param warmup     Duración en segundos del calentamiento
+     * @param seconds    Duración en segundos de cada fase
+     * @return Falso si el p99 con el pool saturado supera load.maxRatio veces el p99 sin carga
+     */
+    private static boolean saturation(String base, String[] keys, int recipes, int categories, int warmup, int seconds)
+            throws InterruptedException {
+        int cachedClients = Integer.getInteger("load.cached", 4);
+        int dbClients = Integer.getInteger("load.db", 64);
+        double maxRatio = Double.parseDouble(System.getProperty("load.maxRatio", "3"));
+        Load cached = new Load(base, keys, recipes, categories, cachedClients, mix("recipe=1"));
+        Load db = new Load(base, keys, recipes, categories, dbClients, mix("search=1"));
+        System.out.printf("recipes=%d cached clients=%d db clients=%d%n", recipes, cachedClients, dbClients);
+
+        //El calentamiento guarda todas las recetas en la caché
+        cached.run(warmup);
+        cached.reset();
+
+        cached.run(seconds);
+        Histogram alone = cached.histogram(Operation.RECIPE);
+        long aloneErrors = cached.errors(Operation.RECIPE);
+
+        //Las búsquedas empiezan un segundo antes y terminan después para que el pool esté saturado durante toda la medida
+        Thread background = new Thread(() -> {
+            try {
+                db.run(seconds + 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        background.start();
+        Thread.sleep(1000);
+        cached.run(seconds);
+        Histogram loaded = cached.histogram(Operation.RECIPE);
+        background.join();
+        Histogram searches = db.histogram(Operation.SEARCH);
+
+        Load.line("cached alone", alone, aloneErrors, seconds);
+        Load.line("cached under load", loaded, cached.errors(Operation.RECIPE), seconds);
+        Load.line("db-bound search", searches, db.errors(Operation.SEARCH), seconds + 2);
+        double ratio = loaded.getValueAtPercentile(99) / Math.max(1.0, alone.getValueAtPercentile(99));
+        System.out.printf("cached p99 ratio=%.2f (max %.2f)%n", ratio, maxRatio);
+        return ratio <= maxRatio;
+    }
+
+    /**
+     * Método que lee los pesos de la mezcla de peticiones
+     *
+     * @param spec Pesos en la forma tipo=peso separados por comas
+     * @return Peso de cada tipo de petición
+     */
+    private static Map<Operation, Integer> mix(String spec) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        for (String part : spec.split(",")) {
+            String[] pair = part.trim().split("=");
+            mix.put(Operation.valueOf(pair[0].trim().toUpperCase()), Integer.parseInt(pair[1].trim()));
+        }
+        return mix;
+    }
+
+    /**
+     * Método que ejecuta una sentencia en la base de datos de la aplicación
+     *
+     * @param statement La sentencia
+     */
+    private static void sql(String statement) {
+        try (Transaction transaction = Ebean.beginTransaction();
+             Statement st = transaction.getConnection().createStatement()) {
+            st.execute(statement);
+            transaction.commit();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Método que devuelve las sentencias ejecutadas desde que se activaron las estadísticas de H2, sin contar el control
+     * de transacciones
+     *
+     * @return Número de sentencias
+     */
+    private static long statements() {
+        try (Transaction transaction = Ebean.beginTransaction();
+             Statement st = transaction.getConnection().createStatement();
+             ResultSet rs = st.executeQuery("SELECT COALESCE(SUM(EXECUTION_COUNT), 0)"
+                     + " FROM INFORMATION_SCHEMA.QUERY_STATISTICS"
+                     + " WHERE SQL_STATEMENT NOT IN ('COMMIT', 'ROLLBACK')"
+                     + " AND UPPER(SQL_STATEMENT) NOT LIKE '%QUERY_STATISTICS%'")) {
+            rs.next();
+            return rs.getLong(1);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Clientes que generan la carga y latencias registradas de cada tipo de petición
+     */
+    private static final class Load {
+
+        private final String base;
+        private final String[] keys;
+        private final int recipes;
+        private final int categories;
+        private final int clients;
+        private final Operation[] wheel;
+        private final Map<Operation, Recorder> latencies = new EnumMap<>(Operation.class);
+        private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+
+        Load(String base, String[] keys, int recipes, int categories, int clients, Map<Operation, Integer> mix) {
+            this.base = base;
+            this.keys = keys;
+            this.recipes = recipes;
+            this.categories = categories;
+            this.clients = clients;
+            List<Operation> wheel = new ArrayList<>();
+            for (Map.Entry<Operation, Integer> weight : mix.entrySet()) {
+                for (int i = 0; i < weight.getValue(); i++) {
+                    wheel.add(weight.getKey());
+                }
+            }
+            this.wheel = wheel.toArray(new Operation[0]);
+            for (Operation operation : Operation.values()) {
+                latencies.put(operation, new Recorder(3));
+                errors.put(operation, new LongAdder());
+            }
+        }
+
+        /**
+         * Ejecuta la carga durante un tiempo
+         */
+        void run(int seconds) throws InterruptedException {
+            AtomicBoolean running = new AtomicBoolean(true);
+            CountDownLatch done = new CountDownLatch(clients);
+            for (int i = 0; i < clients; i++) {
+                int client = i;
+                Thread thread = new Thread(() -> {
+                    try {
+                        int sequence = 0;
+                        while (running.get()) {
+                            Operation operation = wheel[ThreadLocalRandom.current().nextInt(wheel.length)];
+                            long start = System.nanoTime();
+                            boolean ok;
+                            try {
+                                ok = execute(operation, client, sequence++);
+                            } catch (IOException e) {
+                                ok = false;
+                            }
+                            latencies.get(operation).recordValue((System.nanoTime() - start) / 1000);
+                            if (!ok) {
+                                errors.get(operation).increment();
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+            }
+            Thread.sleep(seconds * 1000L);
+            running.set(false);
+            done.await();
+        }
+
+        /**
+         * Devuelve y descarta las latencias registradas de un tipo de petición
+         */
+        Histogram histogram(Operation operation) {
+            return latencies.get(operation).getIntervalHistogram();
+        }
+
+        /**
+         * Devuelve y descarta los errores registrados de un tipo de petición
+         */
+        long errors(Operation operation) {
+            return errors.get(operation).sumThenReset();
+        }
+
+        /**
+         * Descarta las latencias y errores registrados
+         */
+        void reset() {
+            for (Operation operation : Operation.values()) {
+                latencies.get(operation).getIntervalHistogram();
+                errors.get(operation).reset();
+            }
+        }
+
+        /**
+         * Ejecuta una petición
+         *
+         * @return Verdadero si la respuesta tiene el código esperado
+         */
+        private boolean execute(Operation operation, int client, int sequence) throws IOException {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            switch (operation) {
+                case RECIPE:
+                    return send("GET", "/recipe/" + (1 + random.nextInt(recipes)), null, null) == 200;
+                case PAGE:
+                    return send("GET", "/recipes?page=" + random.nextInt(Math.max(1, recipes / 10)), null, null) == 200;
+                case SEARCH:
+                    String q = SEARCHES[random.nextInt(SEARCHES.length)].replace(" ", "+");
+                    return send("GET", "/recipes/search?q=" + q + "&page=0", null, null) == 200;
+                case CREATE:
+                    String author = keys[random.nextInt(keys.length)];
+                    return send("POST", "/recipe", author, recipe("CARGA " + client + "-" + sequence, random)) == 201;
+                default:
+                    //Cada cliente edita sus propias recetas para que dos clientes no actualicen la misma a la vez
+                    int count = Math.max(1, (recipes - client + clients - 1) / clients);
+                    long id = 1 + client + (long) clients * random.nextInt(count);
+                    return send("PUT", "/recipe/" + id, keys[0], recipe("EDITADA " + client + "-" + sequence, random)) == 200;
+            }
+        }
+
+        /**
+         * Cuerpo JSON de una receta nueva o actualizada
+         */
+        private String recipe(String title, ThreadLocalRandom random) {
+            return "{\"title\":\"" + title + "\","
+                    + "\"ingredients\":[{\"ingredientName\":\"Ingrediente " + random.nextInt(20) + "\",\"units\":\"gramos\"},"
+                    + "{\"ingredientName\":\"Queso\",\"units\":\"gramos\"}],"
+                    + "\"steps\":[\"Mezclar los ingredientes\",\"Hornear durante treinta minutos\"],"
+                    + "\"time\":\"45 minutos\",\"difficulty\":\"FACIL\",\"serving\":\"4\","
+                    + "\"category\":{\"id\":" + (1 + random.nextInt(categories)) + "}}";
+        }
+
+        /**
+         * Envía una petición y lee la respuesta completa para que la conexión pueda reutilizarse
+         *
+         * @return Código de estado
+         */
+        private int send(String method, String uri, String apiKey, String body) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) new URL(base + uri).openConnection();
+            connection.setRequestMethod(method);
+            connection.setRequestProperty("Accept", "application/json");
+            if (apiKey != null) {
+                connection.setRequestProperty("Authorization", apiKey);
+            }
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json");
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            int status = connection.getResponseCode();
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (in != null) {
+                byte[] buffer = new byte[8192];
+                try (InputStream stream = in) {
+                    while (stream.read(buffer) >= 0) {
+                        //Se descarta el cuerpo
+                    }
+                }
+            }
+            return status;
+        }
+
+        /**
+         * Muestra los resultados de la medida
+         */
+        void report(int seconds, long statements) {
+            Histogram all = new Histogram(3);
+            long failed = 0;
+            for (Operation operation : Operation.values()) {
+                Histogram histogram = latencies.get(operation).getIntervalHistogram();
+                long errorCount = errors.get(operation).sum();
+                if (histogram.getTotalCount() > 0) {
+                    line(operation.name().toLowerCase(), histogram, errorCount, seconds);
+                }
+                all.add(histogram);
+                failed += errorCount;
+            }
+            line("total", all, failed, seconds);
+            long requests = all.getTotalCount();
+            System.out.printf("db statements=%d per request=%.2f%n", statements,
+                    requests == 0 ? 0.0 : (double) statements / requests);
+        }
+
+        private static void line(String name, Histogram histogram, long errors, int seconds) {
+            System.out.printf("%-17s requests=%d errors=%d rps=%.0f p50=%.2fms p99=%.2fms p999=%.2fms%n", name,
+                    histogram.getTotalCount(), errors, (double) histogram.getTotalCount() / seconds,
+                    histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(99) / 1e3,
+                    histogram.getValueAtPercentile(99.9) / 1e3);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import akka.util.ByteString;
+import controllers.XmlWriter;
+import models.Recipe;
+import models.RecipeView;
+import play.libs.Json;
+
+/**
+ * Coste de serializar una receta en cada formato: Json.toJson sobre el bean y sobre su vista, Json.prettyPrint del
+ * documento y su escritura en XML con XmlWriter. Son los caminos que recorre cada fallo de caché de
+ * /recipe/:id y, en XML, cada petición.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RecipeRenderBenchmark {
+
+    /**
+     * Número de ingredientes y pasos de la receta
+     */
+    @Param({"3", "20"})
+    public int ingredients;
+
+    private Recipe recipe;
+    private RecipeView view;
+    private JsonNode node;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        recipe = Fixtures.sampleRecipe(1, ingredients);
+        view = RecipeView.of(recipe);
+        node = Json.toJson(view);
+    }
+
+    @Benchmark
+    public JsonNode beanToJson() {
+        return Json.toJson(recipe);
+    }
+
+    @Benchmark
+    public JsonNode viewToJson() {
+        return Json.toJson(view);
+    }
+
+    @Benchmark
+    public String prettyPrint() {
+        return Json.prettyPrint(node);
+    }
+
+    @Benchmark
+    public String beanToJsonPrettyPrint() {
+        return Json.prettyPrint(Json.toJson(recipe));
+    }
+
+    @Benchmark
+    public ByteString xmlRender() {
+        return XmlWriter.recipe(view);
+    }
+}
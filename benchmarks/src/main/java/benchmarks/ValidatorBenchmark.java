@@ -0,0 +1,38 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import validators.FirstCapitalLetterValidator;
+
+/**
+ * Coste de FirstCapitalLetterValidator.isValid, que se ejecuta con cada nombre, apellido y ciudad de los formularios de
+ * usuario y en cada línea de la importación de recetas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ValidatorBenchmark {
+
+    /**
+     * Texto válido corto, válido de varias palabras y no válido al final del texto, que obliga a recorrerlo entero
+     */
+    @Param({"Madrid", "San Sebastián De Los Reyes", "Villanueva de la Cañada"})
+    public String text;
+
+    private FirstCapitalLetterValidator validator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        validator = new FirstCapitalLetterValidator();
+    }
+
+    @Benchmark
+    public boolean isValid() {
+        return validator.isValid(text);
+    }
+}
@@ -0,0 +1,22 @@
+# --- Unique constraints that make duplicate titles, nicks, category names and API keys impossible
+
+# --- !Ups
+
+alter table recipe add constraint uq_recipe_title unique (title);
+
+alter table user add constraint uq_user_nick unique (nick);
+
+alter table category add constraint uq_category_category_name unique (category_name);
+
+alter table api_key add constraint uq_api_key_key unique (key);
+
+
+# --- !Downs
+
+alter table recipe drop constraint if exists uq_recipe_title;
+
+alter table user drop constraint if exists uq_user_nick;
+
+alter table category drop constraint if exists uq_category_category_name;
+
+alter table api_key drop constraint if exists uq_api_key_key;
@@ -0,0 +1,20 @@
+# --- Secondary indexes for the columns the finders filter on
+
+# --- !Ups
+
+create index ix_user_name_surname on user (name, surname);
+create index ix_user_surname on user (surname);
+create index ix_user_city on user (city);
+create index ix_user_admin on user (admin);
+
+create index ix_ingredient_name_units on ingredient (ingredient_name, units);
+
+
+# --- !Downs
+
+drop index if exists ix_user_name_surname;
+drop index if exists ix_user_surname;
+drop index if exists ix_user_city;
+drop index if exists ix_user_admin;
+
+drop index if exists ix_ingredient_name_units;
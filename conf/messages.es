@@ -1,5 +1,7 @@
 wrongOutputFormat = El formato de salida solicitado es incorrecto
 emptyParams = Parámetros obligatorios
+modified = El recurso ha sido modificado desde la versión enviada en If-Match
+fields.unknown = El parámetro fields contiene campos que no existen
 
 
 category.wrongFormat = La categoría introducida no tiene el formato correcto
@@ -24,6 +26,9 @@ recipe.titleAlreadyExists = Ya existe una receta con ese título
 recipe.emptyName = Debe introducir el nombre de una receta
 recipe.empty = No existen recetas pertenecientes a esa categoría
 recipe.emptyList = La lista de recetas está vacía
+recipe.noResults = Ninguna receta coincide con la búsqueda
+recipe.invalidLine = La línea no es una receta en JSON válida
+recipe.importFailed = No se pudo guardar la receta de esta línea: {0}
 
 
 validation.difficulty = Los valores de dificultad son: MUY_FACIL, FACIL, INTERMEDIA, DIFICIL, MUY_DIFICIL
@@ -60,4 +65,6 @@ user.adminError = Tiene que haber al menos un Administrador
 
 apiKey.null = ApiKey incorrecto
 page.null = Debes introducir la página solicitada
+page.wrong = La página debe ser un número mayor o igual que cero
+page.wrongCursor = El cursor de página no es válido
 
@@ -2,21 +2,36 @@ import org.junit.Test;
 
 import com.google.gson.JsonObject;
 
+import controllers.XmlWriter;
+
 import models.Category;
+import models.CategoryView;
 import models.Recipe;
+import models.User;
+
+import services.ApiKeyIndex;
+import services.CollectionVersions;
+import services.ExistingIds;
+
+import play.Application;
+import play.db.ebean.EbeanConfig;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.libs.Json;
 
 import play.mvc.Http.RequestBuilder;
 import play.mvc.Result;
 import play.test.Helpers;
 import play.test.WithApplication;
-import play.twirl.api.Content;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 
+import java.lang.reflect.Proxy;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.sql.DataSource;
+
 /**
  * Clase que contiene los test funcionales del API de recetas de cocina
  */
@@ -34,12 +49,12 @@ public class FunctionalTest extends WithApplication {
     }
 
     @Test
-    public void testCategoryTemplate() {
+    public void testCategoryXml() {
 
         Category c = new Category("Carnes y aves");
-        Content xml = views.xml._category.render(c);
-        assertThat("application/xml").isEqualTo(xml.contentType());
-        assertThat(xml.body()).contains("<name>");
+        String xml = XmlWriter.category(CategoryView.of(c)).utf8String();
+        assertThat(xml).startsWith("<?xml");
+        assertThat(xml).contains("<category><id></id><name>Carnes y aves</name></category>");
     }
 
     @Test
@@ -136,4 +151,150 @@ public class FunctionalTest extends WithApplication {
         assertThat(r.status()).isEqualTo(409);
     }
 
+    @Test
+    public void testExportUsersXml() {
+
+        RequestBuilder req = Helpers.fakeRequest()
+                .method("GET")
+                .uri("/users/export")
+                .header("Accept", "application/xml");
+        Result r = Helpers.route(app, req);
+        assertThat(r.status()).isEqualTo(200);
+        String body = Helpers.contentAsString(r, mat);
+        assertThat(body).startsWith("<?xml");
+        assertThat(body.trim()).endsWith("</users>");
+    }
+
+    @Test
+    public void testMetrics() {
+
+        Helpers.route(app, Helpers.fakeRequest().method("GET").uri("/users").header("Accept", "application/json"));
+        Result r = Helpers.route(app, Helpers.fakeRequest().method("GET").uri("/metrics"));
+        assertThat(r.status()).isEqualTo(200);
+        String body = Helpers.contentAsString(r, mat);
+        assertThat(body).contains("http_server_requests_seconds_count{method=\"GET\",route=\"/users\"} 1");
+        assertThat(body).contains("http_server_responses_total{method=\"GET\",route=\"/users\",status=\"409\"} 1");
+        assertThat(body).contains("api_cache_requests_total{namespace=\"RECIPE\",result=\"hit\"}");
+    }
+
+    @Test
+    public void testConditionalGet() {
+
+        Category c = new Category("ETIQUETAS");
+        c.save();
+        app.injector().instanceOf(ExistingIds.class).add(CollectionVersions.Collection.CATEGORIES, c.getId());
+
+        Result r = Helpers.route(app, Helpers.fakeRequest().method("GET").uri("/category/" + c.getId())
+                .header("Accept", "application/json"));
+        assertThat(r.status()).isEqualTo(200);
+        String etag = r.header("ETag").get();
+        assertThat(etag).startsWith("\"" + c.getId() + "-" + c.getVersion() + "-");
+
+        r = Helpers.route(app, Helpers.fakeRequest().method("GET").uri("/category/" + c.getId())
+                .header("Accept", "application/json").header("If-None-Match", etag));
+        assertThat(r.status()).isEqualTo(304);
+
+        //La respuesta XML tiene otra etiqueta
+        r = Helpers.route(app, Helpers.fakeRequest().method("GET").uri("/category/" + c.getId())
+                .header("Accept", "application/xml").header("If-None-Match", etag));
+        assertThat(r.status()).isEqualTo(200);
+    }
+
+    @Test
+    public void testBulkImportWithoutApikey() {
+
+        RequestBuilder req = Helpers.fakeRequest()
+                .method("POST")
+                .uri("/recipes/bulk")
+                .header("Content-Type", "application/x-ndjson")
+                .bodyText("{\"title\": \"Tarta\"}\n");
+        Result r = Helpers.route(app, req);
+        assertThat(r.status()).isEqualTo(403);
+    }
+
+    //Test para comprobar que una receta con un título repetido se rechaza con 409 aunque tenga ingredientes nuevos,
+    //que se guardan en lote antes que la receta
+    @Test
+    public void testPostRecipeDuplicateTitleWithNewIngredient() {
+
+        Category c = new Category("DUPLICADAS");
+        c.save();
+        User user = new User("duplicator", "Name", "Surname", "City");
+        user.generateApiKey();
+        user.save();
+        app.injector().instanceOf(ApiKeyIndex.class).put(user);
+
+        assertThat(postRecipe(user, c, "Leche").status()).isEqualTo(201);
+        Result r = postRecipe(user, c, "Harina de trigo");
+        assertThat(r.status()).isEqualTo(409);
+        assertThat(Helpers.contentAsString(r)).contains("\"1\"");
+    }
+
+    //Test para comprobar que al renombrar una categoría no se sigue sirviendo de la caché una receta con el nombre anterior
+    @Test
+    public void testRenameCategoryRefreshesCachedRecipe() {
+
+        Category c = new Category("MERIENDAS");
+        c.save();
+        User admin = new User("renamer", "Name", "Surname", "City");
+        admin.setAdmin(true);
+        admin.generateApiKey();
+        admin.save();
+        app.injector().instanceOf(ApiKeyIndex.class).put(admin);
+        assertThat(postRecipe(admin, c, "Leche").status()).isEqualTo(201);
+        Recipe recipe = Recipe.find.query().where().eq("title", "BIZCOCHO").findOne();
+
+        String uri = "/recipe/" + recipe.getId();
+        Result r = Helpers.route(app, Helpers.fakeRequest().method("GET").uri(uri).header("Accept", "application/json"));
+        assertThat(Helpers.contentAsString(r)).contains("MERIENDAS");
+
+        r = Helpers.route(app, Helpers.fakeRequest().method("PUT").uri("/category/" + c.getId())
+                .header("Authorization", admin.getApiKey().getKey())
+                .bodyJson(Json.parse("{\"categoryName\": \"Desayunos\"}")));
+        assertThat(r.status()).isEqualTo(200);
+
+        r = Helpers.route(app, Helpers.fakeRequest().method("GET").uri(uri).header("Accept", "application/json"));
+        assertThat(Helpers.contentAsString(r)).contains("DESAYUNOS").doesNotContain("MERIENDAS");
+    }
+
+    //Test para comprobar que la búsqueda por texto rechaza las páginas negativas o que no son números
+    @Test
+    public void testSearchRecipeWrongPage() {
+
+        for (String page : new String[]{"-1", "dos"}) {
+            Result r = Helpers.route(app, Helpers.fakeRequest().method("GET").uri("/recipes/search?q=tarta&page=" + page)
+                    .header("Accept", "application/json"));
+            assertThat(r.status()).isEqualTo(400);
+            assertThat(Helpers.contentAsString(r)).contains("\"5\"");
+        }
+    }
+
+    //Test para comprobar que el umbral del registro de sentencias lentas se lee de la configuración de la aplicación
+    @Test
+    public void testSlowQueryThresholdOverride() {
+
+        Map<String, Object> conf = new HashMap<>(Helpers.inMemoryDatabase());
+        conf.put("db.default.slowQueryThreshold", "1 ms");
+        Application slow = new GuiceApplicationBuilder().configure(conf).build();
+        try {
+            DataSource dataSource = slow.injector().instanceOf(EbeanConfig.class).serverConfigs().get("default").getDataSource();
+            assertThat(Proxy.isProxyClass(dataSource.getClass())).isTrue();
+        } finally {
+            Helpers.stop(slow);
+        }
+    }
+
+    private Result postRecipe(User user, Category category, String ingredient) {
+
+        String body = "{\"title\": \"Bizcocho\", \"ingredients\": [{\"ingredientName\": \"" + ingredient
+                + "\", \"units\": \"gramos\"}], \"steps\": [\"Mezclar\", \"Hornear\"], \"time\": \"40 min\","
+                + " \"difficulty\": \"FACIL\", \"serving\": \"6\", \"category\": {\"id\": " + category.getId() + "}}";
+        RequestBuilder req = Helpers.fakeRequest()
+                .method("POST")
+                .uri("/recipe")
+                .header("Authorization", user.getApiKey().getKey())
+                .bodyJson(Json.parse(body));
+        return Helpers.route(app, req);
+    }
+
 }
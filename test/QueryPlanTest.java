@@ -0,0 +1,61 @@
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import models.ApiKey;
+import models.Category;
+import models.Ingredient;
+import models.Recipe;
+import models.User;
+import play.Application;
+import play.test.Helpers;
+import play.test.WithApplication;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Clase que comprueba con EXPLAIN de H2 que las búsquedas de los modelos usan un índice en lugar de recorrer la tabla
+ * entera
+ */
+public class QueryPlanTest extends WithApplication {
+
+    /**
+     * Acceso a una tabla sin condición: la recorre entera, ya sea directamente (tableScan) o en el orden de un índice
+     */
+    private static final Pattern FULL_SCAN = Pattern.compile("/\\* PUBLIC\\.[\\w.]+ \\*/");
+
+    @Override
+    protected Application provideApplication() {
+        return Helpers.fakeApplication(Helpers.inMemoryDatabase());
+    }
+
+    @Test
+    public void testUserFindersUseIndexes() {
+        assertIndexed("User.findByName", () -> User.findByName("Name", 0).getList());
+        assertIndexed("User.findBySurname", () -> User.findBySurname("Surname", 0).getList());
+        assertIndexed("User.findByCity", () -> User.findByCity("City", 0).getList());
+        assertIndexed("User.findByFullName", () -> User.findByFullName("Name", "Surname", 0).getList());
+        assertIndexed("User.findByAdmin", () -> User.findByAdmin(0).getList());
+        assertIndexed("User.findByNick", () -> User.findByNick("nick"));
+    }
+
+    @Test
+    public void testRecipeAndCategoryFindersUseIndexes() {
+        assertIndexed("Recipe.findByName", () -> Recipe.findByName("TARTA"));
+        assertIndexed("Category.findByCategoryName", () -> Category.findByCategoryName("POSTRES"));
+        assertIndexed("Ingredient.findIngredientByNameAndUnit", () -> Ingredient.findIngredientByNameAndUnit("Harina", "gramos"));
+        assertIndexed("ApiKey.findBykey", () -> ApiKey.findBykey("key"));
+    }
+
+    private void assertIndexed(String finder, Runnable query) {
+        SqlCounter.reset();
+        query.run();
+        List<String> selects = SqlCounter.selects();
+        assertThat(selects).as(finder).isNotEmpty();
+        for (String sql : selects) {
+            String plan = SqlCounter.explain(sql);
+            assertThat(FULL_SCAN.matcher(plan).find()).as(finder + ": " + plan).isFalse();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import models.Category;
+import models.Difficulty;
+import models.Ingredient;
+import models.Recipe;
+import models.User;
+import play.Application;
+import play.mvc.Http.RequestBuilder;
+import play.mvc.Result;
+import play.test.Helpers;
+import play.test.WithApplication;
+import services.ExistingIds;
+import services.IngredientCache;
+import services.RecipeSearchIndex;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Clase que comprueba cuántas sentencias SQL ejecuta cada listado de recetas con la caché vacía. El límite de cada
+ * petición no depende del número de recetas de la página: si se supera, alguna relación se está cargando receta a
+ * receta al serializar.
+ */
+public class SqlBudgetTest extends WithApplication {
+
+    @Override
+    protected Application provideApplication() {
+        return Helpers.fakeApplication(Helpers.inMemoryDatabase());
+    }
+
+    @Before
+    public void seed() {
+        Category category = new Category("POSTRES");
+        category.save();
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            User user = new User("user" + i, "Name", "Surname", "City");
+            user.generateApiKey();
+            user.save();
+            users.add(user);
+        }
+        for (int i = 0; i < 12; i++) {
+            List<Ingredient> ingredients = new ArrayList<>();
+            for (int j = 0; j < 3; j++) {
+                ingredients.add(new Ingredient("Ingrediente " + i + " " + j, "gramos"));
+            }
+            Recipe recipe = new Recipe("TARTA " + i, ingredients, Arrays.asList("Mezclar", "Hornear"), "30 minutos",
+                    Difficulty.FACIL, "4", category);
+            recipe.setUser(users.get(i % users.size()));
+            recipe.checkRecipe(app.injector().instanceOf(IngredientCache.class));
+        }
+        app.injector().instanceOf(ExistingIds.class).reload();
+        app.injector().instanceOf(RecipeSearchIndex.class).rebuild();
+    }
+
+    @Test
+    public void testRecipeBudget() {
+        assertBudget("/recipe/1", 1);
+        assertBudget("/recipes/search?title=TARTA%201", 1);
+    }
+
+    @Test
+    public void testRecipePageBudget() {
+        //Página, ingredientes de todas sus recetas y total
+        assertBudget("/recipes?page=0", 3);
+        assertBudget("/recipes?after=", 2);
+        assertBudget("/recipes/search?q=tarta", 2);
+    }
+
+    @Test
+    public void testCategoryAndUserRecipesBudget() {
+        //Además de la página se busca la categoría o el usuario
+        assertBudget("/recipes/category/1?page=0", 4);
+        assertBudget("/recipes/user/1?page=0", 4);
+    }
+
+    @Test
+    public void testXmlRecipePageBudget() {
+        //La vista XML muestra también el autor de cada receta
+        assertBudget("/recipes?page=1", "application/xml", 3);
+        assertBudget("/recipes/category/1?after=", "application/xml", 3);
+    }
+
+    private void assertBudget(String uri, int budget) {
+        assertBudget(uri, "application/json", budget);
+    }
+
+    private void assertBudget(String uri, String accept, int budget) {
+        SqlCounter.reset();
+        RequestBuilder req = Helpers.fakeRequest()
+                .method("GET")
+                .uri(uri)
+                .header("Accept", accept);
+        Result r = Helpers.route(app, req);
+        assertThat(r.status()).isEqualTo(200);
+        assertThat(SqlCounter.count()).as("SQL statements for " + uri).isLessThanOrEqualTo(budget);
+    }
+}
@@ -0,0 +1,99 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.ebean.Ebean;
+import io.ebean.Transaction;
+
+/**
+ * Contador de las sentencias SQL que se ejecutan en la base de datos H2 de los tests. Usa las estadísticas de consultas
+ * de H2, por lo que también cuenta las consultas que lanza Ebean al cargar las relaciones de forma perezosa. No cuenta
+ * el control de transacciones ni la recuperación de las claves generadas. También permite obtener el plan de ejecución
+ * de las consultas ejecutadas.
+ */
+public final class SqlCounter {
+
+    private SqlCounter() {
+    }
+
+    /**
+     * Método que pone a cero el contador
+     */
+    public static void reset() {
+        execute("SET QUERY_STATISTICS FALSE");
+        execute("SET QUERY_STATISTICS TRUE");
+    }
+
+    /**
+     * Método que devuelve las sentencias ejecutadas desde la última llamada a reset
+     *
+     * @return Número de sentencias
+     */
+    public static int count() {
+        try (Transaction transaction = Ebean.beginTransaction();
+             Statement statement = transaction.getConnection().createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COALESCE(SUM(EXECUTION_COUNT), 0)"
+                     + " FROM INFORMATION_SCHEMA.QUERY_STATISTICS"
+                     + " WHERE SQL_STATEMENT NOT IN ('COMMIT', 'ROLLBACK')"
+                     + " AND UPPER(SQL_STATEMENT) NOT LIKE '%SCOPE_IDENTITY()%'"
+                     + " AND UPPER(SQL_STATEMENT) NOT LIKE '%QUERY_STATISTICS%'")) {
+            rs.next();
+            return rs.getInt(1);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Método que devuelve las consultas ejecutadas desde la última llamada a reset, con los parámetros sin sustituir
+     *
+     * @return Las consultas
+     */
+    public static List<String> selects() {
+        List<String> selects = new ArrayList<>();
+        try (Transaction transaction = Ebean.beginTransaction();
+             Statement statement = transaction.getConnection().createStatement();
+             ResultSet rs = statement.executeQuery("SELECT SQL_STATEMENT FROM INFORMATION_SCHEMA.QUERY_STATISTICS"
+                     + " WHERE UPPER(SQL_STATEMENT) LIKE 'SELECT %'"
+                     + " AND UPPER(SQL_STATEMENT) NOT LIKE '%SCOPE_IDENTITY()%'"
+                     + " AND UPPER(SQL_STATEMENT) NOT LIKE '%QUERY_STATISTICS%'")) {
+            while (rs.next()) {
+                selects.add(rs.getString(1));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        return selects;
+    }
+
+    /**
+     * Método que devuelve el plan de ejecución de una consulta según H2
+     *
+     * @param sql La consulta
+     * @return El plan. Cada tabla aparece en un comentario con el índice usado seguido, si se busca en él, de dos puntos
+     * y la condición
+     */
+    public static String explain(String sql) {
+        try (Transaction transaction = Ebean.beginTransaction();
+             PreparedStatement statement = transaction.getConnection().prepareStatement("EXPLAIN " + sql);
+             ResultSet rs = statement.executeQuery()) {
+            rs.next();
+            return rs.getString(1);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void execute(String sql) {
+        try (Transaction transaction = Ebean.beginTransaction();
+             Statement statement = transaction.getConnection().createStatement()) {
+            statement.execute(sql);
+            transaction.commit();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,11 +1,42 @@
 
+import controllers.CachedBody;
+import controllers.Cursor;
+import models.Category;
+import models.Difficulty;
+import models.FieldSet;
+import models.Ingredient;
+import models.Recipe;
+import models.RecipeView;
 import models.User;
+import services.ApiCache;
+import services.CacheKey;
+import services.CollectionVersions;
+import services.ExistingIds;
+import services.NearCache;
+import services.RecipeSearchIndex;
+import play.cache.SyncCacheApi;
+import play.libs.Json;
 import validators.FirstCapitalLetterValidator;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 
 /**
@@ -30,4 +61,237 @@ public class UnitTest {
     		assertThat(fclv.isValid(cadena)).isEqualTo(true);
     }
 
+    //Test para comprobar que el cursor de paginación se decodifica al mismo identificador y rechaza valores manipulados
+    @Test
+    public void testCursorRoundTrip() {
+
+        assertThat(Cursor.decode(Cursor.encode(1234L))).isEqualTo(1234L);
+        assertThat(Cursor.decode("")).isEqualTo(0L);
+        assertThat(Cursor.decode("not-a-cursor")).isNull();
+    }
+
+    //Test para comprobar que al modificar una colección cambian las claves de sus listados y no las de las demás
+    @Test
+    public void testCollectionVersions() {
+
+        CollectionVersions versions = new CollectionVersions();
+        ApiCache cache = new ApiCache(null, versions, new ExistingIds(), 0);
+        CacheKey recipes = cache.key(CacheKey.Namespace.RECIPE_LIST, 0);
+        CacheKey users = cache.key(CacheKey.Namespace.USER_LIST, 0);
+        versions.bump(CollectionVersions.Collection.RECIPES);
+        assertThat(cache.key(CacheKey.Namespace.RECIPE_LIST, 0)).isNotEqualTo(recipes);
+        assertThat(cache.key(CacheKey.Namespace.USER_LIST, 0)).isEqualTo(users);
+    }
+
+    //Test para comprobar que las claves de caché no colisionan aunque la concatenación de sus partes coincida
+    @Test
+    public void testCacheKeyCollisions() {
+
+        ApiCache cache = new ApiCache(null, new CollectionVersions(), new ExistingIds(), 0);
+        CacheKey user1Page12 = cache.key(CacheKey.Namespace.USER_RECIPES, 1L, 12);
+        CacheKey user11Page2 = cache.key(CacheKey.Namespace.USER_RECIPES, 11L, 2);
+        assertThat(user1Page12).isNotEqualTo(user11Page2);
+        assertThat(user1Page12.toString()).isNotEqualTo(user11Page2.toString());
+        assertThat(cache.key(CacheKey.Namespace.RECIPE, 5L).toString())
+                .isNotEqualTo(cache.key(CacheKey.Namespace.RECIPE_BY_TITLE, "5").toString());
+        assertThat(cache.key(CacheKey.Namespace.USERS_BY_FULL_NAME, "Ana", "Mar", 0).toString())
+                .isNotEqualTo(cache.key(CacheKey.Namespace.USERS_BY_FULL_NAME, "AnaM", "ar", 0).toString());
+        assertThat(cache.key(CacheKey.Namespace.RECIPE, 5L).json()).isEqualTo(cache.key(CacheKey.Namespace.RECIPE, 5L).json());
+    }
+
+    //Test para comprobar que los elementos que no existen se descartan sin consultar la base de datos hasta que se escribe en la colección
+    @Test
+    public void testNegativeCache() {
+
+        CollectionVersions versions = new CollectionVersions();
+        ExistingIds existingIds = new ExistingIds();
+        ApiCache cache = new ApiCache(null, versions, existingIds, 0);
+        assertThat(cache.isMissing(cache.key(CacheKey.Namespace.RECIPE, 7L))).isTrue();
+        existingIds.add(CollectionVersions.Collection.RECIPES, 7L);
+        assertThat(cache.isMissing(cache.key(CacheKey.Namespace.RECIPE, 7L))).isFalse();
+        existingIds.add(CollectionVersions.Collection.RECIPES, 1000L);
+        existingIds.remove(CollectionVersions.Collection.RECIPES, 7L);
+        assertThat(cache.isMissing(cache.key(CacheKey.Namespace.RECIPE, 7L))).isTrue();
+        assertThat(cache.isMissing(cache.key(CacheKey.Namespace.RECIPE, 1000L))).isFalse();
+        assertThat(cache.isMissing(cache.key(CacheKey.Namespace.RECIPE, 1000L).json())).isFalse();
+
+        cache.setMissing(cache.key(CacheKey.Namespace.USER_BY_NICK, "nadie"));
+        assertThat(cache.isMissing(cache.key(CacheKey.Namespace.USER_BY_NICK, "nadie"))).isTrue();
+        versions.bump(CollectionVersions.Collection.USERS);
+        assertThat(cache.isMissing(cache.key(CacheKey.Namespace.USER_BY_NICK, "nadie"))).isFalse();
+    }
+
+    //Test para comprobar que si muchas peticiones no encuentran la misma clave a la vez sólo una consulta la base de datos
+    @Test
+    public void testSingleFlightLoad() throws Exception {
+
+        ApiCache cache = new ApiCache(new MapCache(), new CollectionVersions(), new ExistingIds(), ApiCache.REFRESH_AHEAD);
+        AtomicInteger queries = new AtomicInteger();
+        int threads = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return cache.getOrLoad(cache.key(CacheKey.Namespace.RECIPE_LIST, 0), () -> {
+                    queries.incrementAndGet();
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "page-0";
+                });
+            }));
+        }
+        start.countDown();
+        for (Future<String> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("page-0");
+        }
+        executor.shutdown();
+        assertThat(queries.get()).isEqualTo(1);
+    }
+
+    //Test para comprobar que cada espacio de nombres de la caché en memoria descarta los elementos usados hace más tiempo al superar su peso
+    @Test
+    public void testNearCacheEviction() {
+
+        Map<CacheKey.Namespace, Long> ttls = new EnumMap<>(CacheKey.Namespace.class);
+        Map<CacheKey.Namespace, Long> weights = new EnumMap<>(CacheKey.Namespace.class);
+        for (CacheKey.Namespace namespace : CacheKey.Namespace.values()) {
+            ttls.put(namespace, 60L);
+            weights.put(namespace, 3L);
+        }
+        NearCache near = new NearCache(ttls, weights);
+        ApiCache cache = new ApiCache(null, new CollectionVersions(), new ExistingIds(), near, 0);
+        near.put(cache.key(CacheKey.Namespace.RECIPE, 1L), "1", 1);
+        near.put(cache.key(CacheKey.Namespace.RECIPE, 2L), "2", 1);
+        near.put(cache.key(CacheKey.Namespace.USER, 1L), "u1", 3);
+        assertThat(near.get(cache.key(CacheKey.Namespace.RECIPE, 1L))).isEqualTo("1");
+        near.put(cache.key(CacheKey.Namespace.RECIPE, 3L), "3", 2);
+
+        assertThat(near.get(cache.key(CacheKey.Namespace.RECIPE, 2L))).isNull();
+        assertThat(near.get(cache.key(CacheKey.Namespace.RECIPE, 1L))).isEqualTo("1");
+        assertThat(near.get(cache.key(CacheKey.Namespace.USER, 1L))).isEqualTo("u1");
+        assertThat(near.weight(CacheKey.Namespace.RECIPE)).isEqualTo(3L);
+    }
+
+    //Test para comprobar que el índice de búsqueda encuentra recetas por prefijo, ingredientes y pasos, ordenadas por relevancia
+    @Test
+    public void testRecipeSearchIndex() {
+
+        RecipeSearchIndex index = new RecipeSearchIndex();
+        index.index(recipe(1L, "TORTILLA DE PATATAS", "Huevo", "Batir los huevos y freír las patatas"));
+        index.index(recipe(2L, "PATATAS BRAVAS", "Patatas", "Freír y servir con salsa brava"));
+        index.index(recipe(3L, "FLAN", "Leche", "Cocinar al baño maría"));
+
+        assertThat(index.search("patatas", 0, 10).getIds()).containsExactly(2L, 1L);
+        assertThat(index.search("tort", 0, 10).getIds()).containsExactly(1L);
+        assertThat(index.search("huevo freir", 0, 10).getIds()).containsExactly(1L);
+        assertThat(index.search("maria", 0, 10).getIds()).containsExactly(3L);
+
+        index.remove(1L);
+        assertThat(index.search("tortilla", 0, 10).getIds()).isEmpty();
+    }
+
+    //Test para comprobar que la vista de una receta que se guarda en caché se muestra igual que la receta
+    @Test
+    public void testRecipeView() {
+
+        Recipe recipe = recipe(1L, "FLAN", "Leche", "Cocinar al baño maría");
+        RecipeView view = RecipeView.of(recipe);
+        assertThat(Json.stringify(Json.toJson(view))).isEqualTo(Json.stringify(Json.toJson(recipe)));
+        assertThatThrownBy(() -> view.getSteps().add("Servir")).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    //Test para comprobar que sólo se comprimen las respuestas grandes y que se elige la codificación aceptada
+    @Test
+    public void testCompressedBody() {
+
+        List<Recipe> recipes = new ArrayList<>();
+        for (long i = 1; i <= 20; i++) {
+            recipes.add(recipe(i, "FLAN " + i, "Leche", "Cocinar al baño maría"));
+        }
+        CachedBody small = CachedBody.json(Json.toJson(recipes.get(0)));
+        small.compress(ApiCache.COMPRESSION_THRESHOLD);
+        assertThat(small.weight()).isEqualTo(small.length());
+
+        CachedBody large = CachedBody.json(Json.toJson(RecipeView.of(recipes)));
+        large.compress(ApiCache.COMPRESSION_THRESHOLD);
+        assertThat(large.weight()).isGreaterThan(large.length()).isLessThan(2L * large.length());
+
+        assertThat(CachedBody.encoding(null)).isNull();
+        assertThat(CachedBody.encoding("gzip, deflate, br")).isEqualTo(CachedBody.GZIP);
+        assertThat(CachedBody.encoding("gzip;q=0.5, deflate")).isEqualTo(CachedBody.DEFLATE);
+        assertThat(CachedBody.encoding("gzip;q=0, *")).isEqualTo(CachedBody.DEFLATE);
+        assertThat(CachedBody.encoding("identity")).isNull();
+    }
+
+    //Test para comprobar que el parámetro fields sólo admite campos existentes y que se muestran sólo los solicitados
+    @Test
+    public void testFieldSet() {
+
+        assertThat(FieldSet.parse(null, RecipeView.FIELDS)).isSameAs(FieldSet.ALL);
+        assertThat(FieldSet.parse("title,bogus", RecipeView.FIELDS)).isNull();
+        assertThat(FieldSet.parse(String.join(",", RecipeView.FIELDS), RecipeView.FIELDS)).isSameAs(FieldSet.ALL);
+
+        FieldSet fields = FieldSet.parse("title, id", RecipeView.FIELDS);
+        assertThat(fields.key()).isEqualTo("id,title");
+        assertThat(fields.select("title", "steps", "time")).isEqualTo("title");
+        assertThat(fields.with("time").select("title", "steps", "time")).isEqualTo("title,time");
+        assertThat(FieldSet.parse("category", RecipeView.FIELDS).select("title", "steps")).isEqualTo("id");
+
+        Recipe recipe = recipe(1L, "FLAN", "Leche", "Cocinar al baño maría");
+        assertThat(Json.stringify(fields.retain(Json.toJson(RecipeView.of(Arrays.asList(recipe))))))
+                .isEqualTo("[{\"id\":1,\"title\":\"FLAN\"}]");
+    }
+
+    private static Recipe recipe(Long id, String title, String ingredient, String step) {
+
+        Recipe recipe = new Recipe(title, Arrays.asList(new Ingredient(ingredient, "gramos")), Arrays.asList(step),
+                "30 minutos", Difficulty.FACIL, "4", new Category("ENTRANTES"));
+        recipe.setId(id);
+        return recipe;
+    }
+
+
+    /**
+     * Caché en memoria que sustituye a la de Play en los test unitarios
+     */
+    private static class MapCache implements SyncCacheApi {
+
+        private final Map<String, Object> map = new ConcurrentHashMap<>();
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> T get(String key) {
+            return (T) map.get(key);
+        }
+
+        @Override
+        public <T> T getOrElseUpdate(String key, Callable<T> block, int expiration) {
+            return getOrElseUpdate(key, block);
+        }
+
+        @Override
+        public <T> T getOrElseUpdate(String key, Callable<T> block) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void set(String key, Object value, int expiration) {
+            map.put(key, value);
+        }
+
+        @Override
+        public void set(String key, Object value) {
+            map.put(key, value);
+        }
+
+        @Override
+        public void remove(String key) {
+            map.remove(key);
+        }
+    }
 }